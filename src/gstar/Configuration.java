@@ -1,6 +1,10 @@
 package gstar;
 
+import gstar.data.GraphPath;
+
 import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * A Configuration represents a configuration for the G* system.
@@ -24,11 +28,118 @@ public class Configuration extends hwanglab.system.Configuration implements java
 	 */
 	protected long bufferSize = 100*1024*1024;
 
+	/**
+	 * The type of storage used for the graph data.
+	 */
+	protected StorageType storageType = StorageType.DISK;
+
+	/**
+	 * A flag indicating whether or not the buffered pages are kept in direct (off-heap) memory.
+	 */
+	protected boolean offHeap = false;
+
+	/**
+	 * A flag indicating whether or not pages are saved on disk in the compressed format.
+	 */
+	protected boolean pageCompression = false;
+
+	/**
+	 * The size of the buffer for caching compressed pages evicted from the buffer (0 if not used).
+	 */
+	protected long compressedBufferSize = 0;
+
+	/**
+	 * The size of the cache of decoded fat nodes (0 if not used).
+	 */
+	protected long fatNodeCacheSize = 16*1024*1024;
+
+	/**
+	 * The size of the cache of vertices materialized from fat nodes (0 if not used).
+	 */
+	protected long vertexCacheSize = 16*1024*1024;
+
+	/**
+	 * The number of segment files across which the pages of new graph data files are sharded.
+	 */
+	protected int segments = 1;
+
+	/**
+	 * A flag indicating whether or not the vertices of new graph data files are indexed by a disk-resident B+-tree
+	 * (instead of an index kept on the heap).
+	 */
+	protected boolean diskIndex = false;
+
+	/**
+	 * The size of the buffer for caching the pages of disk-resident indexes.
+	 */
+	protected long indexBufferSize = 8*1024*1024;
+
+	/**
+	 * A flag indicating whether or not the IDs of the vertices in each graph data file are kept in a Bloom filter.
+	 */
+	protected boolean vertexFilter = true;
+
+	/**
+	 * The number of threads that apply the vertex updates of each graph update in parallel (1 to apply them in order
+	 * on the updating thread).
+	 */
+	protected int ingestionThreads = 1;
+
+	/**
+	 * A flag indicating whether or not sparsely used pages are compacted in the background.
+	 */
+	protected boolean compaction = true;
+
+	/**
+	 * The interval (in milliseconds) between the rounds of background compaction.
+	 */
+	protected long compactionInterval = 10000;
+
+	/**
+	 * The paths of the GraphDirectories whose data is kept in memory regardless of the storage type.
+	 */
+	protected Set<String> memoryGraphs = new HashSet<String>();
+
+	/**
+	 * The types of storage for the graph data.
+	 */
+	public enum StorageType {
+
+		/**
+		 * Pages are read and written through a RandomAccessFile.
+		 */
+		DISK,
+
+		/**
+		 * Pages are read through memory-mapped regions and written through positional FileChannel operations.
+		 */
+		MAPPED,
+
+		/**
+		 * Objects are kept in memory as they are and saved in a snapshot file at checkpoints.
+		 */
+		MEMORY;
+	}
+
 	@Override
 	public String toString() {
 		String s = super.toString();
 		s += "system directory: " + systemDirectory() + "\r\n";
 		s += "buffer size: " + bufferSize() + "\r\n";
+		s += "storage type: " + storageType() + "\r\n";
+		s += "off-heap buffer: " + offHeap() + "\r\n";
+		s += "page compression: " + pageCompression() + "\r\n";
+		s += "compressed buffer size: " + compressedBufferSize() + "\r\n";
+		s += "fat node cache size: " + fatNodeCacheSize() + "\r\n";
+		s += "vertex cache size: " + vertexCacheSize() + "\r\n";
+		s += "segments: " + segments() + "\r\n";
+		s += "disk index: " + diskIndex() + "\r\n";
+		s += "index buffer size: " + indexBufferSize() + "\r\n";
+		s += "vertex filter: " + vertexFilter() + "\r\n";
+		s += "ingestion threads: " + ingestionThreads() + "\r\n";
+		s += "compaction: " + compaction() + "\r\n";
+		s += "compaction interval: " + compactionInterval() + "\r\n";
+		s += "memory graphs: " + memoryGraphs + "\r\n";
 		return s;
 	}
 
@@ -38,6 +149,35 @@ public class Configuration extends hwanglab.system.Configuration implements java
 			this.systemDirectory = i.next();
 		} else if (argument.equals("-bufferSize")) {
 			bufferSize = Long.parseLong(i.next());
+		} else if (argument.equals("-storage")) {
+			storageType = StorageType.valueOf(i.next().toUpperCase());
+		} else if (argument.equals("-offHeap")) {
+			offHeap = Boolean.parseBoolean(i.next());
+		} else if (argument.equals("-pageCompression")) {
+			pageCompression = Boolean.parseBoolean(i.next());
+		} else if (argument.equals("-compressedBufferSize")) {
+			compressedBufferSize = Long.parseLong(i.next());
+		} else if (argument.equals("-fatNodeCacheSize")) {
+			fatNodeCacheSize = Long.parseLong(i.next());
+		} else if (argument.equals("-vertexCacheSize")) {
+			vertexCacheSize = Long.parseLong(i.next());
+		} else if (argument.equals("-segments")) {
+			segments = Integer.parseInt(i.next());
+		} else if (argument.equals("-diskIndex")) {
+			diskIndex = Boolean.parseBoolean(i.next());
+		} else if (argument.equals("-indexBufferSize")) {
+			indexBufferSize = Long.parseLong(i.next());
+		} else if (argument.equals("-vertexFilter")) {
+			vertexFilter = Boolean.parseBoolean(i.next());
+		} else if (argument.equals("-ingestionThreads")) {
+			ingestionThreads = Integer.parseInt(i.next());
+		} else if (argument.equals("-compaction")) {
+			compaction = Boolean.parseBoolean(i.next());
+		} else if (argument.equals("-compactionInterval")) {
+			compactionInterval = Long.parseLong(i.next());
+		} else if (argument.equals("-memoryGraphs")) {
+			for (String path : i.next().split(","))
+				memoryGraphs.add(path);
 		} else
 			super.update(argument, i);
 	}
@@ -80,4 +220,132 @@ public class Configuration extends hwanglab.system.Configuration implements java
 		return bufferSize;
 	}
 
+	/**
+	 * Returns the type of storage used for the graph data.
+	 * 
+	 * @return the type of storage used for the graph data.
+	 */
+	public StorageType storageType() {
+		return storageType;
+	}
+
+	/**
+	 * Returns the type of storage used for the data of the specified GraphDirectory.
+	 * 
+	 * @param path
+	 *            the absolute path to a GraphDirectory.
+	 * @return the type of storage used for the data of the specified GraphDirectory.
+	 */
+	public StorageType storageType(GraphPath path) {
+		return memoryGraphs.contains(path.toString()) ? StorageType.MEMORY : storageType;
+	}
+
+	/**
+	 * Determines whether or not the buffered pages are kept in direct (off-heap) memory.
+	 * 
+	 * @return true if the buffered pages are kept in direct memory; false otherwise.
+	 */
+	public boolean offHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Determines whether or not pages are saved on disk in the compressed format.
+	 * 
+	 * @return true if pages are saved on disk in the compressed format; false otherwise.
+	 */
+	public boolean pageCompression() {
+		return pageCompression;
+	}
+
+	/**
+	 * Returns the size of the buffer for caching compressed pages evicted from the buffer.
+	 * 
+	 * @return the size of the buffer for caching compressed pages evicted from the buffer (0 if not used).
+	 */
+	public long compressedBufferSize() {
+		return compressedBufferSize;
+	}
+
+	/**
+	 * Returns the size of the cache of decoded fat nodes.
+	 * 
+	 * @return the size of the cache of decoded fat nodes (0 if not used).
+	 */
+	public long fatNodeCacheSize() {
+		return fatNodeCacheSize;
+	}
+
+	/**
+	 * Returns the size of the cache of vertices materialized from fat nodes.
+	 * 
+	 * @return the size of the cache of vertices materialized from fat nodes (0 if not used).
+	 */
+	public long vertexCacheSize() {
+		return vertexCacheSize;
+	}
+
+	/**
+	 * Returns the number of segment files across which the pages of new graph data files are sharded.
+	 * 
+	 * @return the number of segment files across which the pages of new graph data files are sharded.
+	 */
+	public int segments() {
+		return segments;
+	}
+
+	/**
+	 * Determines whether or not the vertices of new graph data files are indexed by a disk-resident B+-tree.
+	 * 
+	 * @return true if the vertices of new graph data files are indexed by a disk-resident B+-tree; false otherwise.
+	 */
+	public boolean diskIndex() {
+		return diskIndex;
+	}
+
+	/**
+	 * Returns the size of the buffer for caching the pages of disk-resident indexes.
+	 * 
+	 * @return the size of the buffer for caching the pages of disk-resident indexes.
+	 */
+	public long indexBufferSize() {
+		return indexBufferSize;
+	}
+
+	/**
+	 * Determines whether or not the IDs of the vertices in each graph data file are kept in a Bloom filter.
+	 * 
+	 * @return true if the IDs of the vertices in each graph data file are kept in a Bloom filter; false otherwise.
+	 */
+	public boolean vertexFilter() {
+		return vertexFilter;
+	}
+
+	/**
+	 * Returns the number of threads that apply the vertex updates of each graph update in parallel.
+	 * 
+	 * @return the number of threads that apply the vertex updates of each graph update in parallel.
+	 */
+	public int ingestionThreads() {
+		return ingestionThreads;
+	}
+
+	/**
+	 * Determines whether or not sparsely used pages are compacted in the background.
+	 * 
+	 * @return true if sparsely used pages are compacted in the background; false otherwise.
+	 */
+	public boolean compaction() {
+		return compaction;
+	}
+
+	/**
+	 * Returns the interval (in milliseconds) between the rounds of background compaction.
+	 * 
+	 * @return the interval (in milliseconds) between the rounds of background compaction.
+	 */
+	public long compactionInterval() {
+		return compactionInterval;
+	}
+
 }
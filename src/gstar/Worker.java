@@ -221,7 +221,7 @@ public class Worker extends hwanglab.system.Worker implements WorkerInterface {
 	@Override
 	protected void initialize(hwanglab.system.Configuration configuration) throws Exception {
 		Configuration c = (Configuration) configuration;
-		graphManager = new GraphManager(workerID, c.systemDirectory(), c.bufferSize());
+		graphManager = new GraphManager(workerID, c);
 		queryEngine = new QueryEngine(this);
 		System.out.println(this + " started its graph manager and query engine.");
 	}
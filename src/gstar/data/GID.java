@@ -11,6 +11,8 @@ import java.io.ObjectOutput;
  */
 public class GID implements Comparable<GID>, java.io.Externalizable {
 
+	private static final long serialVersionUID = -387474462958835940L; // as computed before GIDs kept timestamps
+
 	/**
 	 * The minimum GID value.
 	 */
@@ -19,7 +21,12 @@ public class GID implements Comparable<GID>, java.io.Externalizable {
 	/**
 	 * The GID value.
 	 */
-	protected Double value = null;
+	protected double value;
+
+	/**
+	 * The timestamp of this GID (see {@link #timestamp(double)}).
+	 */
+	protected long timestamp;
 
 	/**
 	 * Constructs a GID.
@@ -35,6 +42,7 @@ public class GID implements Comparable<GID>, java.io.Externalizable {
 	 */
 	public GID(double value) {
 		this.value = value;
+		this.timestamp = timestamp(value);
 	}
 
 	/**
@@ -51,6 +59,40 @@ public class GID implements Comparable<GID>, java.io.Externalizable {
 		readExternal(in);
 	}
 
+	/**
+	 * Returns the timestamp of this GID.
+	 * 
+	 * @return the timestamp of this GID.
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the timestamp of the specified GID value: a long that orders as the value does and is distinct for each
+	 * distinct value, so fractional values are never truncated. The timestamp of a non-negative value is the bit
+	 * pattern of the value and that of a negative value has all the bits but the sign bit flipped.
+	 * 
+	 * @param value
+	 *            a GID value.
+	 * @return the timestamp of the specified GID value.
+	 */
+	public static long timestamp(double value) {
+		long bits = Double.doubleToLongBits(value + 0.0); // -0.0 becomes 0.0
+		return bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+	}
+
+	/**
+	 * Returns the GID value of the specified timestamp.
+	 * 
+	 * @param timestamp
+	 *            a timestamp obtained from {@link #timestamp(double)}.
+	 * @return the GID value of the specified timestamp.
+	 */
+	public static double value(long timestamp) {
+		return Double.longBitsToDouble(timestamp < 0 ? timestamp ^ Long.MAX_VALUE : timestamp);
+	}
+
 	@Override
 	public String toString() {
 		return "" + value;
@@ -58,7 +100,8 @@ public class GID implements Comparable<GID>, java.io.Externalizable {
 
 	@Override
 	public int hashCode() {
-		return value.hashCode();
+		long bits = Double.doubleToLongBits(value);
+		return (int) (bits ^ (bits >>> 32)); // as Double.hashCode()
 	}
 
 	@Override
@@ -74,6 +117,7 @@ public class GID implements Comparable<GID>, java.io.Externalizable {
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		value = in.readDouble();
+		timestamp = timestamp(value);
 	}
 
 	@Override
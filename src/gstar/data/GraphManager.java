@@ -1,13 +1,20 @@
 package gstar.data;
 
+import gstar.Configuration;
 import gstar.data.GraphPath.InvalidPathException;
 import gstar.query.operator.Operator;
+import hwanglab.data.storage.DiskStorageManager;
+import hwanglab.data.storage.MappedStorageManager;
+import hwanglab.data.storage.MemoryStorageManager;
 import hwanglab.data.storage.ObjectLocation;
 import hwanglab.data.storage.StorageManager;
+import hwanglab.data.storage.WriteAheadLog;
+import hwanglab.util.BloomFilter;
 import hwanglab.util.versioning.DuplicateVersionException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -17,17 +24,60 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import hinode.index.BTreeIndex;
 import hinode.index.FatNode;
+import hinode.index.FatNodeCache;
+import hinode.index.FatNodeCodec;
 import hinode.index.FatNodeIndex;
+import hinode.index.VertexCache;
+import hinode.index.VertexIndex;
 import hinode.util.Interval;
 
 public class GraphManager {
 
+	/**
+	 * The number of pages read ahead of a scan over all of the vertices.
+	 */
+	protected static final int READ_AHEAD_PAGES = 4;
+
+	/**
+	 * The maximum fraction of a page in use for the page to be compacted.
+	 */
+	protected static final double COMPACTION_UTILIZATION = 0.25;
+
+	/**
+	 * The maximum number of pages compacted in each round.
+	 */
+	protected static final int COMPACTION_PAGES = 16;
+
+	/**
+	 * The number of vertex IDs that the first stage of a vertex filter is sized for.
+	 */
+	protected static final long VERTEX_FILTER_CAPACITY = 1 << 16;
+
+	/**
+	 * The false positive rate of the first stage of a vertex filter.
+	 */
+	protected static final double VERTEX_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+	/**
+	 * The minimum number of VertexUpdateMessages in each lane of an update applied in parallel.
+	 */
+	protected static final int INGESTION_LANE_SIZE = 64;
+
 	/**
 	 * The ID of this GraphManager.
 	 */
@@ -43,44 +93,100 @@ public class GraphManager {
 	 */
 	protected long bufferSize;
 
+	/**
+	 * The configuration of the system.
+	 */
+	protected Configuration configuration;
+
 	/**
 	 * The path to the current GraphDirectory.
 	 */
 	private GraphPath path;
 	
 	/**
-	 * Helper flag. True if we want to use our (hinode) index
+	 * The graph index.
 	 */
-	private boolean useSimpleIndex=true;
+	protected VertexIndex index;
 
 	/**
-	 * The graph index.
+	 * The Bloom filter of the IDs of the vertices in the current GraphDirectory (null if not used).
 	 */
-	protected FatNodeIndex index;
+	protected BloomFilter vertexFilter;
 
 	/**
 	 * The StorageManager.
 	 */
 	protected StorageManager storageManager;
 
+	/**
+	 * The cache of decoded fat nodes.
+	 */
+	protected FatNodeCache fatNodeCache;
+
+	/**
+	 * The cache of vertices materialized from fat nodes.
+	 */
+	protected VertexCache vertexCache;
+
+	/**
+	 * The WriteAheadLog that records the updates made since the most recent checkpoint.
+	 */
+	protected WriteAheadLog log;
+
+	/**
+	 * The thread that compacts sparsely used pages in the background (null if background compaction is disabled).
+	 */
+	protected CompactionThread compactionThread;
+
+	/**
+	 * The threads that apply the lanes of updates in parallel (null until an update is large enough to be split).
+	 */
+	protected ExecutorService ingestionExecutor;
+
+	/**
+	 * A flag indicating whether or not this GraphManager has been shut down.
+	 */
+	protected boolean shutdown = false;
+
+	/**
+	 * A CompactionThread periodically moves fat nodes out of sparsely used pages so that their space can be reused.
+	 */
+	protected class CompactionThread extends Thread {
+
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(configuration.compactionInterval());
+					compact();
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+	}
+
 	/**
 	 * Constructs a GraphManager.
 	 * 
 	 * @param id
 	 *            the ID of this GraphManager.
-	 * @param systemDirectory
-	 *            the system directory.
-	 * @param bufferSize
-	 *            the size of the memory buffer.
+	 * @param configuration
+	 *            the configuration of the system (system directory, buffer size, storage type).
 	 * @throws IOException
 	 *             if an error occurs.
 	 * @throws ClassNotFoundException
 	 *             if a class cannot be found.
 	 */
-	public GraphManager(int id, String systemDirectory, long bufferSize) throws IOException, ClassNotFoundException {
+	public GraphManager(int id, Configuration configuration) throws IOException, ClassNotFoundException {
 		this.id = id;
-		this.systemDirectory = systemDirectory;
-		this.bufferSize = bufferSize;
+		this.configuration = configuration;
+		this.systemDirectory = configuration.systemDirectory();
+		this.bufferSize = configuration.bufferSize();
+		this.fatNodeCache = new FatNodeCache(configuration.fatNodeCacheSize());
+		this.vertexCache = new VertexCache(configuration.vertexCacheSize());
 		try {
 			File dir = new File(systemDirectory);
 			if (!dir.exists())
@@ -93,6 +199,12 @@ public class GraphManager {
 		} catch (InvalidPathException e) {
 			e.printStackTrace();
 		}
+		if (configuration.compaction()) {
+			compactionThread = new CompactionThread();
+			compactionThread.setDaemon(true);
+			compactionThread.setPriority(Thread.MIN_PRIORITY);
+			compactionThread.start();
+		}
 	}
 
 	/**
@@ -136,7 +248,9 @@ public class GraphManager {
 	}
 
 	/**
-	 * Updates the specified graph.
+	 * Updates the specified graph. The VertexUpdateMessages are appended to the WriteAheadLog before they are applied,
+	 * and this method returns once they are on disk. Since the log is forced outside the lock of this GraphManager,
+	 * concurrent updates share a single fsync (group commit).
 	 * 
 	 * @param absolutePath
 	 *            the absolute path to the GraphDirectory.
@@ -149,38 +263,364 @@ public class GraphManager {
 	 *             if an I/O error occurs.
 	 * @throws ClassNotFoundException
 	 *             if a class cannot be found.
+	 * @throws IllegalArgumentException
+	 *             if some of the vertices have been updated after the specified time instance (the messages for the
+	 *             other vertices are applied).
 	 */
-	public synchronized GraphProperties updateGraph(GraphPath absolutePath, GID t,
-			Collection<VertexUpdateMessage> messages) throws ClassNotFoundException, IOException {
-		changeGraphPath(absolutePath);
+	public GraphProperties updateGraph(GraphPath absolutePath, GID t, Collection<VertexUpdateMessage> messages)
+			throws ClassNotFoundException, IOException {
+		WriteAheadLog log;
+		long lsn;
+		GraphProperties properties;
+		synchronized (this) {
+			changeGraphPath(absolutePath);
+			log = this.log;
+			lsn = log.append(toLogRecord(t, messages));
+			properties = apply(absolutePath, t, messages, null);
+		}
+		log.sync(lsn);
+		return properties;
+	}
+
+	/**
+	 * Applies the specified VertexUpdateMessages to the current graph. A large update that is not being replayed is
+	 * partitioned into lanes by the IDs of the vertices, and the lanes are applied in parallel.
+	 * 
+	 * @param absolutePath
+	 *            the absolute path to the GraphDirectory.
+	 * @param t
+	 *            the time instance of the update.
+	 * @param messages
+	 *            the VertexUpdateMessages.
+	 * @param replayed
+	 *            the number of messages replayed so far from the WriteAheadLog for each vertex at the specified time
+	 *            instance (null if not replaying).
+	 * @return a GraphProperties instance representing the properties of the specified graph.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a class cannot be found.
+	 * @throws IllegalArgumentException
+	 *             if some of the vertices have been updated after the specified time instance (the messages for the
+	 *             other vertices are applied).
+	 */
+	protected GraphProperties apply(GraphPath absolutePath, GID t, Collection<VertexUpdateMessage> messages,
+			HashMap<VID, Integer> replayed) throws ClassNotFoundException, IOException {
+		int lanes = replayed == null ? Math.min(configuration.ingestionThreads(), messages.size()
+				/ INGESTION_LANE_SIZE) : 1;
+		if (lanes > 1)
+			return applyInLanes(absolutePath, t, messages, lanes);
+		return applyInOrder(absolutePath, t, messages, replayed);
+	}
+
+	/**
+	 * Applies the specified VertexUpdateMessages to the current graph using the specified number of threads. Each
+	 * lane receives all of the messages for its vertices in their original order, so the lanes never update the same
+	 * FatNode. The locations of the fat nodes are looked up before the lanes start, and the lanes access only the
+	 * pages of the StorageManager (which are latched while being read or modified). The changes to the index, the
+	 * vertex filter, and the caches are staged in each lane and made once all of the lanes have finished.
+	 * 
+	 * @param absolutePath
+	 *            the absolute path to the GraphDirectory.
+	 * @param t
+	 *            the time instance of the update.
+	 * @param messages
+	 *            the VertexUpdateMessages.
+	 * @param lanes
+	 *            the number of lanes.
+	 * @return a GraphProperties instance representing the properties of the specified graph.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a class cannot be found.
+	 * @throws IllegalArgumentException
+	 *             if some of the vertices have been updated after the specified time instance (the messages for the
+	 *             other vertices are applied).
+	 */
+	protected GraphProperties applyInLanes(GraphPath absolutePath, GID t, Collection<VertexUpdateMessage> messages,
+			int lanes) throws ClassNotFoundException, IOException {
+		ArrayList<Lane> partitions = new ArrayList<Lane>();
+		for (int i = 0; i < lanes; i++)
+			partitions.add(new Lane(absolutePath, t, messages.size() / lanes + 1));
+		for (VertexUpdateMessage message : messages) {
+			Lane lane = partitions.get((message.vertexID().hashCode() & Integer.MAX_VALUE) % lanes);
+			lane.messages.add(message);
+			if (!lane.locations.containsKey(message.vertexID()))
+				lane.locations.put(message.vertexID(), index.getFatNode(message.vertexID()));
+		}
+		if (ingestionExecutor == null)
+			ingestionExecutor = Executors.newFixedThreadPool(configuration.ingestionThreads(), new ThreadFactory() {
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ingestion-" + id);
+					thread.setDaemon(true);
+					return thread;
+				}
+
+			});
+		ArrayList<Future<GraphProperties>> lanesApplied = new ArrayList<Future<GraphProperties>>();
+		for (Lane lane : partitions)
+			lanesApplied.add(ingestionExecutor.submit(lane));
+		GraphProperties properties = new GraphProperties(absolutePath, t, 0, 0);
+		Throwable failure = null;
+		boolean interrupted = false;
+		for (Future<GraphProperties> lane : lanesApplied) { // every lane is waited for, even after a failure
+			while (true) {
+				try {
+					properties.update(lane.get());
+				} catch (InterruptedException e) {
+					interrupted = true;
+					continue;
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = e.getCause();
+				}
+				break;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		for (Lane lane : partitions) // the fat nodes stored by a failed lane are indexed as well
+			lane.merge();
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof ClassNotFoundException)
+			throw (ClassNotFoundException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure != null)
+			throw new IOException(failure.toString());
+		return properties;
+	}
+
+	/**
+	 * A Lane applies VertexUpdateMessages for a subset of the vertices in parallel with other Lanes. It reads and
+	 * stores fat nodes only through the StorageManager and stages the other changes until {@link #merge()} is called.
+	 */
+	protected class Lane implements Callable<GraphProperties> {
+
+		/**
+		 * The absolute path to the GraphDirectory.
+		 */
+		protected GraphPath absolutePath;
+
+		/**
+		 * The time instance of the update.
+		 */
+		protected GID t;
+
+		/**
+		 * The VertexUpdateMessages to apply.
+		 */
+		protected ArrayList<VertexUpdateMessage> messages;
+
+		/**
+		 * The locations of the fat nodes of the vertices in this Lane (null for a vertex not stored yet), which are
+		 * looked up before this Lane starts and updated as the fat nodes are stored.
+		 */
+		protected HashMap<VID, ObjectLocation> locations = new HashMap<VID, ObjectLocation>();
+
+		/**
+		 * The fat nodes stored by this Lane, to be indexed by {@link #merge()}.
+		 */
+		protected LinkedHashMap<VID, FatNode> stored = new LinkedHashMap<VID, FatNode>();
+
+		/**
+		 * The IDs of the vertices added by this Lane, to be added to the vertex filter by {@link #merge()}.
+		 */
+		protected ArrayList<VID> added = new ArrayList<VID>();
+
+		/**
+		 * Constructs a Lane.
+		 * 
+		 * @param absolutePath
+		 *            the absolute path to the GraphDirectory.
+		 * @param t
+		 *            the time instance of the update.
+		 * @param capacity
+		 *            the expected number of VertexUpdateMessages.
+		 */
+		protected Lane(GraphPath absolutePath, GID t, int capacity) {
+			this.absolutePath = absolutePath;
+			this.t = t;
+			this.messages = new ArrayList<VertexUpdateMessage>(capacity);
+		}
+
+		public GraphProperties call() throws Exception {
+			int verticesAdded = 0;
+			int edgesAdded = 0;
+			int rejected = 0;
+			for (VertexUpdateMessage message : messages) {
+				ObjectLocation location = locations.get(message.vertexID());
+				FatNode v = location == null ? null : (FatNode) storageManager.get(location);
+				if (v == null || !v.vertexID().equals(message.vertexID())) {
+					v = null;
+					location = null; // the object stored there (if any) belongs to another vertex
+				}
+				if (v != null && !storageManager.copiesObjects())
+					v = new FatNode(v); // the stored FatNode may be read concurrently
+				if (v == null) {
+					v = new FatNode(message.vertexID);
+					verticesAdded++;
+					added.add(message.vertexID());
+				}
+				if (t.timestamp() < v.lastUpdate()) { // skipped as it would be when replayed
+					rejected++;
+					continue;
+				}
+				int prevEdgeCount = v.getActiveEdgeCount(t);
+				v.update(message, t);
+				locations.put(v.vertexID(), location != null ? storageManager.put(location, v) : storageManager.add(v));
+				stored.put(v.vertexID(), v);
+				edgesAdded += (v.getActiveEdgeCount(t) - prevEdgeCount);
+			}
+			if (rejected > 0)
+				throw new IllegalArgumentException(rejected + " vertices cannot be updated at " + t
+						+ " since they have been updated later");
+			return new GraphProperties(absolutePath, t, verticesAdded, edgesAdded);
+		}
+
+		/**
+		 * Makes the staged changes to the index, the vertex filter, and the caches.
+		 * 
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		protected void merge() throws IOException {
+			for (FatNode v : stored.values()) {
+				index.put(v.vertexID(), locations.get(v.vertexID()), t, v.lifespan());
+				fatNodeCache.invalidate(v.vertexID());
+				vertexCache.invalidate(v.vertexID());
+			}
+			if (vertexFilter != null)
+				for (VID v : added)
+					vertexFilter.add(v.toString());
+		}
+
+	}
+
+	/**
+	 * Applies the specified VertexUpdateMessages to the current graph one after another.
+	 * 
+	 * @param absolutePath
+	 *            the absolute path to the GraphDirectory.
+	 * @param t
+	 *            the time instance of the update.
+	 * @param messages
+	 *            the VertexUpdateMessages.
+	 * @param replayed
+	 *            the number of messages replayed so far from the WriteAheadLog for each vertex at the specified time
+	 *            instance (null if not replaying). A message is skipped if the FatNode saved on disk already reflects
+	 *            it.
+	 * @return a GraphProperties instance representing the properties of the specified graph.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a class cannot be found.
+	 * @throws IllegalArgumentException
+	 *             if some of the vertices have been updated after the specified time instance (the messages for the
+	 *             other vertices are applied).
+	 */
+	protected GraphProperties applyInOrder(GraphPath absolutePath, GID t, Collection<VertexUpdateMessage> messages,
+			HashMap<VID, Integer> replayed) throws ClassNotFoundException, IOException {
 		int verticesAdded = 0;
 		int edgesAdded = 0;
+		int rejected = 0;
 		for (VertexUpdateMessage message : messages) 
 		{
 			ObjectLocation location = index.getFatNode(message.vertexID());
 			FatNode v = location == null ? null : (FatNode) storageManager.get(location);
+			if (v == null || !v.vertexID().equals(message.vertexID()))
+			{ // the location has been reassigned since the index was saved (e.g., the data was not saved)
+				v = null;
+				location = null; // the object stored there (if any) belongs to another vertex
+			}
+			if (v != null && !storageManager.copiesObjects())
+				v = new FatNode(v); // the stored FatNode may be read concurrently
 			if (v == null)
 			{
 				v = new FatNode(message.vertexID);
 				verticesAdded++;
+				if (vertexFilter != null)
+					vertexFilter.add(message.vertexID().toString());
+			}
+			if (replayed != null)
+			{
+				Integer count = replayed.get(message.vertexID());
+				count = count == null ? 1 : count + 1;
+				replayed.put(message.vertexID(), count);
+				if (v.updateCount(t) >= count)
+					continue; // saved on disk before the crash
+			}
+			if (t.timestamp() < v.lastUpdate())
+			{ // skipped as it would be when replayed
+				rejected++;
+				continue;
 			}
 			
 			int	prevEdgeCount = v.getActiveEdgeCount(t);
 			if (location != null)
 			{
 				v.update(message, t);
-				index.put(v.vertexID(), storageManager.put(location, v), t);
+				index.put(v.vertexID(), storageManager.put(location, v), t, v.lifespan());
 			}
 			else
 			{
 				v.update(message, t);
-				index.put(v.vertexID(), storageManager.add(v), t);				
+				index.put(v.vertexID(), storageManager.add(v), t, v.lifespan());				
 			}
+			fatNodeCache.invalidate(v.vertexID());
+			vertexCache.invalidate(v.vertexID());
 			edgesAdded += (v.getActiveEdgeCount(t) - prevEdgeCount);
 		}
+		if (rejected > 0)
+			throw new IllegalArgumentException(rejected + " vertices cannot be updated at " + t
+					+ " since they have been updated later");
 		return new GraphProperties(absolutePath, t, verticesAdded, edgesAdded);
 	}
 
+	/**
+	 * Returns a WriteAheadLog record representing the specified update.
+	 * 
+	 * @param t
+	 *            the time instance of the update.
+	 * @param messages
+	 *            the VertexUpdateMessages.
+	 * @return a WriteAheadLog record representing the specified update.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected byte[] toLogRecord(GID t, Collection<VertexUpdateMessage> messages) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(b);
+		out.writeObject(t);
+		out.writeObject(new ArrayList<VertexUpdateMessage>(messages));
+		out.flush();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Applies the updates recorded in the WriteAheadLog since the most recent checkpoint.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a class cannot be found.
+	 */
+	@SuppressWarnings("unchecked")
+	protected void replay() throws IOException, ClassNotFoundException {
+		HashMap<GID, HashMap<VID, Integer>> replayed = new HashMap<GID, HashMap<VID, Integer>>();
+		for (byte[] record : log.records()) {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record));
+			GID t = (GID) in.readObject();
+			if (!replayed.containsKey(t))
+				replayed.put(t, new HashMap<VID, Integer>());
+			apply(path, t, (ArrayList<VertexUpdateMessage>) in.readObject(), replayed.get(t));
+		}
+	}
+
 	/**
 	 * Returns an iterator over all of the vertices contained in the specified graphs.
 	 * 
@@ -194,13 +634,29 @@ public class GraphManager {
 		sorted.addAll(g);
 		Collections.sort(sorted);
 		
-		final Iterator<ObjectLocation> fatnodes = index.getAllFatNodes().iterator();
+		final ArrayList<ObjectLocation> locations = new ArrayList<ObjectLocation>();
+		try 
+		{
+			locations.addAll(index.getFatNodes(sorted)); // only the fat nodes alive at the graphs are read
+		} catch (IOException e) 
+		{
+			e.printStackTrace();
+		}
+		Collections.sort(locations); // visit the fat nodes in the order of their pages on disk
+		final ArrayList<Integer> pageIDs = new ArrayList<Integer>();
+		for (ObjectLocation l : locations)
+			if (pageIDs.isEmpty() || pageIDs.get(pageIDs.size() - 1) != l.pageID())
+				pageIDs.add(l.pageID());
+		for (int i = 0; i < READ_AHEAD_PAGES && i < pageIDs.size(); i++)
+			storageManager.prefetch(pageIDs.get(i));
+		final Iterator<ObjectLocation> fatnodes = locations.iterator();
 		
 		return new Iterator<Vertex>() {
 			
 			protected FatNode current = null;
 			protected ArrayList<Vertex> vertexList = null;
 			protected Iterator<Vertex> vertexListIterator = null;
+			protected int page = 0; // the position of the current page in pageIDs
 			
 			@Override
 			public boolean hasNext() 
@@ -211,6 +667,13 @@ public class GraphManager {
 				while (fatnodes.hasNext())
 				{
 					ObjectLocation ol = fatnodes.next();
+					if (ol.pageID() != pageIDs.get(page)) // moved on to the next page; read one more page ahead
+					{
+						page++;
+						if (page + READ_AHEAD_PAGES - 1 < pageIDs.size())
+							storageManager.prefetch(pageIDs.get(page + READ_AHEAD_PAGES - 1));
+					}
+					current = null;
 					try 
 					{
 						current = (FatNode) storageManager.get(ol);
@@ -223,7 +686,9 @@ public class GraphManager {
 					{
 						e.printStackTrace();
 					}
-					if (current.isRelevant(sorted))
+					// null if the fat node could not be read or has been removed since the lookup (e.g., an old copy
+					// moved by compaction and removed at a checkpoint in the meantime)
+					if (current != null && current.isRelevant(sorted))
 						return true;
 				}
 				return false;
@@ -236,51 +701,7 @@ public class GraphManager {
 					return vertexListIterator.next();
 				
 				vertexList = new ArrayList<Vertex>();
-				Set<GID> validGraphs = new HashSet<GID>();
-				Vertex vertex = null;
-				Interval interval = null;
-				boolean hasIntervalChanged = true;
-				
-				for (GID instance : sorted) // For each time instance
-				{
-					if (interval != null) // Check if the interval changes with the new time instance "instance"
-					{
-						if (current.getLastValidInterval(instance) == interval)
-							hasIntervalChanged = false;
-						else
-							hasIntervalChanged = true;
-					}
-					if (hasIntervalChanged) // If this is a new relevant interval
-					{
-						if (vertex == null)
-						{
-							interval = current.getLastValidInterval(instance);	
-							if (interval == null)
-								continue;
-							vertex = current.convertToVertex(instance);
-							validGraphs = new HashSet<GID>();
-							validGraphs.add(instance);					
-						}
-						else if (vertex != null) 
-						{
-							Operator.setGraphIDs(vertex, validGraphs);
-							vertexList.add(vertex);
-							vertex = current.convertToVertex(instance);
-							validGraphs = new HashSet<GID>();
-							validGraphs.add(instance);
-							interval = current.getLastValidInterval(instance);
-						}
-					}
-					else
-					{
-						validGraphs.add(instance);
-					}
-				}
-				if (vertex != null)
-				{
-					Operator.setGraphIDs(vertex, validGraphs);
-					vertexList.add(vertex);
-				}
+				addVertices(current, sorted, vertexList, -1); // each vertex is visited once
 				vertexListIterator = vertexList.iterator();
 				return vertexListIterator.next();
 			}				
@@ -309,65 +730,148 @@ public class GraphManager {
 		sorted.addAll(g);
 		Collections.sort(sorted);
 		
-		Set<GID> validGraphs = new HashSet<GID>();
-		Vertex vertex = null;
-		FatNode node = null;
-		try 
+		if (!mayContain(v)) // no need to look up the index
+			return vertexList.iterator();
+		long vertexStamp = vertexCache.stamp();
+		FatNode node = fatNodeCache.get(v);
+		if (node == null)
 		{
-			ObjectLocation ol = index.getFatNode(v);
-			node = (FatNode) storageManager.get(ol);
-		} catch (ClassNotFoundException e) 
-		{
-			e.printStackTrace();
-		} catch (IOException e) 
-		{
-			e.printStackTrace();
+			try 
+			{
+				long stamp = fatNodeCache.stamp();
+				ObjectLocation ol = index.getFatNode(v);
+				node = ol == null ? null : (FatNode) storageManager.get(ol);
+				if (node != null)
+					fatNodeCache.put(node, stamp);
+			} catch (ClassNotFoundException e) 
+			{
+				e.printStackTrace();
+			} catch (IOException e) 
+			{
+				e.printStackTrace();
+			}
 		}
-		Interval interval = null;
-		boolean hasIntervalChanged = true;
+		if (node != null)
+			addVertices(node, sorted, vertexList, vertexStamp);
+		return vertexList.iterator();
+	}
+
+	/**
+	 * Returns vertices that are related to the specified vertex and graph IDs. The fat nodes that are not cached are
+	 * read in the order of their pages so that each page is accessed once.
+	 * 
+	 * @param v
+	 *            the IDs of vertices.
+	 * @param g
+	 *            a set of graph IDs.
+	 */
+	public Iterator<Vertex> vertices(Collection<VID> v, Set<GID> g)
+	{
+		ArrayList<Vertex> vertexList = new ArrayList<Vertex>();
 		
-		for (GID instance : sorted) // For each time instance
+		Vector<GID> sorted = new Vector<GID>();
+		sorted.addAll(g);
+		Collections.sort(sorted);
+		
+		ArrayList<ObjectLocation> locations = new ArrayList<ObjectLocation>();
+		long stamp = fatNodeCache.stamp();
+		long vertexStamp = vertexCache.stamp();
+		try 
 		{
-			if (interval != null) // Check if the interval changes with the new time instance "instance"
+			for (VID id : v)
 			{
-				if (node.getLastValidInterval(instance) == interval)
-					hasIntervalChanged = false;
+				if (!mayContain(id))
+					continue;
+				FatNode node = fatNodeCache.get(id);
+				if (node != null)
+					addVertices(node, sorted, vertexList, vertexStamp);
 				else
-					hasIntervalChanged = true;
-			}
-			if (hasIntervalChanged) // If this is a new relevant interval
-			{
-				if (vertex == null)
-				{
-					interval = node.getLastValidInterval(instance);	
-					if (interval == null)
-						continue;
-					vertex = node.convertToVertex(instance);
-					validGraphs = new HashSet<GID>();
-					validGraphs.add(instance);					
-				}
-				else if (vertex != null) 
 				{
-					Operator.setGraphIDs(vertex, validGraphs);
-					vertexList.add(vertex);
-					vertex = node.convertToVertex(instance);
-					validGraphs = new HashSet<GID>();
-					validGraphs.add(instance);
-					interval = node.getLastValidInterval(instance);
+					ObjectLocation l = index.getFatNode(id);
+					if (l != null)
+						locations.add(l);
 				}
 			}
-			else
+			for (Object o : storageManager.getAll(locations))
 			{
-				validGraphs.add(instance);
+				if (o == null) // no such vertex
+					continue;
+				fatNodeCache.put((FatNode) o, stamp);
+				addVertices((FatNode) o, sorted, vertexList, vertexStamp);
 			}
+		} catch (ClassNotFoundException e) 
+		{
+			e.printStackTrace();
+		} catch (IOException e) 
+		{
+			e.printStackTrace();
 		}
-		if (vertex != null)
+		return vertexList.iterator();
+	}
+
+	/**
+	 * Adds the vertices that the specified fat node represents at the specified graphs to the specified list (one
+	 * vertex per interval of the fat node). The sorted graphs are merged with the intervals of the fat node in a single
+	 * pass: the interval of a graph is found by moving a cursor forward, and the graphs that follow it within the same
+	 * interval are grouped into the same vertex by comparing them with the end of the interval.
+	 * 
+	 * @param node
+	 *            a fat node.
+	 * @param sorted
+	 *            the sorted IDs of graphs.
+	 * @param vertexList
+	 *            the list of vertices.
+	 * @param stamp
+	 *            the stamp obtained from the VertexCache before the fat node was read (-1 not to use the VertexCache).
+	 */
+	protected void addVertices(FatNode node, Vector<GID> sorted, ArrayList<Vertex> vertexList, long stamp)
+	{
+		FatNode.Cursor cursor = node.cursor();
+		int i = 0;
+		while (i < sorted.size())
 		{
+			GID instance = sorted.get(i++);
+			Interval interval = cursor.interval(instance);
+			if (interval == null) // the fat node does not exist at the graph
+				continue;
+			Vertex vertex = vertex(node, cursor, instance, interval, stamp);
+			Set<GID> validGraphs = new HashSet<GID>();
+			validGraphs.add(instance);
+			for (; i < sorted.size() && sorted.get(i).timestamp() < interval.getEnd(); i++)
+				validGraphs.add(sorted.get(i));
 			Operator.setGraphIDs(vertex, validGraphs);
 			vertexList.add(vertex);
 		}
-		
-		return vertexList.iterator();
+	}
+
+	/**
+	 * Returns the vertex that the specified fat node represents at the specified graph. The vertex shares its edges
+	 * with the snapshot of the fat node within the specified interval, which is taken from the VertexCache or, if it is
+	 * not cached, built and cached.
+	 * 
+	 * @param node
+	 *            a fat node.
+	 * @param cursor
+	 *            a cursor over the history of the fat node.
+	 * @param instance
+	 *            the ID of a graph.
+	 * @param interval
+	 *            the interval of the fat node that contains the graph.
+	 * @param stamp
+	 *            the stamp obtained from the VertexCache before the fat node was read (-1 not to use the VertexCache).
+	 * @return the vertex that the specified fat node represents at the specified graph.
+	 */
+	protected Vertex vertex(FatNode node, FatNode.Cursor cursor, GID instance, Interval interval, long stamp)
+	{
+		if (stamp < 0)
+			return cursor.vertex(instance);
+		Vertex snapshot = vertexCache.get(node.vertexID(), interval.getStart());
+		if (snapshot == null)
+		{
+			snapshot = cursor.vertex(instance);
+			vertexCache.put(snapshot, interval.getStart(), stamp);
+		}
+		return new Vertex(snapshot, instance);
 	}
 
 	/**
@@ -382,10 +886,15 @@ public class GraphManager {
 	 */
 	public synchronized void reset(GraphPath absolutePath) throws IOException, ClassNotFoundException {
 		changeGraphPath(absolutePath);
-		if (useSimpleIndex)
-			index = new FatNodeIndex();
+		index.clear();
+		if (vertexFilter != null)
+			vertexFilter.clear();
 		if (storageManager != null)
 			storageManager.clearData();
+		if (log != null)
+			log.truncate();
+		fatNodeCache.clear();
+		vertexCache.clear();
 	}
 
 	/**
@@ -401,31 +910,134 @@ public class GraphManager {
 	public void changeGraphPath(GraphPath absolutePath) throws ClassNotFoundException, IOException {
 		if (this.path == null || !absolutePath.equals(this.path)) {
 			this.path = absolutePath;
+			if (index != null)
+				index.close();
+			boolean saved = true; // whether or not the data has been saved in the GraphDirectory
 			try {
-				ObjectInputStream in = new ObjectInputStream(new FileInputStream(dataFileName() + ".idx"));
-				try {
-					index = (FatNodeIndex) in.readObject();
-				} finally {
-					in.close();
-				}
+				index = openIndex();
 				if (storageManager != null)
 					storageManager.shutdown();
-				storageManager = new StorageManager(dataFileName() + ".db", bufferSize);
+				storageManager = createStorageManager();
 			} catch (FileNotFoundException e) {
+				saved = false;
 				try {
-					if (useSimpleIndex)
-					{
-						index = new FatNodeIndex();
-					}
+					index = createIndex();
 					if (storageManager != null)
 						storageManager.shutdown();
-					storageManager = new StorageManager(dataFileName() + ".db", bufferSize);
+					storageManager = createStorageManager();
 					storageManager.clearData();
 				} catch (Exception ee) {
 				}
 			}
-			System.gc();
+			vertexFilter = createVertexFilter(saved);
+			if (log != null) // the previous StorageManager has saved its pages
+				log.close();
+			log = new WriteAheadLog(dataFileName() + ".wal");
+			replay(); // redo the updates made after the most recent checkpoint
+			storageManager.setWriteAheadLog(log);
+			fatNodeCache.clear(); // the fat nodes of the previous GraphDirectory
+			vertexCache.clear();
+			if (!configuration.offHeap()) // otherwise, the pages of the previous StorageManager are not on the heap
+				System.gc();
+		}
+	}
+
+	/**
+	 * Opens the index saved in the current GraphDirectory. An index saved as a whole is converted into a B+-tree if a
+	 * disk-resident index is configured.
+	 * 
+	 * @return the index saved in the current GraphDirectory.
+	 * @throws FileNotFoundException
+	 *             if no index has been saved in the current GraphDirectory.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a class cannot be found.
+	 */
+	protected VertexIndex openIndex() throws FileNotFoundException, IOException, ClassNotFoundException {
+		File f = new File(dataFileName() + ".idx");
+		if (!f.exists() && BTreeIndex.exists(dataFileName() + ".bpt"))
+			return new BTreeIndex(dataFileName() + ".bpt", configuration.indexBufferSize());
+		FatNodeIndex index = FatNodeIndex.read(f);
+		if (!configuration.diskIndex())
+			return index;
+		BTreeIndex tree = (BTreeIndex) createIndex();
+		tree.putAll(index);
+		tree.checkpoint();
+		f.delete(); // the tree is used from now on (or rebuilt if a crash occurs before this point)
+		return tree;
+	}
+
+	/**
+	 * Constructs an empty index of the type configured for the current GraphDirectory.
+	 * 
+	 * @return an empty index of the type configured for the current GraphDirectory.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected VertexIndex createIndex() throws IOException {
+		if (!configuration.diskIndex())
+			return new FatNodeIndex(new File(dataFileName() + ".idx"));
+		VertexIndex index = new BTreeIndex(dataFileName() + ".bpt", configuration.indexBufferSize());
+		index.clear(); // a tree left by a previous configuration
+		return index;
+	}
+
+	/**
+	 * Constructs the Bloom filter of the IDs of the vertices in the current GraphDirectory if configured. The filter
+	 * saved at the most recent checkpoint is loaded (the vertices added after that are added again when the
+	 * WriteAheadLog is replayed) or, if it cannot be loaded, rebuilt from the index.
+	 * 
+	 * @param saved
+	 *            a flag indicating whether or not the data has been saved in the current GraphDirectory.
+	 * @return the Bloom filter of the IDs of the vertices in the current GraphDirectory; null if not configured.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected BloomFilter createVertexFilter(boolean saved) throws IOException {
+		if (!configuration.vertexFilter())
+			return null;
+		BloomFilter filter = new BloomFilter(VERTEX_FILTER_CAPACITY, VERTEX_FILTER_FALSE_POSITIVE_RATE);
+		if (!saved)
+			return filter;
+		try {
+			if (filter.load(new File(dataFileName() + ".blm")))
+				return filter;
+		} catch (IOException e) { // e.g., a file written only partially
+			filter.clear();
 		}
+		for (VID v : index.vertexIDs()) // e.g., data saved without a filter
+			filter.add(v.toString());
+		return filter;
+	}
+
+	/**
+	 * Constructs a StorageManager of the type configured for the current GraphDirectory. A StorageManager that keeps
+	 * pages on disk (with the configured number of segments unless pages are memory-mapped) stores FatNodes in the
+	 * FatNodeCodec format and compresses pages as configured.
+	 * 
+	 * @return a StorageManager of the type configured for the current GraphDirectory.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected StorageManager createStorageManager() throws IOException {
+		Configuration.StorageType type = configuration.storageType(path);
+		if (type == Configuration.StorageType.MEMORY)
+			return new MemoryStorageManager(dataFileName() + ".mem");
+		String fileName = dataFileName() + ".db";
+		DiskStorageManager storageManager;
+		if (type == Configuration.StorageType.MAPPED)
+			storageManager = new MappedStorageManager(fileName, bufferSize);
+		else
+			storageManager = new DiskStorageManager(fileName, bufferSize, configuration.segments());
+		storageManager.register(new FatNodeCodec());
+		storageManager.register(new FatNodeCodec(FatNodeCodec.FORMAT_WITH_SHORT_STRINGS)); // strings of up to 64 KB
+		storageManager.register(new FatNodeCodec(FatNodeCodec.FORMAT_WITHOUT_DEGREES)); // FatNodes saved before degrees
+		storageManager.register(new FatNodeCodec(FatNodeCodec.LEGACY_FORMAT)); // FatNodes saved before timestamps
+		storageManager.setOffHeap(configuration.offHeap());
+		storageManager.setPageCompression(configuration.pageCompression());
+		storageManager.setCompressedBufferSize(configuration.compressedBufferSize());
+		return storageManager;
 	}
 
 	/**
@@ -438,31 +1050,81 @@ public class GraphManager {
 	 *             if a file cannot be found.
 	 */
 	public synchronized GraphDirectoryProperties checkpoint() throws FileNotFoundException, IOException {
-		File f = new File(dataFileName() + ".idx"); // saving the graph index
-		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(f));
-		try {
-			out.writeObject(index);
-			out.flush();
-		} finally {
-			out.close();
-		}
-		storageManager.checkpoint(); // checkpoint the storage manager
+		storageManager.flush(); // the data that the new index refers to must be on disk first
+		long indexSize = index.checkpoint(); // saving the graph index
+		if (vertexFilter != null)
+			vertexFilter.save(new File(dataFileName() + ".blm"));
+		storageManager.checkpoint(); // the old copies are removed only after no saved index refers to them
+		log.truncate(); // the updates logged so far are now reflected in the index and the data file
 		PrintStream o = new PrintStream(new FileOutputStream(dataFileName() + ".rst")); // reporting
 		try {
 			o.println("% [id] [index size] [data size] [graphs]");
-			o.println(id + " " + f.length() + " " + storageManager.dataSize() + " " + index.versionNumbers().size());
+			o.println(id + " " + indexSize + " " + storageManager.dataSize() + " " + index.versionNumbers().size());
 		} finally {
 			o.close();
 		}
-		return new GraphDirectoryProperties(path, index.versionNumbers().size(), 1, storageManager.dataSize(), f.length());
+		return new GraphDirectoryProperties(path, index.versionNumbers().size(), 1, storageManager.dataSize(), indexSize);
+	}
+
+	/**
+	 * Moves the fat nodes out of sparsely used pages so that the space of these pages can be reused by subsequent
+	 * updates. Each page is compacted while holding the lock of this GraphManager, so updates and queries can proceed
+	 * in between. Queries that have already looked up the old location of a moved fat node can still read it since
+	 * the old copy is removed only at the next checkpoint. Only the records that the index refers to are moved: the
+	 * extents of a large fat node (for which {@link StorageManager#get(ObjectLocation)} returns null) stay in place
+	 * until the fat node is updated or removed, and the space they free is then refilled by the extents written later.
+	 * 
+	 * @return the number of fat nodes moved.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a class cannot be found.
+	 */
+	public int compact() throws IOException, ClassNotFoundException {
+		StorageManager storageManager;
+		ArrayList<Integer> pages;
+		synchronized (this) {
+			if (shutdown)
+				return 0;
+			storageManager = this.storageManager;
+			pages = storageManager.sparsePages(COMPACTION_UTILIZATION);
+		}
+		int moved = 0;
+		for (int i = 0; i < pages.size() && i < COMPACTION_PAGES; i++) {
+			synchronized (this) {
+				if (shutdown || storageManager != this.storageManager) // the current GraphDirectory has changed
+					break;
+				for (ObjectLocation l : storageManager.locations(pages.get(i))) {
+					FatNode v = (FatNode) storageManager.get(l);
+					if (v == null || !l.equals(index.getFatNode(v.vertexID())))
+						continue; // an old copy to be removed at the next checkpoint
+					index.relocate(v.vertexID(), storageManager.relocate(l));
+					moved++;
+				}
+			}
+		}
+		return moved;
 	}
 
 	/**
 	 * Shuts down this GraphManager.
 	 */
 	public synchronized void shutdown() {
+		shutdown = true;
+		if (compactionThread != null)
+			compactionThread.interrupt();
+		if (ingestionExecutor != null)
+			ingestionExecutor.shutdown();
 		if (storageManager != null)
 			storageManager.shutdown();
+		if (index != null)
+			index.close();
+		if (log != null)
+			try {
+				log.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 	}
 
 	/**
@@ -474,6 +1136,19 @@ public class GraphManager {
 		return systemDirectory + File.separator + id + "_" + path.fileName();
 	}
 
+	/**
+	 * Determines whether or not the current GraphDirectory may contain the specified vertex. This method accesses
+	 * neither the index nor the data file.
+	 * 
+	 * @param v
+	 *            the ID of a vertex.
+	 * @return false if the current GraphDirectory certainly does not contain the vertex; true otherwise.
+	 */
+	public boolean mayContain(VID v) {
+		BloomFilter filter = vertexFilter;
+		return filter == null || filter.mightContain(v.toString());
+	}
+
 	/**
 	 * Returns the size of the data on disk.
 	 * 
@@ -493,10 +1168,7 @@ public class GraphManager {
 	 *             if an error occurs.
 	 */
 	public synchronized long indexSize() throws IOException {
-		java.io.ByteArrayOutputStream b = new java.io.ByteArrayOutputStream();
-		java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(b);
-		out.writeObject(index);
-		return b.size();
+		return index.size();
 	}
 
 	/**
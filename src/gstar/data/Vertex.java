@@ -46,6 +46,25 @@ public class Vertex extends DataObject {
 		this.update("outgoing_edges", outgoingEdges);
 	}
 
+	/**
+	 * Constructs a Vertex from the specified snapshot, which must not be modified afterwards. The attributes and the
+	 * maps of the edges are copied (the Edges themselves are shared since they are never modified), so the new Vertex
+	 * and its edge maps can be modified without affecting the snapshot.
+	 * 
+	 * @param snapshot
+	 *            a Vertex shared by several readers.
+	 * @param g
+	 *            the ID of the most recent graph that contains the new Vertex.
+	 */
+	public Vertex(Vertex snapshot, GID g) {
+		super(snapshot);
+		incomingEdges = new java.util.TreeMap<VID, Edge>(snapshot.incomingEdges);
+		outgoingEdges = new java.util.TreeMap<VID, Edge>(snapshot.outgoingEdges);
+		this.update("incoming_edges", incomingEdges); // the copied attributes refer to the maps of the snapshot
+		this.update("outgoing_edges", outgoingEdges);
+		lastVersion = g;
+	}
+
 	/**
 	 * Returns the ID of this Vertex.
 	 * 
@@ -9,7 +9,9 @@ import gstar.query.summary.AggregateManager;
 import hwanglab.expression.ParsingException;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
@@ -176,12 +178,36 @@ public class BSPOperator<V, F> extends GraphOperator<Vertex, Vertex> {
 	protected void process(AggregateManager<V, F> vertex2Aggregate) {
 		Set<VID> temp = new TreeSet<VID>();
 		temp.addAll(vertex2Aggregate.vertexIDs());
+		// group the summaries by their graph IDs so that the vertices of each group are read in one batch (a batch
+		// contains at most one summary per vertex)
+		LinkedHashMap<Set<GID>, ArrayList<HashMap<VID, Summary<V, F>>>> groups =
+				new LinkedHashMap<Set<GID>, ArrayList<HashMap<VID, Summary<V, F>>>>();
 		for (VID v : temp) {
 			for (final Entry<ArrayList<Summary<V, F>>, Set<GID>> e : vertex2Aggregate.summaries(v)) {
-				Iterator<Vertex> i = vertices(v, e.getValue());
+				ArrayList<HashMap<VID, Summary<V, F>>> batches = groups.get(e.getValue());
+				if (batches == null) {
+					batches = new ArrayList<HashMap<VID, Summary<V, F>>>();
+					groups.put(e.getValue(), batches);
+				}
+				HashMap<VID, Summary<V, F>> batch = null;
+				for (HashMap<VID, Summary<V, F>> b : batches)
+					if (!b.containsKey(v)) {
+						batch = b;
+						break;
+					}
+				if (batch == null) {
+					batch = new HashMap<VID, Summary<V, F>>();
+					batches.add(batch);
+				}
+				batch.put(v, e.getKey().get(0));
+			}
+		}
+		for (Entry<Set<GID>, ArrayList<HashMap<VID, Summary<V, F>>>> g : groups.entrySet()) {
+			for (HashMap<VID, Summary<V, F>> batch : g.getValue()) {
+				Iterator<Vertex> i = vertices(batch.keySet(), g.getKey());
 				while (i.hasNext()) {
 					Vertex t = i.next();
-					BSPOperator.this.process(t, e.getKey().get(0));
+					BSPOperator.this.process(t, batch.get(t.vertexID()));
 				}
 			}
 		}
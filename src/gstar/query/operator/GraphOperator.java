@@ -5,6 +5,7 @@ import gstar.data.VID;
 import gstar.data.Vertex;
 import hwanglab.expression.ParsingException;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeSet;
@@ -49,6 +50,17 @@ public abstract class GraphOperator<I, O> extends Operator<I, O> {
 		return vertices(v, graphIDs);
 	}
 
+	/**
+	 * Determines whether or not the graphs may contain the specified vertex (without accessing the graph data).
+	 * 
+	 * @param v
+	 *            the Vertex ID.
+	 * @return false if the graphs certainly do not contain the vertex; true otherwise.
+	 */
+	public boolean mayContain(VID v) {
+		return worker.graphManager().mayContain(v);
+	}
+
 	/**
 	 * Returns the Vertices that correspond to the specified vertex and graph IDs.
 	 * 
@@ -61,6 +73,19 @@ public abstract class GraphOperator<I, O> extends Operator<I, O> {
 	public Iterator<Vertex> vertices(VID v, Set<GID> g) {
 		return worker.graphManager().vertices(v, g);
 	}
+
+	/**
+	 * Returns the Vertices that correspond to the specified vertex and graph IDs, reading them in one batch.
+	 * 
+	 * @param v
+	 *            the Vertex IDs.
+	 * @param g
+	 *            the graph IDs.
+	 * @return the Vertices that correspond to the specified vertex and graph IDs.
+	 */
+	public Iterator<Vertex> vertices(Collection<VID> v, Set<GID> g) {
+		return worker.graphManager().vertices(v, g);
+	}
 	
 	/**
 	 * Returns an iterator over the Vertices from the graphs to query.
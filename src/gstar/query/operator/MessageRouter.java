@@ -191,6 +191,8 @@ public class MessageRouter<V, F> extends Thread {
 	public void handle(Collection<SummaryMessage<?, ?>> messages) {
 		for (SummaryMessage<?, ?> m : messages) {
 			if (m.intermediateVertexID() != null) { // if need to update the summary using the intermediate vertex
+				if (!operator.mayContain(m.intermediateVertexID()))
+					continue; // no such vertex on this Worker
 				Iterator<Vertex> i = operator.vertices(m.intermediateVertexID(), m.graphIDs());
 				while (i.hasNext()) {
 					Vertex v = i.next();
@@ -204,6 +206,8 @@ public class MessageRouter<V, F> extends Thread {
 				}
 			} else { // if the summary has arrived at the final destination
 				operator.statistics().increaseSummaryMessages(1);
+				if (!operator.mayContain(m.targetVertexID()))
+					continue; // the summary would never be applied to a vertex
 				aggregateManager.updateSummary(m.targetVertexID(), (Summary<V, F>) m.summary(), m.graphIDs());
 			}
 		}
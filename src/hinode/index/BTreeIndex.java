@@ -0,0 +1,620 @@
+package hinode.index;
+
+import gstar.data.GID;
+import gstar.data.VID;
+import hwanglab.data.storage.DiskStorageManager;
+import hwanglab.data.storage.ObjectLocation;
+import hwanglab.data.storage.RecordCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import hinode.util.Interval;
+
+/**
+ * A BTreeIndex is a B+-tree whose nodes are stored as records in their own file through a DiskStorageManager, so only
+ * the pages of the nodes visited are read into the buffer pool and only the pages of the nodes updated since the
+ * previous checkpoint are written at a checkpoint. The leaves keep the entries in the order of the vertex IDs and thus
+ * support range scans. Updated nodes are kept on the heap and encoded only when they are flushed (at a checkpoint or
+ * when too many nodes are dirty), so a node updated repeatedly is not encoded each time.
+ *
+ * The tree is copied on write: a node saved at the previous checkpoint is never overwritten but replaced by a new
+ * record (and so is its parent up to the root) the first time it is updated after the checkpoint. The location of the
+ * root is written to a separate root file at each checkpoint, so the tree saved at the previous checkpoint remains
+ * intact until the root file is replaced even if pages are written in between, and the replaced nodes are removed only
+ * after that. The nodes written after the last checkpoint before a crash are never reclaimed.
+ */
+public class BTreeIndex implements VertexIndex
+{
+	/**
+	 * The maximum number of entries (or children) in a node.
+	 */
+	public static final int ORDER = 128;
+
+	/**
+	 * The maximum number of clean decoded nodes kept on the heap.
+	 */
+	protected static final int CACHED_NODES = 1024;
+
+	/**
+	 * The maximum number of dirty nodes kept on the heap.
+	 */
+	protected static final int DIRTY_NODES = 4096;
+
+	/**
+	 * The DiskStorageManager storing the nodes.
+	 */
+	protected final DiskStorageManager nodes;
+
+	/**
+	 * The file containing the location of the root saved at the previous checkpoint.
+	 */
+	protected final File rootFile;
+
+	/**
+	 * The location of the root.
+	 */
+	protected ObjectLocation root;
+
+	/**
+	 * The number of entries.
+	 */
+	protected long count = 0;
+
+	/**
+	 * A set of all the versions in the index.
+	 */
+	protected Set<GID> versions = new HashSet<GID>();
+
+	/**
+	 * The locations of the nodes written since the previous checkpoint (which may be overwritten).
+	 */
+	protected HashSet<ObjectLocation> written = new HashSet<ObjectLocation>();
+
+	/**
+	 * The locations of the nodes saved at the previous checkpoint that have been replaced since then.
+	 */
+	protected ArrayList<ObjectLocation> replaced = new ArrayList<ObjectLocation>();
+
+	/**
+	 * The nodes written since the previous checkpoint that have been updated but not flushed.
+	 */
+	protected HashMap<ObjectLocation, Node> dirty = new HashMap<ObjectLocation, Node>();
+
+	/**
+	 * The locations of the nodes that have dirty descendants.
+	 */
+	protected HashSet<ObjectLocation> ancestors = new HashSet<ObjectLocation>();
+
+	/**
+	 * The decoded nodes in the order of their most recent use.
+	 */
+	protected LinkedHashMap<ObjectLocation, Node> cache = new LinkedHashMap<ObjectLocation, Node>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ObjectLocation, Node> eldest)
+		{
+			return size() > CACHED_NODES;
+		}
+	};
+
+	/**
+	 * A node of a BTreeIndex. A leaf keeps the location and the lifespan of the fat node of each vertex. An internal
+	 * node keeps one more child than keys and each key is the smallest key under the child following it.
+	 */
+	static class Node
+	{
+		final boolean leaf;
+
+		final ArrayList<VID> keys;
+
+		/**
+		 * The locations of the fat nodes (in a leaf) or the children (in an internal node).
+		 */
+		final ArrayList<ObjectLocation> pointers;
+
+		/**
+		 * The lifespans of the fat nodes (null in an internal node).
+		 */
+		final ArrayList<Interval> lifespans;
+
+		Node(boolean leaf, int capacity)
+		{
+			this.leaf = leaf;
+			keys = new ArrayList<VID>(capacity);
+			pointers = new ArrayList<ObjectLocation>(capacity + 1);
+			lifespans = leaf ? new ArrayList<Interval>(capacity) : null;
+		}
+
+		/**
+		 * Returns the position of the specified key (or -(insertion point) - 1 if absent).
+		 */
+		int search(VID id)
+		{
+			return Collections.binarySearch(keys, id);
+		}
+
+		/**
+		 * Returns the position of the child under which the specified key belongs.
+		 */
+		int child(VID id)
+		{
+			int i = search(id);
+			return i >= 0 ? i + 1 : -i - 1;
+		}
+
+		/**
+		 * Moves the upper half of this node to a new node and returns the key separating the two nodes (which an
+		 * internal node gives up).
+		 */
+		VID split(Node right)
+		{
+			int middle = keys.size() / 2;
+			VID separator = keys.get(middle);
+			int from = leaf ? middle : middle + 1;
+			right.keys.addAll(keys.subList(from, keys.size()));
+			right.pointers.addAll(pointers.subList(from, pointers.size()));
+			keys.subList(middle, keys.size()).clear();
+			pointers.subList(from, pointers.size()).clear();
+			if (leaf)
+			{
+				right.lifespans.addAll(lifespans.subList(middle, lifespans.size()));
+				lifespans.subList(middle, lifespans.size()).clear();
+			}
+			return separator;
+		}
+	}
+
+	/**
+	 * A NodeCodec stores the nodes of a BTreeIndex.
+	 */
+	static class NodeCodec extends RecordCodec
+	{
+		static final byte FORMAT = 3;
+
+		@Override
+		public byte format()
+		{
+			return FORMAT;
+		}
+
+		@Override
+		public boolean accepts(Object o)
+		{
+			return o instanceof Node;
+		}
+
+		@Override
+		public void write(Object o, DataOutput out) throws IOException
+		{
+			Node node = (Node) o;
+			out.writeBoolean(node.leaf);
+			writeVarInt(out, node.keys.size());
+			for (VID id : node.keys)
+				out.writeUTF(id.toString());
+			for (ObjectLocation l : node.pointers)
+			{
+				writeVarInt(out, l.pageID());
+				writeVarInt(out, l.index());
+			}
+			if (node.leaf)
+				for (Interval lifespan : node.lifespans)
+				{
+					out.writeBoolean(lifespan != null);
+					if (lifespan != null)
+					{
+						writeSignedVarLong(out, lifespan.getStart());
+						writeSignedVarLong(out, lifespan.getEnd());
+					}
+				}
+		}
+
+		@Override
+		public Object read(DataInput in) throws IOException
+		{
+			boolean leaf = in.readBoolean();
+			int size = readVarInt(in);
+			Node node = new Node(leaf, Math.max(size, ORDER) + 1);
+			for (int i = 0; i < size; i++)
+				node.keys.add(new VID(in.readUTF()));
+			for (int i = leaf ? size : size + 1; i > 0; i--)
+				node.pointers.add(new ObjectLocation(readVarInt(in), readVarInt(in)));
+			if (leaf)
+				for (int i = 0; i < size; i++)
+					node.lifespans.add(in.readBoolean() ? new Interval(readSignedVarLong(in), readSignedVarLong(in))
+							: null);
+			return node;
+		}
+	}
+
+	/**
+	 * Opens the BTreeIndex saved in the specified file (or creates an empty one if none has been saved).
+	 * 
+	 * @param fileName
+	 *            the name of the file storing the nodes (the root file has the suffix ".root").
+	 * @param bufferSize
+	 *            the size of the buffer for caching the pages of the nodes.
+	 */
+	public BTreeIndex(String fileName, long bufferSize) throws IOException
+	{
+		nodes = new DiskStorageManager(fileName, bufferSize);
+		nodes.register(new NodeCodec());
+		rootFile = new File(fileName + ".root");
+		if (!rootFile.exists())
+		{
+			clear();
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(rootFile)));
+		try
+		{
+			root = new ObjectLocation(in.readInt(), in.readInt());
+			count = in.readLong();
+			for (int i = in.readInt(); i > 0; i--)
+				versions.add(new GID(GID.value(in.readLong())));
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Determines whether or not a BTreeIndex has been saved in the specified file.
+	 */
+	public static boolean exists(String fileName)
+	{
+		return new File(fileName + ".root").exists();
+	}
+
+	public synchronized ObjectLocation getFatNode(VID id) throws IOException
+	{
+		Node node = read(root);
+		while (!node.leaf)
+			node = read(node.pointers.get(node.child(id)));
+		int i = node.search(id);
+		return i >= 0 ? node.pointers.get(i) : null;
+	}
+
+	public synchronized void put(VID id, ObjectLocation location, GID t, Interval lifespan) throws IOException
+	{
+		versions.add(t);
+		put(id, location, lifespan, false);
+	}
+
+	public synchronized void relocate(VID id, ObjectLocation location) throws IOException
+	{
+		put(id, location, null, true);
+	}
+
+	/**
+	 * Copies the entries of the specified FatNodeIndex into this BTreeIndex.
+	 */
+	public synchronized void putAll(FatNodeIndex index) throws IOException
+	{
+		versions.addAll(index.versions);
+		for (Map.Entry<VID, ObjectLocation> e : index.index.entrySet())
+			put(e.getKey(), e.getValue(), index.lifespans == null ? null : index.lifespans.get(e.getKey()), false);
+	}
+
+	public synchronized Vector<ObjectLocation> getAllFatNodes() throws IOException
+	{
+		Vector<ObjectLocation> locations = new Vector<ObjectLocation>();
+		scan(root, null, null, null, locations);
+		return locations;
+	}
+
+	public synchronized Vector<ObjectLocation> getFatNodes(Vector<GID> sorted) throws IOException
+	{
+		Vector<ObjectLocation> locations = new Vector<ObjectLocation>();
+		scan(root, null, null, FatNodeIndex.instances(sorted), locations);
+		return locations;
+	}
+
+	public synchronized Vector<ObjectLocation> getFatNodes(VID from, VID to) throws IOException
+	{
+		Vector<ObjectLocation> locations = new Vector<ObjectLocation>();
+		scan(root, from, to, null, locations);
+		return locations;
+	}
+
+	public synchronized Vector<VID> vertexIDs() throws IOException
+	{
+		Vector<VID> ids = new Vector<VID>();
+		vertexIDs(root, ids);
+		return ids;
+	}
+
+	public synchronized Set<GID> versionNumbers()
+	{
+		return versions;
+	}
+
+	/**
+	 * Removes the root file first, so a crash before the next checkpoint leaves no index rather than a broken one.
+	 */
+	public synchronized void clear() throws IOException
+	{
+		if (rootFile.exists() && !rootFile.delete())
+			throw new IOException("cannot remove " + rootFile);
+		nodes.clearData();
+		cache.clear();
+		dirty.clear();
+		ancestors.clear();
+		written.clear();
+		replaced.clear();
+		versions.clear();
+		count = 0;
+		root = write(null, new Node(true, ORDER + 1));
+	}
+
+	/**
+	 * Writes the updated nodes, replaces the root file and then removes the nodes replaced since the previous
+	 * checkpoint.
+	 */
+	public synchronized long checkpoint() throws IOException
+	{
+		root = flush(root);
+		nodes.flush(); // the nodes that the new root refers to must be on disk first
+		File temp = new File(rootFile.getPath() + ".tmp");
+		FileOutputStream fout = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+		try
+		{
+			out.writeInt(root.pageID());
+			out.writeInt(root.index());
+			out.writeLong(count);
+			out.writeInt(versions.size());
+			for (GID t : versions)
+				out.writeLong(t.timestamp());
+			out.flush();
+			fout.getFD().sync();
+		} finally
+		{
+			out.close();
+		}
+		if (!temp.renameTo(rootFile))
+			throw new IOException("cannot replace " + rootFile);
+		for (ObjectLocation l : replaced)
+			nodes.remove(l);
+		nodes.checkpoint(); // no saved root refers to the replaced nodes any more
+		replaced.clear();
+		written.clear();
+		return size();
+	}
+
+	public synchronized long size() throws IOException
+	{
+		return nodes.dataSize() + rootFile.length();
+	}
+
+	/**
+	 * Returns the number of entries.
+	 */
+	public synchronized long count()
+	{
+		return count;
+	}
+
+	public synchronized void close()
+	{
+		nodes.shutdown();
+	}
+
+	/**
+	 * Stores the specified location (and lifespan unless only relocating) of the fat node of the specified vertex,
+	 * splitting the root if it overflows and flushing the dirty nodes if there are too many.
+	 */
+	protected void put(VID id, ObjectLocation location, Interval lifespan, boolean relocating) throws IOException
+	{
+		Object[] split = new Object[2];
+		root = put(root, id, location, lifespan, relocating, split);
+		if (split[0] != null) // a new root above the two halves of the old one
+		{
+			Node node = new Node(false, ORDER + 1);
+			node.keys.add((VID) split[0]);
+			node.pointers.add(root);
+			node.pointers.add((ObjectLocation) split[1]);
+			root = write(null, node);
+		}
+		if (dirty.size() > DIRTY_NODES)
+			root = flush(root);
+	}
+
+	/**
+	 * Stores an entry under the node at the specified location. If the node overflows, its upper half is moved to a
+	 * new node and the separating key and the location of the new node are returned in split.
+	 * 
+	 * @return the location of the node (which changes when a node saved at the previous checkpoint is updated).
+	 */
+	protected ObjectLocation put(ObjectLocation l, VID id, ObjectLocation location, Interval lifespan,
+			boolean relocating, Object[] split) throws IOException
+	{
+		Node node = read(l);
+		if (node.leaf)
+		{
+			int i = node.search(id);
+			if (i >= 0)
+			{
+				node.pointers.set(i, location);
+				if (!relocating)
+					node.lifespans.set(i, lifespan);
+			} else
+			{
+				node.keys.add(-i - 1, id);
+				node.pointers.add(-i - 1, location);
+				node.lifespans.add(-i - 1, lifespan);
+				count++;
+			}
+		} else
+		{
+			int c = node.child(id);
+			ObjectLocation child = node.pointers.get(c);
+			Object[] childSplit = new Object[2];
+			ObjectLocation updated = put(child, id, location, lifespan, relocating, childSplit);
+			if (dirty.containsKey(updated) || ancestors.contains(updated))
+				ancestors.add(l); // written since the checkpoint (like the child) and thus not replaced below
+			if (updated.equals(child) && childSplit[0] == null)
+				return l; // the child has been updated in place
+			node.pointers.set(c, updated);
+			if (childSplit[0] != null)
+			{
+				node.keys.add(c, (VID) childSplit[0]);
+				node.pointers.add(c + 1, (ObjectLocation) childSplit[1]);
+			}
+		}
+		if (node.keys.size() > ORDER)
+		{
+			Node right = new Node(node.leaf, ORDER + 1);
+			split[0] = node.split(right);
+			split[1] = write(null, right);
+		}
+		return write(l, node);
+	}
+
+	/**
+	 * Adds the locations of the fat nodes under the node at the specified location whose vertex IDs are between from
+	 * (inclusive) and to (exclusive) and that are alive at any of the specified time instances (unless null).
+	 */
+	protected void scan(ObjectLocation l, VID from, VID to, long[] instances, Vector<ObjectLocation> locations)
+			throws IOException
+	{
+		Node node = read(l);
+		if (node.leaf)
+		{
+			for (int i = 0; i < node.keys.size(); i++)
+			{
+				VID id = node.keys.get(i);
+				if (from != null && id.compareTo(from) < 0)
+					continue;
+				if (to != null && id.compareTo(to) >= 0)
+					break;
+				Interval lifespan = node.lifespans.get(i);
+				if (instances == null || lifespan == null || FatNodeIndex.isAlive(lifespan, instances))
+					locations.add(node.pointers.get(i));
+			}
+			return;
+		}
+		int first = from == null ? 0 : node.child(from);
+		int last = to == null ? node.keys.size() : node.child(to);
+		for (int c = first; c <= last; c++)
+			scan(node.pointers.get(c), from, to, instances, locations);
+	}
+
+	/**
+	 * Adds the keys under the node at the specified location.
+	 */
+	protected void vertexIDs(ObjectLocation l, Vector<VID> ids) throws IOException
+	{
+		Node node = read(l);
+		if (node.leaf)
+			ids.addAll(node.keys);
+		else
+			for (ObjectLocation child : node.pointers)
+				vertexIDs(child, ids);
+	}
+
+	/**
+	 * Returns the node at the specified location.
+	 */
+	protected Node read(ObjectLocation l) throws IOException
+	{
+		Node node = dirty.get(l);
+		if (node == null)
+			node = cache.get(l);
+		if (node != null)
+			return node;
+		try
+		{
+			node = (Node) nodes.get(l);
+		} catch (ClassNotFoundException e)
+		{
+			throw new IOException(e);
+		}
+		if (node == null)
+			throw new IOException("no index node at " + l);
+		cache.put(l, node);
+		return node;
+	}
+
+	/**
+	 * Writes the specified node. A node written since the previous checkpoint is only marked dirty, while a node saved
+	 * at the previous checkpoint (or a new node) is written at a new location.
+	 * 
+	 * @return the location of the node.
+	 */
+	protected ObjectLocation write(ObjectLocation l, Node node) throws IOException
+	{
+		if (l != null && written.contains(l))
+		{
+			dirty.put(l, node);
+			return l;
+		}
+		if (l != null)
+		{
+			replaced.add(l);
+			cache.remove(l);
+		}
+		ObjectLocation location = nodes.add(node);
+		written.add(location);
+		cache.put(location, node);
+		return location;
+	}
+
+	/**
+	 * Writes the dirty nodes under the node at the specified location (including the node itself) and updates the
+	 * pointers to the nodes that have been moved.
+	 * 
+	 * @return the location of the node.
+	 */
+	protected ObjectLocation flush(ObjectLocation l) throws IOException
+	{
+		Node node = dirty.remove(l);
+		boolean changed = node != null;
+		if (ancestors.remove(l))
+		{
+			if (node == null)
+				node = read(l);
+			for (int c = 0; c < node.pointers.size(); c++)
+			{
+				ObjectLocation child = node.pointers.get(c);
+				if (!dirty.containsKey(child) && !ancestors.contains(child))
+					continue;
+				ObjectLocation location = flush(child);
+				if (!location.equals(child))
+				{
+					node.pointers.set(c, location);
+					changed = true;
+				}
+			}
+		}
+		if (!changed)
+			return l;
+		ObjectLocation location = nodes.put(l, node);
+		if (!location.equals(l))
+		{
+			written.remove(l);
+			written.add(location);
+			cache.remove(l);
+		}
+		cache.put(location, node);
+		return location;
+	}
+}
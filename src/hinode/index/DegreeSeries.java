@@ -0,0 +1,103 @@
+package hinode.index;
+
+import java.util.Arrays;
+
+/**
+ * A DegreeSeries keeps the degree of a vertex over time as the time instances at which the degree changes and the
+ * degree from each of those instances on. Since a FatNode never removes an edge but only replaces it with a newer
+ * version, the degree changes only when an edge to a new neighbor appears and the series usually grows at its end.
+ */
+public class DegreeSeries implements java.io.Serializable
+{
+	/**
+	 * Automatically generated serial version UID.
+	 */
+	private static final long serialVersionUID = 5307712385634429921L;
+
+	/**
+	 * The time instances at which the degree changes (sorted).
+	 */
+	protected long[] instances = new long[2];
+
+	/**
+	 * The degree from each time instance on.
+	 */
+	protected int[] degrees = new int[2];
+
+	/**
+	 * The number of time instances.
+	 */
+	protected int size = 0;
+
+	/**
+	 * Returns the degree at the specified time instance.
+	 */
+	public int degreeAt(long instance)
+	{
+		int i = floor(instance);
+		return i < 0 ? 0 : degrees[i];
+	}
+
+	/**
+	 * Returns the current degree (i.e., the degree at the latest time instance).
+	 */
+	public int current()
+	{
+		return size == 0 ? 0 : degrees[size - 1];
+	}
+
+	/**
+	 * Adds the specified change to the degree from the specified time instance on.
+	 */
+	public void add(long instance, int change)
+	{
+		int i = floor(instance);
+		if (i < 0 || instances[i] != instance) // a new point in the series
+		{
+			if (size == instances.length)
+			{
+				instances = Arrays.copyOf(instances, size * 2);
+				degrees = Arrays.copyOf(degrees, size * 2);
+			}
+			i++;
+			System.arraycopy(instances, i, instances, i + 1, size - i);
+			System.arraycopy(degrees, i, degrees, i + 1, size - i);
+			instances[i] = instance;
+			degrees[i] = i == 0 ? 0 : degrees[i - 1];
+			size++;
+		}
+		for (; i < size; i++)
+			degrees[i] += change;
+	}
+
+	/**
+	 * Returns a copy of this DegreeSeries.
+	 */
+	public DegreeSeries copy()
+	{
+		DegreeSeries copy = new DegreeSeries();
+		copy.instances = Arrays.copyOf(instances, Math.max(size, 2));
+		copy.degrees = Arrays.copyOf(degrees, Math.max(size, 2));
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of time instances at which the degree changes.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the position of the last time instance at or before the specified one (-1 if none).
+	 */
+	protected int floor(long instance)
+	{
+		if (size == 0 || instances[size - 1] <= instance) // the common case: the latest degree
+			return size - 1;
+		int i = Arrays.binarySearch(instances, 0, size - 1, instance);
+		return i >= 0 ? i : -i - 2;
+	}
+}
@@ -0,0 +1,124 @@
+package hinode.index;
+
+import gstar.data.Edge;
+
+import java.util.ArrayList;
+
+import hinode.util.Interval;
+
+/**
+ * An EdgeHistory keeps the versions of the edge between a FatNode and one of its neighbors, sorted by the starts of
+ * their intervals. Since the intervals do not overlap, only the last one can be open and the version that exists at a
+ * time instance is found by binary search.
+ */
+public class EdgeHistory
+{
+	/**
+	 * The intervals of the versions (sorted by start).
+	 */
+	protected ArrayList<Interval> intervals = new ArrayList<Interval>(1);
+
+	/**
+	 * The versions of the edge (in the order of their intervals).
+	 */
+	protected ArrayList<Edge> edges = new ArrayList<Edge>(1);
+
+	/**
+	 * Returns the number of versions.
+	 */
+	public int size()
+	{
+		return intervals.size();
+	}
+
+	/**
+	 * Returns the interval of the specified version.
+	 */
+	public Interval interval(int version)
+	{
+		return intervals.get(version);
+	}
+
+	/**
+	 * Returns the specified version of the edge.
+	 */
+	public Edge edge(int version)
+	{
+		return edges.get(version);
+	}
+
+	/**
+	 * Returns the version of the edge that exists at the specified time instance (null if none).
+	 */
+	public Edge edgeAt(long instance)
+	{
+		int i = floor(instance);
+		return i >= 0 && intervals.get(i).stab(instance) ? edges.get(i) : null;
+	}
+
+	/**
+	 * Closes the version that exists at the specified time instance (if any) and adds the specified edge as the version
+	 * that exists from the time instance on. A closed version that would be empty is dropped.
+	 */
+	public void update(Edge edge, long instance)
+	{
+		int i = floor(instance);
+		if (i >= 0 && intervals.get(i).stab(instance))
+		{
+			if (intervals.get(i).getStart() == instance) // replaced at the instance at which it was created
+			{
+				intervals.remove(i);
+				edges.remove(i);
+				i--;
+			}
+			else
+				intervals.get(i).setEnd(instance);
+		}
+		intervals.add(i + 1, new Interval(instance));
+		edges.add(i + 1, edge);
+	}
+
+	/**
+	 * Adds a version of the edge (e.g., one read from disk) in the order of its start.
+	 */
+	public void add(Interval interval, Edge edge)
+	{
+		int i = floor(interval.getStart()) + 1;
+		intervals.add(i, interval);
+		edges.add(i, edge);
+	}
+
+	/**
+	 * Returns a copy of this EdgeHistory whose intervals can be updated without affecting this EdgeHistory (the edges
+	 * are shared since they are never modified).
+	 */
+	public EdgeHistory copy()
+	{
+		EdgeHistory copy = new EdgeHistory();
+		copy.intervals.ensureCapacity(intervals.size());
+		for (Interval i : intervals)
+			copy.intervals.add(new Interval(i.getStart(), i.getEnd()));
+		copy.edges.addAll(edges);
+		return copy;
+	}
+
+	/**
+	 * Returns the position of the last version that starts at or before the specified time instance (-1 if none).
+	 */
+	protected int floor(long instance)
+	{
+		int last = intervals.size() - 1;
+		if (last < 0 || intervals.get(last).getStart() <= instance) // the common case: the latest version
+			return last;
+		int low = 0, high = last - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			if (intervals.get(middle).getStart() <= instance)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		return high;
+	}
+}
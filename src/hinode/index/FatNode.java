@@ -9,7 +9,13 @@ import hwanglab.data.DataObject;
 import hwanglab.data.DataObjectUpdateMessage;
 import hwanglab.util.Pair;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Vector;
@@ -27,37 +33,158 @@ public class FatNode extends DataObject
 	/**
 	 * GID of when the last change occurred in this fat node
 	 */
-	private ArrayList<Interval> changesLog;
+	protected ArrayList<Interval> changesLog;
 
 	/**
-	 * The incoming edges of this Vertex.
+	 * The incoming edges of this Vertex (the history of the edge from each neighbor).
 	 */
-	protected java.util.LinkedHashMap<EdgePair, Edge> incomingEdges = new java.util.LinkedHashMap<EdgePair, Edge>();
+	protected LinkedHashMap<VID, EdgeHistory> incomingEdges = new LinkedHashMap<VID, EdgeHistory>();
 
 	/**
-	 * The outgoing edges of this Vertex.
+	 * The outgoing edges of this Vertex (the history of the edge to each neighbor).
 	 */
-	protected java.util.LinkedHashMap<EdgePair, Edge> outgoingEdges = new java.util.LinkedHashMap<EdgePair, Edge>();
+	protected LinkedHashMap<VID, EdgeHistory> outgoingEdges = new LinkedHashMap<VID, EdgeHistory>();
+
+	/**
+	 * The in-degree of this Vertex over time (saved with this FatNode; null until needed if this FatNode has been read
+	 * from a record saved without it, in which case it is rebuilt from the incoming edges).
+	 */
+	protected DegreeSeries inDegrees;
+
+	/**
+	 * The out-degree of this Vertex over time (saved with this FatNode; null until needed if this FatNode has been read
+	 * from a record saved without it, in which case it is rebuilt from the outgoing edges).
+	 */
+	protected DegreeSeries outDegrees;
+
+	/**
+	 * The fields saved by Java serialization. The edges are saved as maps from EdgePairs to Edges, as they used to be
+	 * kept, so that FatNodes serialized before can still be read (FatNodes serialized before the degree series were
+	 * saved have none and rebuild them when needed).
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("changesLog", ArrayList.class),
+			new ObjectStreamField("incomingEdges", LinkedHashMap.class),
+			new ObjectStreamField("outgoingEdges", LinkedHashMap.class),
+			new ObjectStreamField("inDegrees", DegreeSeries.class),
+			new ObjectStreamField("outDegrees", DegreeSeries.class) };
 
 	public FatNode(VID vertexID) 
 	{
 		update("id", vertexID);
 		changesLog = new ArrayList<Interval>();
 	}
-	
-	public int getActiveEdgeCount(GID t)
+
+	/**
+	 * Constructs a copy of the specified FatNode that can be updated without affecting the original. The intervals are
+	 * copied since updates close them, whereas the values and the edges are shared since they are never modified.
+	 */
+	public FatNode(FatNode other)
 	{
-		int count = 0;
-		for (EdgePair i : outgoingEdges.keySet())
+		for (Map.Entry<String, Object> e : other.attributes.entrySet())
 		{
-			if (i.second().stab(Double.valueOf(t.toString()).intValue()))
-				count++;
+			Object value = e.getValue();
+			if (value instanceof ArrayList) // the history of the attribute
+			{
+				@SuppressWarnings("unchecked")
+				ArrayList<Pair<Object,Interval>> pairs = (ArrayList<Pair<Object, Interval>>) value;
+				ArrayList<Pair<Object,Interval>> copy = new ArrayList<Pair<Object,Interval>>(pairs.size());
+				for (Pair<Object,Interval> pair : pairs)
+					copy.add(new Pair<Object, Interval>(pair.first(), copy(pair.second())));
+				value = copy;
+			}
+			attributes.put(e.getKey(), value);
 		}
-		return count;
+		changesLog = new ArrayList<Interval>(other.changesLog.size());
+		for (Interval i : other.changesLog)
+			changesLog.add(copy(i));
+		for (Map.Entry<VID, EdgeHistory> e : other.incomingEdges.entrySet())
+			incomingEdges.put(e.getKey(), e.getValue().copy());
+		for (Map.Entry<VID, EdgeHistory> e : other.outgoingEdges.entrySet())
+			outgoingEdges.put(e.getKey(), e.getValue().copy());
+		if (other.inDegrees != null)
+			inDegrees = other.inDegrees.copy();
+		if (other.outDegrees != null)
+			outDegrees = other.outDegrees.copy();
+	}
+
+	private static Interval copy(Interval i)
+	{
+		return new Interval(i.getStart(), i.getEnd());
+	}
+	
+	public int getActiveEdgeCount(GID t)
+	{
+		return outDegree(t);
+	}
+
+	/**
+	 * Returns the number of incoming edges at the specified time instance.
+	 */
+	public int inDegree(GID t)
+	{
+		return inDegrees().degreeAt(instance(t));
+	}
+
+	/**
+	 * Returns the number of outgoing edges at the specified time instance.
+	 */
+	public int outDegree(GID t)
+	{
+		return outDegrees().degreeAt(instance(t));
+	}
+
+	/**
+	 * Returns the in-degree of this Vertex over time.
+	 */
+	public DegreeSeries inDegrees()
+	{
+		if (inDegrees == null)
+			inDegrees = degrees(incomingEdges);
+		return inDegrees;
+	}
+
+	/**
+	 * Returns the out-degree of this Vertex over time.
+	 */
+	public DegreeSeries outDegrees()
+	{
+		if (outDegrees == null)
+			outDegrees = degrees(outgoingEdges);
+		return outDegrees;
 	}
 
+	/**
+	 * Builds the degree series of the specified edges. An edge is never removed but only replaced with a newer version,
+	 * so it exists from the start of its first version on.
+	 */
+	private static DegreeSeries degrees(LinkedHashMap<VID, EdgeHistory> edges)
+	{
+		long[] starts = new long[edges.size()];
+		int n = 0;
+		for (EdgeHistory h : edges.values())
+			if (h.size() > 0)
+				starts[n++] = h.interval(0).getStart();
+		Arrays.sort(starts, 0, n);
+		DegreeSeries degrees = new DegreeSeries();
+		for (int i = 0; i < n; i++)
+			degrees.add(starts[i], 1);
+		return degrees;
+	}
+
+	/**
+	 * Applies the specified message at the specified time instance. The histories of a FatNode are kept in time order
+	 * (which the lookups by binary search and the Cursor rely on), so the time instance must not precede the most
+	 * recent update.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if this FatNode has been updated after the specified time instance.
+	 */
 	public void update(VertexUpdateMessage message, GID t) 
 	{
+		if (instance(t) < lastUpdate())
+			throw new IllegalArgumentException("cannot update " + vertexID() + " at " + t + " after an update at "
+					+ GID.value(lastUpdate()));
 		if (message.resetScheduled())
 		{
 		}
@@ -76,58 +203,54 @@ public class FatNode extends DataObject
 			updateOutgoingEdge(e.getKey(), e.getValue(), t);
 		}
 		if (!changesLog.isEmpty())
-			changesLog.get(changesLog.size()-1).setEnd(Double.valueOf(t.toString()).intValue());
-		changesLog.add(new Interval(Double.valueOf(t.toString()).intValue()));
+			changesLog.get(changesLog.size()-1).setEnd(t.timestamp());
+		changesLog.add(new Interval(t.timestamp()));
 	}
 	
 	private void updateOutgoingEdge(VID des, DataObjectUpdateMessage value, GID t) 
 	{
-		EdgePair activeEdgePair = getExistingActiveOutgoingEdgePair(des, t);
-		if (activeEdgePair != null) // Close the interval for the current "this" --> "des" edge
-		{
-			Edge oldedge = outgoingEdges.get(activeEdgePair);
-			outgoingEdges.remove(activeEdgePair);
-			activeEdgePair.second().setEnd(Double.valueOf(t.toString()).intValue());
-			outgoingEdges.put(activeEdgePair, oldedge);
-		}
-		Interval in = new Interval(Double.valueOf(t.toString()).intValue());
-		EdgePair ep = new EdgePair(des,in);
 		Edge e = new Edge(des);
 		e.update(value);
-		outgoingEdges.put(ep, e);	
+		updateEdge(outgoingEdges, outDegrees, des, e, instance(t)); // closes the current "this" --> "des" edge
 	}
 
-	private EdgePair getExistingActiveOutgoingEdgePair(VID des, GID t) 
+	private void updateIncomingEdge(VID src, DataObjectUpdateMessage value, GID t) 
 	{
-		for (EdgePair pair : outgoingEdges.keySet())
-			if (des.equals(pair.first()) && pair.second().stab(Double.valueOf(t.toString()).intValue()))
-				return pair;
-		return null;
+		Edge e = new Edge(src);
+		e.update(value);
+		updateEdge(incomingEdges, inDegrees, src, e, instance(t)); // closes the current "src" --> "this" edge
 	}
 
-	private void updateIncomingEdge(VID src, DataObjectUpdateMessage value, GID t) 
+	/**
+	 * Adds a version of the edge to or from the specified neighbor and, if the edge now exists earlier than before (in
+	 * particular, if it is new), updates the specified degree series (unless it is still to be built).
+	 */
+	private static void updateEdge(LinkedHashMap<VID, EdgeHistory> edges, DegreeSeries degrees, VID neighbor, Edge e,
+			long instance)
 	{
-		EdgePair activeEdgePair = getExistingActiveIncomingEdgePair(src, t);
-		if (activeEdgePair != null) // Close the interval for the current "src" --> "this" edge
+		EdgeHistory history = history(edges, neighbor);
+		long first = history.size() == 0 ? Long.MAX_VALUE : history.interval(0).getStart();
+		history.update(e, instance);
+		if (degrees != null && instance < first)
 		{
-			Edge oldedge = incomingEdges.get(activeEdgePair);
-			incomingEdges.remove(activeEdgePair);
-			activeEdgePair.second().setEnd(Double.valueOf(t.toString()).intValue());
-			incomingEdges.put(activeEdgePair, oldedge);
+			degrees.add(instance, 1);
+			if (first != Long.MAX_VALUE)
+				degrees.add(first, -1);
 		}
-		Interval in = new Interval(Double.valueOf(t.toString()).intValue());
-		EdgePair ep = new EdgePair(src,in);
-		Edge e = new Edge(src);
-		e.update(value);
-		incomingEdges.put(ep, e);
 	}
 
-	private EdgePair getExistingActiveIncomingEdgePair(VID src, GID t) 
+	/**
+	 * Returns the history of the edge to or from the specified neighbor (created if there is none).
+	 */
+	static EdgeHistory history(LinkedHashMap<VID, EdgeHistory> edges, VID neighbor)
 	{
-		for (EdgePair pair : incomingEdges.keySet())
-			if (src.equals(pair.first()) && pair.second().stab(Double.valueOf(t.toString()).intValue()))
-				return pair;
-		return null;
+		EdgeHistory history = edges.get(neighbor);
+		if (history == null)
+		{
+			history = new EdgeHistory();
+			edges.put(neighbor, history);
+		}
+		return history;
 	}
 
 	private void updateAttribute(String key, Object value, GID t) 
@@ -140,7 +263,7 @@ public class FatNode extends DataObject
 		ArrayList<Pair<Object,Interval>> pairs = (ArrayList<Pair<Object, Interval>>) attributes.get(key);
 		if (pairs.isEmpty())
 		{
-			Interval in = new Interval(Double.valueOf(t.toString()).intValue());
+			Interval in = new Interval(t.timestamp());
 			Pair<Object, Interval> p = new Pair<Object, Interval>(value,in);
 			pairs.add(p);
 			attributes.put(key,pairs);
@@ -159,8 +282,8 @@ public class FatNode extends DataObject
 				return;
 			else
 			{
-				interval.setEnd(Double.valueOf(t.toString()).intValue());
-				Pair<Object, Interval> p = new Pair<Object, Interval>(value,new Interval(Double.valueOf(t.toString()).intValue()));
+				interval.setEnd(t.timestamp());
+				Pair<Object, Interval> p = new Pair<Object, Interval>(value,new Interval(t.timestamp()));
 				pairs.add(p);
 				attributes.put(key, pairs);
 			}
@@ -173,8 +296,8 @@ public class FatNode extends DataObject
 				return;
 			else
 			{
-				interval.setEnd(Double.valueOf(t.toString()).intValue());
-				Pair<Object, Interval> p = new Pair<Object, Interval>(value,new Interval(Double.valueOf(t.toString()).intValue()));
+				interval.setEnd(t.timestamp());
+				Pair<Object, Interval> p = new Pair<Object, Interval>(value,new Interval(t.timestamp()));
 				pairs.add(p);
 				attributes.put(key, pairs);
 			}			
@@ -187,8 +310,8 @@ public class FatNode extends DataObject
 				return;
 			else
 			{
-				interval.setEnd(Double.valueOf(t.toString()).intValue());
-				Pair<Object, Interval> p = new Pair<Object, Interval>(value,new Interval(Double.valueOf(t.toString()).intValue()));
+				interval.setEnd(t.timestamp());
+				Pair<Object, Interval> p = new Pair<Object, Interval>(value,new Interval(t.timestamp()));
 				pairs.add(p);
 				attributes.put(key, pairs);
 			}	
@@ -199,13 +322,43 @@ public class FatNode extends DataObject
 	{
 		return (VID) value("id");
 	}
+
+	/**
+	 * Returns the number of updates made at the specified time instance (Integer.MAX_VALUE if this FatNode has been
+	 * updated after the specified time instance).
+	 */
+	public int updateCount(GID t)
+	{
+		long instance = t.timestamp();
+		int count = 0;
+		for (Interval i : changesLog)
+		{
+			if (i.getStart() > instance)
+				return Integer.MAX_VALUE;
+			if (i.getStart() == instance)
+				count++;
+		}
+		return count;
+	}
 	
+	/**
+	 * Returns the time instance of the most recent update (Long.MIN_VALUE if none).
+	 */
+	public long lastUpdate()
+	{
+		return changesLog.isEmpty() ? Long.MIN_VALUE : changesLog.get(changesLog.size() - 1).getStart();
+	}
+
+	/**
+	 * Returns the interval of changesLog that contains the specified time instance (null if none). Since updates are
+	 * applied in time order (see {@link #update(VertexUpdateMessage, GID)}), changesLog is sorted by start and its
+	 * intervals do not overlap, so the interval is found by binary search.
+	 */
 	public Interval getLastValidInterval(GID t)
 	{
-		for (Interval i : changesLog)
-			if (i.stab(Double.valueOf(t.toString()).intValue()))
-				return i;
-		return null;
+		long instance = instance(t);
+		int i = floor(changesLog, instance);
+		return i >= 0 && changesLog.get(i).stab(instance) ? changesLog.get(i) : null;
 	}
 
 	public Vertex convertToVertex(GID g) 
@@ -222,42 +375,260 @@ public class FatNode extends DataObject
 			msg.update(attr, value);		
 		}
 		vertex.update(msg, g);
-		for (EdgePair ep : incomingEdges.keySet()) // Get all incoming edges at time instance "g"
+		addEdges(vertex, instance(g));
+		return vertex;
+	}
+
+	/**
+	 * Adds to the specified Vertex the edges of this FatNode that exist at the specified time instance.
+	 */
+	private void addEdges(Vertex vertex, long instance)
+	{
+		for (Map.Entry<VID, EdgeHistory> e : incomingEdges.entrySet()) // Get all incoming edges at the time instance
 		{
-			if (ep.second().stab(Double.valueOf(g.toString()).intValue())) // If an incoming edge exists at time instance "g"
-			{
-				vertex.incomingEdges.put(ep.first(), incomingEdges.get(ep)); // insert it into "incomingEdges" of "vertex"
-			}
+			Edge edge = e.getValue().edgeAt(instance);
+			if (edge != null) // If an incoming edge exists at the time instance
+				vertex.incomingEdges.put(e.getKey(), edge); // insert it into "incomingEdges" of "vertex"
 		}
-		for (EdgePair ep : outgoingEdges.keySet()) // Get all outgoing edges at time instance "g"
+		for (Map.Entry<VID, EdgeHistory> e : outgoingEdges.entrySet()) // Get all outgoing edges at the time instance
 		{
-			if (ep.second().stab(Double.valueOf(g.toString()).intValue())) // If an outgoing edge exists at time instance "g"
-			{
-				vertex.outgoingEdges.put(ep.first(), outgoingEdges.get(ep)); // insert it into "outgoingEdges" of "vertex"
-			}
-		}		
-		return vertex;
+			Edge edge = e.getValue().edgeAt(instance);
+			if (edge != null) // If an outgoing edge exists at the time instance
+				vertex.outgoingEdges.put(e.getKey(), edge); // insert it into "outgoingEdges" of "vertex"
+		}
 	}
 
+	/**
+	 * Returns the value of the specified attribute at the specified time instance (null if none). Like changesLog, the
+	 * history of each attribute is sorted by start, so the value is found by binary search.
+	 */
 	private Object getAttributeValueAtInstance(String attr, GID g) 
 	{
 		@SuppressWarnings("unchecked")
 		ArrayList<Pair<Object,Interval>> pairs = (ArrayList<Pair<Object, Interval>>) attributes.get(attr);
-		for (Pair<Object,Interval> pair : pairs)
+		long instance = instance(g);
+		int low = 0, high = pairs.size() - 1;
+		while (low <= high) // find the last pair starting at or before the time instance
 		{
-			if (pair.second().stab(Double.valueOf(g.toString()).intValue()))
-				return pair.first();
+			int middle = (low + high) >>> 1;
+			if (pairs.get(middle).second().getStart() <= instance)
+				low = middle + 1;
+			else
+				high = middle - 1;
 		}
-		return null;
+		return high >= 0 && pairs.get(high).second().stab(instance) ? pairs.get(high).first() : null;
+	}
+
+	/**
+	 * Returns the position of the last of the specified intervals that starts at or before the specified time instance
+	 * (-1 if there is no such interval). The intervals must be sorted by start.
+	 */
+	private static int floor(ArrayList<Interval> intervals, long instance)
+	{
+		int low = 0, high = intervals.size() - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			if (intervals.get(middle).getStart() <= instance)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		return high;
+	}
+
+	/**
+	 * Returns the time instance (timestamp) that the specified graph ID represents.
+	 */
+	static long instance(GID t)
+	{
+		return t.timestamp();
+	}
+
+	/**
+	 * Returns a Cursor over the history of this FatNode.
+	 */
+	public Cursor cursor()
+	{
+		return new Cursor();
+	}
+
+	/**
+	 * A Cursor walks the history of a FatNode through time instances visited in ascending order. Each history is scanned
+	 * forward from where the previous time instance left it, so visiting k time instances of a FatNode with n versions
+	 * costs O(k + n) in total instead of a search per time instance and attribute.
+	 */
+	public class Cursor
+	{
+		/**
+		 * The time instance visited most recently.
+		 */
+		protected long instance = Long.MIN_VALUE;
+
+		/**
+		 * The position in changesLog of the last interval starting at or before the current time instance.
+		 */
+		protected int change = -1;
+
+		/**
+		 * The names of the attributes (except the ID).
+		 */
+		protected ArrayList<String> names = new ArrayList<String>();
+
+		/**
+		 * The histories of the attributes (in the order of their names).
+		 */
+		protected ArrayList<ArrayList<Pair<Object, Interval>>> histories = new ArrayList<ArrayList<Pair<Object, Interval>>>();
+
+		/**
+		 * The position in each history of the last pair starting at or before the current time instance.
+		 */
+		protected int[] positions;
+
+		@SuppressWarnings("unchecked")
+		protected Cursor()
+		{
+			for (Map.Entry<String, Object> e : attributes.entrySet())
+			{
+				if (e.getKey().equals("id"))
+					continue;
+				names.add(e.getKey());
+				histories.add((ArrayList<Pair<Object, Interval>>) e.getValue());
+			}
+			positions = new int[histories.size()];
+			Arrays.fill(positions, -1);
+		}
+
+		/**
+		 * Returns the interval of changesLog that contains the specified time instance (null if none).
+		 * 
+		 * @throws IllegalArgumentException
+		 *             if the time instance precedes the one visited most recently.
+		 */
+		public Interval interval(GID t)
+		{
+			moveTo(t);
+			while (change + 1 < changesLog.size() && changesLog.get(change + 1).getStart() <= instance)
+				change++;
+			return change >= 0 && changesLog.get(change).stab(instance) ? changesLog.get(change) : null;
+		}
+
+		/**
+		 * Returns the Vertex that the FatNode represents at the specified time instance (see
+		 * {@link FatNode#convertToVertex(GID)}).
+		 * 
+		 * @throws IllegalArgumentException
+		 *             if the time instance precedes the one visited most recently.
+		 */
+		public Vertex vertex(GID t)
+		{
+			moveTo(t);
+			Vertex vertex = new Vertex(vertexID());
+			VertexUpdateMessage msg = new VertexUpdateMessage(vertexID());
+			for (int a = 0; a < histories.size(); a++)
+			{
+				ArrayList<Pair<Object, Interval>> pairs = histories.get(a);
+				int p = positions[a];
+				while (p + 1 < pairs.size() && pairs.get(p + 1).second().getStart() <= instance)
+					p++;
+				positions[a] = p;
+				if (p >= 0 && pairs.get(p).second().stab(instance) && pairs.get(p).first() != null)
+					msg.update(names.get(a), pairs.get(p).first());
+			}
+			vertex.update(msg, t);
+			addEdges(vertex, instance);
+			return vertex;
+		}
+
+		private void moveTo(GID t)
+		{
+			long instance = instance(t);
+			if (instance < this.instance)
+				throw new IllegalArgumentException("time instances must be visited in ascending order");
+			this.instance = instance;
+		}
+	}
+
+	/**
+	 * Returns a rough estimate of the number of heap bytes occupied by this FatNode (used to bound caches of FatNodes).
+	 */
+	public long estimatedSize()
+	{
+		long size = 256 + 48L * changesLog.size();
+		for (Object value : attributes.values())
+			size += value instanceof ArrayList ? 64 + 96L * ((ArrayList<?>) value).size() : 64;
+		for (EdgeHistory h : incomingEdges.values())
+			size += 96 + 128L * h.size();
+		for (EdgeHistory h : outgoingEdges.values())
+			size += 96 + 128L * h.size();
+		if (inDegrees != null)
+			size += 48 + 8L * inDegrees.size();
+		if (outDegrees != null)
+			size += 48 + 8L * outDegrees.size();
+		return size;
+	}
+
+	/**
+	 * Saves this FatNode in the serialized form of {@link #serialPersistentFields}.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("changesLog", changesLog);
+		fields.put("incomingEdges", toEdgePairs(incomingEdges));
+		fields.put("outgoingEdges", toEdgePairs(outgoingEdges));
+		fields.put("inDegrees", inDegrees());
+		fields.put("outDegrees", outDegrees());
+		out.writeFields();
+	}
+
+	/**
+	 * Reads a FatNode saved by {@link #writeObject(ObjectOutputStream)}.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields();
+		changesLog = (ArrayList<Interval>) fields.get("changesLog", null);
+		incomingEdges = fromEdgePairs((Map<EdgePair, Edge>) fields.get("incomingEdges", null));
+		outgoingEdges = fromEdgePairs((Map<EdgePair, Edge>) fields.get("outgoingEdges", null));
+		inDegrees = (DegreeSeries) fields.get("inDegrees", null);
+		outDegrees = (DegreeSeries) fields.get("outDegrees", null);
+	}
+
+	private static LinkedHashMap<EdgePair, Edge> toEdgePairs(LinkedHashMap<VID, EdgeHistory> edges)
+	{
+		LinkedHashMap<EdgePair, Edge> pairs = new LinkedHashMap<EdgePair, Edge>();
+		for (Map.Entry<VID, EdgeHistory> e : edges.entrySet())
+			for (int i = 0; i < e.getValue().size(); i++)
+				pairs.put(new EdgePair(e.getKey(), e.getValue().interval(i)), e.getValue().edge(i));
+		return pairs;
+	}
+
+	private static LinkedHashMap<VID, EdgeHistory> fromEdgePairs(Map<EdgePair, Edge> pairs)
+	{
+		LinkedHashMap<VID, EdgeHistory> edges = new LinkedHashMap<VID, EdgeHistory>();
+		if (pairs != null)
+			for (Map.Entry<EdgePair, Edge> e : pairs.entrySet())
+				history(edges, e.getKey().first()).add(e.getKey().second(), e.getValue());
+		return edges;
+	}
+
+	/**
+	 * Returns the lifespan of this FatNode (from the start of its first change to the end of its last change).
+	 */
+	public Interval lifespan()
+	{
+		long firstInstance = changesLog.get(0).getStart();
+		long lastInstance = changesLog.get(changesLog.size()-1).getEnd(); // We assume that changesLog.size() > 0
+		return new Interval(firstInstance,lastInstance);
 	}
 
 	public boolean isRelevant(Vector<GID> sorted)
 	{
-		int firstInstance = changesLog.get(0).getStart();
-		int lastInstance = changesLog.get(changesLog.size()-1).getEnd(); // We assume that changesLog.size() > 0
-		Interval life = new Interval(firstInstance,lastInstance);
+		Interval life = lifespan();
 		for (GID g : sorted)
-			if (life.stab(Double.valueOf(g.toString()).intValue()))
+			if (life.stab(g.timestamp()))
 				return true;
 		return false;
 	}
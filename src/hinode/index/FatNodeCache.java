@@ -0,0 +1,149 @@
+package hinode.index;
+
+import gstar.data.VID;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A FatNodeCache keeps decoded FatNodes within a budget of (estimated) heap bytes, evicting the least recently used ones
+ * first, so that a vertex looked up repeatedly costs a hash probe instead of reading and decoding its FatNode.
+ *
+ * The cached FatNodes are shared by all readers and must never be modified. A FatNode is invalidated whenever it is
+ * updated. Since a reader decodes a FatNode without holding the lock of this FatNodeCache, it obtains a stamp before
+ * reading and the FatNode is cached only if no FatNode has been invalidated since then.
+ */
+public class FatNodeCache
+{
+	/**
+	 * The maximum number of bytes to cache.
+	 */
+	protected final long capacity;
+
+	/**
+	 * The estimated number of bytes currently cached.
+	 */
+	protected long bytesCached = 0;
+
+	/**
+	 * The number of invalidations so far.
+	 */
+	protected long invalidations = 0;
+
+	/**
+	 * The FatNodes and their estimated sizes in the order of their most recent use.
+	 */
+	protected LinkedHashMap<VID, Entry> nodes = new LinkedHashMap<VID, Entry>(16, 0.75f, true);
+
+	/**
+	 * A cached FatNode and its estimated size.
+	 */
+	protected static class Entry
+	{
+		protected final FatNode node;
+
+		protected final long size;
+
+		protected Entry(FatNode node, long size)
+		{
+			this.node = node;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Constructs a FatNodeCache.
+	 * 
+	 * @param capacity
+	 *            the maximum number of bytes to cache (0 to disable caching).
+	 */
+	public FatNodeCache(long capacity)
+	{
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the cached FatNode of the specified vertex.
+	 * 
+	 * @param id
+	 *            the ID of a vertex.
+	 * @return the cached FatNode of the specified vertex; null if it is not cached.
+	 */
+	public synchronized FatNode get(VID id)
+	{
+		Entry e = nodes.get(id);
+		return e == null ? null : e.node;
+	}
+
+	/**
+	 * Returns a stamp to be passed to {@link #put(FatNode, long)} for a FatNode read after this method returns.
+	 * 
+	 * @return a stamp.
+	 */
+	public synchronized long stamp()
+	{
+		return invalidations;
+	}
+
+	/**
+	 * Caches the specified FatNode unless a FatNode has been invalidated since the specified stamp was obtained.
+	 * 
+	 * @param node
+	 *            a FatNode.
+	 * @param stamp
+	 *            the stamp obtained before the FatNode was read.
+	 */
+	public synchronized void put(FatNode node, long stamp)
+	{
+		if (stamp != invalidations) // the FatNode may be out of date
+			return;
+		long size = node.estimatedSize();
+		if (size > capacity)
+			return;
+		Entry old = nodes.put(node.vertexID(), new Entry(node, size));
+		if (old != null)
+			bytesCached -= old.size;
+		bytesCached += size;
+		Iterator<Map.Entry<VID, Entry>> i = nodes.entrySet().iterator();
+		while (bytesCached > capacity && i.hasNext()) // evict the least recently used FatNodes
+		{
+			bytesCached -= i.next().getValue().size;
+			i.remove();
+		}
+	}
+
+	/**
+	 * Removes the FatNode of the specified vertex because it has been updated.
+	 * 
+	 * @param id
+	 *            the ID of a vertex.
+	 */
+	public synchronized void invalidate(VID id)
+	{
+		invalidations++;
+		Entry e = nodes.remove(id);
+		if (e != null)
+			bytesCached -= e.size;
+	}
+
+	/**
+	 * Removes all of the FatNodes.
+	 */
+	public synchronized void clear()
+	{
+		invalidations++;
+		nodes.clear();
+		bytesCached = 0;
+	}
+
+	/**
+	 * Returns the estimated number of bytes currently cached.
+	 * 
+	 * @return the estimated number of bytes currently cached.
+	 */
+	public synchronized long bytesCached()
+	{
+		return bytesCached;
+	}
+}
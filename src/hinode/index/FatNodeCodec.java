@@ -0,0 +1,511 @@
+package hinode.index;
+
+import gstar.data.Edge;
+import gstar.data.GID;
+import gstar.data.VID;
+import hwanglab.data.storage.RecordCodec;
+import hwanglab.util.Pair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hinode.util.Interval;
+
+/**
+ * A FatNodeCodec stores FatNodes in a compact binary format instead of using Java serialization. Interval starts are
+ * delta-encoded, counts and ids are written as variable-length integers, VIDs are written once per record and then
+ * referenced by number, and attribute values are tagged with their types.
+ */
+public class FatNodeCodec extends RecordCodec
+{
+	/**
+	 * The format byte of the records written by a FatNodeCodec.
+	 */
+	public static final byte FORMAT = 4;
+
+	/**
+	 * The format byte of the records written before strings were prefixed with their lengths in bytes (they were
+	 * written by {@link DataOutput#writeUTF(String)}, which limits them to 64 KB) and before open Intervals were
+	 * told apart from Intervals ending right before their starts. Such records are still read but never written.
+	 */
+	public static final byte FORMAT_WITH_SHORT_STRINGS = 3;
+
+	/**
+	 * The format byte of the records written before the degree series of FatNodes were saved. Such records are still
+	 * read (and the series are rebuilt from the edges when first needed) but never written.
+	 */
+	public static final byte FORMAT_WITHOUT_DEGREES = 2;
+
+	/**
+	 * The format byte of the records written before Intervals kept timestamps (with the integer parts of GID values
+	 * instead). Such records are still read but never written.
+	 */
+	public static final byte LEGACY_FORMAT = 1;
+
+	/**
+	 * The type tags of attribute values.
+	 */
+	static final int NULL = 0, STRING = 1, INTEGER = 2, DOUBLE = 3, LONG = 4, BOOLEAN = 5, VERTEX_ID = 6, GRAPH_ID = 7,
+			SERIALIZED = 8;
+
+	/**
+	 * The character set of strings.
+	 */
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The format byte of the records read by this FatNodeCodec.
+	 */
+	protected final byte format;
+
+	/**
+	 * Constructs a FatNodeCodec that reads and writes records in the current format.
+	 */
+	public FatNodeCodec()
+	{
+		this(FORMAT);
+	}
+
+	/**
+	 * Constructs a FatNodeCodec.
+	 * 
+	 * @param format
+	 *            the format of the records to read ({@link #FORMAT}, or {@link #FORMAT_WITH_SHORT_STRINGS},
+	 *            {@link #FORMAT_WITHOUT_DEGREES} or {@link #LEGACY_FORMAT}, in which case no records are written).
+	 */
+	public FatNodeCodec(byte format)
+	{
+		this.format = format;
+	}
+
+	@Override
+	public byte format()
+	{
+		return format;
+	}
+
+	@Override
+	public boolean accepts(Object o)
+	{
+		return format == FORMAT && o instanceof FatNode;
+	}
+
+	@Override
+	public void write(Object o, DataOutput out) throws IOException
+	{
+		FatNode node = (FatNode) o;
+		writeString(out, node.vertexID().toString());
+		int attributeCount = 0;
+		for (Map.Entry<String, Object> e : node.attributes())
+			if (!e.getKey().equals("id"))
+				attributeCount++;
+		writeVarInt(out, attributeCount);
+		for (Map.Entry<String, Object> e : node.attributes())
+		{
+			if (e.getKey().equals("id"))
+				continue;
+			writeString(out, e.getKey());
+			@SuppressWarnings("unchecked")
+			ArrayList<Pair<Object, Interval>> pairs = (ArrayList<Pair<Object, Interval>>) e.getValue();
+			writeVarInt(out, pairs.size());
+			long previousStart = 0;
+			for (Pair<Object, Interval> pair : pairs)
+			{
+				writeValue(out, pair.first());
+				writeInterval(out, pair.second(), previousStart);
+				previousStart = pair.second().getStart();
+			}
+		}
+		writeVarInt(out, node.changesLog.size());
+		long previousStart = 0;
+		for (Interval i : node.changesLog)
+		{
+			writeInterval(out, i, previousStart);
+			previousStart = i.getStart();
+		}
+		HashMap<VID, Integer> vertexIDs = new HashMap<VID, Integer>();
+		writeEdges(out, node.incomingEdges, vertexIDs);
+		writeEdges(out, node.outgoingEdges, vertexIDs);
+		writeDegrees(out, node.inDegrees());
+		writeDegrees(out, node.outDegrees());
+	}
+
+	@Override
+	public Object read(DataInput in) throws IOException, ClassNotFoundException
+	{
+		FatNode node = new FatNode(new VID(readString(in)));
+		int attributeCount = readVarInt(in);
+		for (int a = 0; a < attributeCount; a++)
+		{
+			String name = readString(in);
+			int size = readVarInt(in);
+			ArrayList<Pair<Object, Interval>> pairs = new ArrayList<Pair<Object, Interval>>(size);
+			long previousStart = 0;
+			for (int i = 0; i < size; i++)
+			{
+				Object value = readValue(in);
+				Interval interval = readInterval(in, previousStart);
+				previousStart = interval.getStart();
+				pairs.add(new Pair<Object, Interval>(value, interval));
+			}
+			node.update(name, pairs);
+		}
+		int size = readVarInt(in);
+		node.changesLog.ensureCapacity(size);
+		long previousStart = 0;
+		for (int i = 0; i < size; i++)
+		{
+			Interval interval = readInterval(in, previousStart);
+			previousStart = interval.getStart();
+			node.changesLog.add(interval);
+		}
+		ArrayList<VID> vertexIDs = new ArrayList<VID>();
+		readEdges(in, node.incomingEdges, vertexIDs);
+		readEdges(in, node.outgoingEdges, vertexIDs);
+		if (format >= FORMAT_WITH_SHORT_STRINGS)
+		{
+			node.inDegrees = readDegrees(in);
+			node.outDegrees = readDegrees(in);
+		}
+		return node;
+	}
+
+	/**
+	 * Writes a DegreeSeries: the number of points and then, for each point, its time instance (encoded relative to the
+	 * previous one like the start of an Interval) and the change of the degree from the previous point.
+	 */
+	static void writeDegrees(DataOutput out, DegreeSeries degrees) throws IOException
+	{
+		writeVarInt(out, degrees.size);
+		long previousInstance = 0;
+		int previousDegree = 0;
+		for (int i = 0; i < degrees.size; i++)
+		{
+			writeInstance(out, degrees.instances[i], previousInstance);
+			writeSignedVarLong(out, degrees.degrees[i] - previousDegree);
+			previousInstance = degrees.instances[i];
+			previousDegree = degrees.degrees[i];
+		}
+	}
+
+	/**
+	 * Reads a DegreeSeries written by {@link #writeDegrees(DataOutput, DegreeSeries)}.
+	 */
+	static DegreeSeries readDegrees(DataInput in) throws IOException
+	{
+		DegreeSeries degrees = new DegreeSeries();
+		long previousInstance = 0;
+		for (int i = readVarInt(in); i > 0; i--)
+		{
+			long instance = readInstance(in, previousInstance);
+			degrees.add(instance, (int) readSignedVarLong(in)); // appended at the end of the series
+			previousInstance = instance;
+		}
+		return degrees;
+	}
+
+	/**
+	 * Writes an Interval whose start is encoded relative to the specified start of the previous Interval. The end is
+	 * written as 0 if the Interval is open, as the number of whole GID values in the Interval plus one (shifted left by
+	 * a bit) if both ends are whole, and as is after a 1 otherwise.
+	 */
+	static void writeInterval(DataOutput out, Interval i, long previousStart) throws IOException
+	{
+		double start = GID.value(i.getStart()), end = GID.value(i.getEnd());
+		writeInstance(out, i.getStart(), previousStart);
+		if (i.getEnd() == Long.MAX_VALUE)
+			writeVarLong(out, 0);
+		else if (isWhole(start) && isWhole(end) && end >= start - 1)
+			writeVarLong(out, ((long) end - (long) start + 2) << 1);
+		else
+		{
+			writeVarLong(out, 1);
+			out.writeLong(i.getEnd());
+		}
+	}
+
+	/**
+	 * Reads an Interval written by {@link #writeInterval(DataOutput, Interval, long)} (or, in the older formats, an
+	 * Interval whose length is not offset by one or, in the legacy format, an Interval of int time instances).
+	 */
+	Interval readInterval(DataInput in, long previousStart) throws IOException
+	{
+		if (format == LEGACY_FORMAT)
+		{
+			int start = (int) (Interval.instance(previousStart) + readSignedVarLong(in));
+			long length = readVarLong(in);
+			return new Interval(Interval.timestamp(start), length == 0 ? Long.MAX_VALUE
+					: Interval.timestamp((int) (start + length - 1)));
+		}
+		long start = readInstance(in, previousStart);
+		long length = readVarLong(in);
+		if (length == 0)
+			return new Interval(start);
+		if ((length & 1) == 0)
+			return new Interval(start, GID.timestamp((long) GID.value(start) + (length >> 1)
+					- (format >= FORMAT ? 2 : 1)));
+		return new Interval(start, in.readLong());
+	}
+
+	/**
+	 * Writes a time instance relative to the specified previous one: the difference between their GID values (shifted
+	 * left by a bit) if both are whole, or a 1 followed by the timestamp itself.
+	 */
+	static void writeInstance(DataOutput out, long instance, long previous) throws IOException
+	{
+		double value = GID.value(instance), previousValue = GID.value(previous);
+		if (isWhole(value) && isWhole(previousValue))
+			writeSignedVarLong(out, ((long) value - (long) previousValue) << 1);
+		else
+		{
+			writeSignedVarLong(out, 1);
+			out.writeLong(instance);
+		}
+	}
+
+	/**
+	 * Reads a time instance written by {@link #writeInstance(DataOutput, long, long)}.
+	 */
+	static long readInstance(DataInput in, long previous) throws IOException
+	{
+		long delta = readSignedVarLong(in);
+		return (delta & 1) == 0 ? GID.timestamp((long) GID.value(previous) + (delta >> 1)) : in.readLong();
+	}
+
+	/**
+	 * Determines whether or not the specified GID value is a whole number small enough to be encoded as a long.
+	 */
+	static boolean isWhole(double value)
+	{
+		return value == Math.rint(value) && Math.abs(value) < 1L << 52;
+	}
+
+	/**
+	 * Writes the versions of the specified edges. Each VID is written once per record and referenced by number
+	 * afterwards.
+	 */
+	static void writeEdges(DataOutput out, Map<VID, EdgeHistory> edges, HashMap<VID, Integer> vertexIDs)
+			throws IOException
+	{
+		int size = 0;
+		for (EdgeHistory h : edges.values())
+			size += h.size();
+		writeVarInt(out, size);
+		long previousStart = 0;
+		for (Map.Entry<VID, EdgeHistory> e : edges.entrySet())
+		{
+			EdgeHistory h = e.getValue();
+			for (int i = 0; i < h.size(); i++)
+			{
+				writeVertexID(out, e.getKey(), vertexIDs);
+				writeInterval(out, h.interval(i), previousStart);
+				previousStart = h.interval(i).getStart();
+				writeEdge(out, h.edge(i), vertexIDs);
+			}
+		}
+	}
+
+	/**
+	 * Reads edges written by {@link #writeEdges(DataOutput, Map, HashMap)}.
+	 */
+	void readEdges(DataInput in, LinkedHashMap<VID, EdgeHistory> edges, ArrayList<VID> vertexIDs) throws IOException,
+			ClassNotFoundException
+	{
+		int size = readVarInt(in);
+		long previousStart = 0;
+		for (int i = 0; i < size; i++)
+		{
+			VID v = readVertexID(in, vertexIDs);
+			Interval interval = readInterval(in, previousStart);
+			previousStart = interval.getStart();
+			FatNode.history(edges, v).add(interval, readEdge(in, vertexIDs));
+		}
+	}
+
+	/**
+	 * Writes an Edge: the VID of its other end, a flag indicating a non-default weight, the weight if so, and the
+	 * other attributes.
+	 */
+	static void writeEdge(DataOutput out, Edge e, HashMap<VID, Integer> vertexIDs) throws IOException
+	{
+		writeVertexID(out, e.otherEnd(), vertexIDs);
+		int attributeCount = 0;
+		for (@SuppressWarnings("unused") Map.Entry<String, Object> a : e.attributes())
+			attributeCount++;
+		boolean weighted = e.weight() != 1.0;
+		writeVarInt(out, (attributeCount << 1) | (weighted ? 1 : 0));
+		if (weighted)
+			out.writeDouble(e.weight());
+		for (Map.Entry<String, Object> a : e.attributes())
+		{
+			writeString(out, a.getKey());
+			writeValue(out, a.getValue());
+		}
+	}
+
+	/**
+	 * Reads an Edge written by {@link #writeEdge(DataOutput, Edge, HashMap)}.
+	 */
+	Edge readEdge(DataInput in, ArrayList<VID> vertexIDs) throws IOException, ClassNotFoundException
+	{
+		Edge e = new Edge(readVertexID(in, vertexIDs));
+		int header = readVarInt(in);
+		if ((header & 1) != 0)
+			e.update("weight", in.readDouble());
+		for (int i = header >>> 1; i > 0; i--)
+		{
+			String name = readString(in);
+			e.update(name, readValue(in));
+		}
+		return e;
+	}
+
+	/**
+	 * Writes a VID as a number referring to a previously written VID, or as 0 followed by the VID itself.
+	 */
+	static void writeVertexID(DataOutput out, VID v, HashMap<VID, Integer> vertexIDs) throws IOException
+	{
+		Integer n = vertexIDs.get(v);
+		if (n != null)
+			writeVarInt(out, n);
+		else
+		{
+			writeVarInt(out, 0);
+			writeString(out, v.toString());
+			vertexIDs.put(v, vertexIDs.size() + 1);
+		}
+	}
+
+	/**
+	 * Reads a VID written by {@link #writeVertexID(DataOutput, VID, HashMap)}.
+	 */
+	VID readVertexID(DataInput in, ArrayList<VID> vertexIDs) throws IOException
+	{
+		int n = readVarInt(in);
+		if (n > 0)
+			return vertexIDs.get(n - 1);
+		VID v = new VID(readString(in));
+		vertexIDs.add(v);
+		return v;
+	}
+
+	/**
+	 * Writes an attribute value preceded by its type tag.
+	 */
+	static void writeValue(DataOutput out, Object value) throws IOException
+	{
+		if (value == null)
+			out.writeByte(NULL);
+		else if (value instanceof String)
+		{
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		}
+		else if (value instanceof Integer)
+		{
+			out.writeByte(INTEGER);
+			writeSignedVarLong(out, (Integer) value);
+		}
+		else if (value instanceof Double)
+		{
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		}
+		else if (value instanceof Long)
+		{
+			out.writeByte(LONG);
+			writeSignedVarLong(out, (Long) value);
+		}
+		else if (value instanceof Boolean)
+		{
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		}
+		else if (value instanceof VID)
+		{
+			out.writeByte(VERTEX_ID);
+			writeString(out, value.toString());
+		}
+		else if (value instanceof GID)
+		{
+			out.writeByte(GRAPH_ID);
+			out.writeDouble(Double.parseDouble(value.toString()));
+		}
+		else
+		{ // any other value falls back to Java serialization
+			ByteArrayOutputStream b = new ByteArrayOutputStream();
+			ObjectOutputStream o = new ObjectOutputStream(b);
+			o.writeObject(value);
+			o.flush();
+			out.writeByte(SERIALIZED);
+			writeVarInt(out, b.size());
+			out.write(b.toByteArray());
+		}
+	}
+
+	/**
+	 * Reads an attribute value written by {@link #writeValue(DataOutput, Object)}.
+	 */
+	Object readValue(DataInput in) throws IOException, ClassNotFoundException
+	{
+		int tag = in.readByte();
+		switch (tag)
+		{
+		case NULL:
+			return null;
+		case STRING:
+			return readString(in);
+		case INTEGER:
+			return (int) readSignedVarLong(in);
+		case DOUBLE:
+			return in.readDouble();
+		case LONG:
+			return readSignedVarLong(in);
+		case BOOLEAN:
+			return in.readBoolean();
+		case VERTEX_ID:
+			return new VID(readString(in));
+		case GRAPH_ID:
+			return new GID(in.readDouble());
+		case SERIALIZED:
+			byte[] b = new byte[readVarInt(in)];
+			in.readFully(b);
+			return new ObjectInputStream(new ByteArrayInputStream(b)).readObject();
+		default:
+			throw new IOException("unknown value type: " + tag);
+		}
+	}
+
+	/**
+	 * Writes a string as the number of bytes in its UTF-8 encoding followed by the bytes.
+	 */
+	static void writeString(DataOutput out, String s) throws IOException
+	{
+		byte[] b = s.getBytes(UTF_8);
+		writeVarInt(out, b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutput, String)} (or, in the older formats, by
+	 * {@link DataOutput#writeUTF(String)}).
+	 */
+	String readString(DataInput in) throws IOException
+	{
+		if (format < FORMAT)
+			return in.readUTF();
+		byte[] b = new byte[readVarInt(in)];
+		in.readFully(b);
+		return new String(b, UTF_8);
+	}
+}
@@ -4,12 +4,28 @@ import gstar.data.GID;
 import gstar.data.VID;
 import hwanglab.data.storage.ObjectLocation;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
-public class FatNodeIndex implements java.io.Serializable 
+import hinode.util.Interval;
+
+/**
+ * A FatNodeIndex keeps all of its entries on the heap and is saved as a whole (using Java serialization) at each
+ * checkpoint.
+ */
+public class FatNodeIndex implements VertexIndex, java.io.Serializable 
 {
 	/**
 	 * Automatically generated serial version UID. 
@@ -25,27 +41,183 @@ public class FatNodeIndex implements java.io.Serializable
 	 * A set of all the versions in the index
 	 */
 	protected Set<GID> versions = new HashSet<GID>();
+
+	/**
+	 * The lifespan of each fat node (from the start of its first change to the end of its last change). A fat node
+	 * has no lifespan if it has not been updated since the index was saved without lifespans.
+	 */
+	protected HashMap<VID, Interval> lifespans = new HashMap<VID, Interval>();
+
+	/**
+	 * The file in which the index is saved.
+	 */
+	protected transient File file;
+
+	/**
+	 * Constructs an empty FatNodeIndex to be saved in the specified file.
+	 */
+	public FatNodeIndex(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Reads the FatNodeIndex saved in the specified file.
+	 * 
+	 * @throws java.io.FileNotFoundException
+	 *             if the file does not exist.
+	 */
+	public static FatNodeIndex read(File file) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+		try
+		{
+			FatNodeIndex index = (FatNodeIndex) in.readObject();
+			index.file = file;
+			return index;
+		} finally
+		{
+			in.close();
+		}
+	}
 	
-	public ObjectLocation getFatNode(VID id)
+	public synchronized ObjectLocation getFatNode(VID id)
 	{
 		return index.get(id);
 	}
 
-	public void put(VID id, ObjectLocation location, GID t) 
+	public synchronized void put(VID id, ObjectLocation location, GID t, Interval lifespan) 
 	{
 		index.put(id, location);
 		versions.add(t);
+		if (lifespans == null) // read from an index saved without lifespans
+			lifespans = new HashMap<VID, Interval>();
+		lifespans.put(id, lifespan);
+	}
+	
+	/**
+	 * Updates the location of the specified fat node after it has been moved on disk.
+	 */
+	public synchronized void relocate(VID id, ObjectLocation location)
+	{
+		index.put(id, location);
 	}
 	
-	public Vector<ObjectLocation> getAllFatNodes()
+	public synchronized Vector<ObjectLocation> getAllFatNodes()
 	{
 		Vector<ObjectLocation> allNodes = new Vector<ObjectLocation>();
 		allNodes.addAll(index.values());
 		return allNodes;
 	}
 	
-	public Set<GID> versionNumbers() 
+	public synchronized Vector<ObjectLocation> getFatNodes(Vector<GID> sorted)
+	{
+		if (lifespans == null)
+			return getAllFatNodes();
+		long[] instances = instances(sorted);
+		Vector<ObjectLocation> nodes = new Vector<ObjectLocation>();
+		for (Map.Entry<VID, ObjectLocation> e : index.entrySet())
+		{
+			Interval lifespan = lifespans.get(e.getKey());
+			if (lifespan == null || isAlive(lifespan, instances))
+				nodes.add(e.getValue());
+		}
+		return nodes;
+	}
+
+	/**
+	 * Scans the entries and sorts the matching ones since they are kept in the order of their insertion.
+	 */
+	public synchronized Vector<ObjectLocation> getFatNodes(VID from, VID to)
+	{
+		Vector<VID> ids = new Vector<VID>();
+		for (VID id : index.keySet())
+			if ((from == null || id.compareTo(from) >= 0) && (to == null || id.compareTo(to) < 0))
+				ids.add(id);
+		Collections.sort(ids);
+		Vector<ObjectLocation> nodes = new Vector<ObjectLocation>();
+		for (VID id : ids)
+			nodes.add(index.get(id));
+		return nodes;
+	}
+
+	public synchronized Vector<VID> vertexIDs()
+	{
+		return new Vector<VID>(index.keySet());
+	}
+
+	/**
+	 * Returns the timestamps of the specified sorted graphs.
+	 */
+	static long[] instances(Vector<GID> sorted)
+	{
+		long[] instances = new long[sorted.size()];
+		for (int i = 0; i < instances.length; i++)
+			instances[i] = sorted.get(i).timestamp();
+		return instances;
+	}
+
+	/**
+	 * Determines whether or not the specified lifespan contains any of the specified sorted time instances.
+	 */
+	static boolean isAlive(Interval lifespan, long[] instances)
+	{
+		int low = 0, high = instances.length - 1;
+		while (low <= high) // find the first time instance at or after the start of the lifespan
+		{
+			int middle = (low + high) >>> 1;
+			if (instances[middle] < lifespan.getStart())
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		return low < instances.length && lifespan.stab(instances[low]);
+	}
+	
+	public synchronized Set<GID> versionNumbers() 
 	{
 		return versions;
 	}
+
+	public synchronized void clear()
+	{
+		index.clear();
+		versions.clear();
+		lifespans = new HashMap<VID, Interval>();
+	}
+
+	/**
+	 * Rewrites the whole index in a temporary file that then replaces the index file, so a crash during a checkpoint
+	 * leaves the previous index intact.
+	 */
+	public synchronized long checkpoint() throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream fout = new FileOutputStream(temp);
+		ObjectOutputStream out = new ObjectOutputStream(fout);
+		try
+		{
+			out.writeObject(this);
+			out.flush();
+			fout.getFD().sync();
+		} finally
+		{
+			out.close();
+		}
+		if (!temp.renameTo(file))
+			throw new IOException("cannot replace " + file);
+		return file.length();
+	}
+
+	public synchronized long size() throws IOException
+	{
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(b);
+		out.writeObject(this);
+		return b.size();
+	}
+
+	public synchronized void close()
+	{
+	}
 }
@@ -0,0 +1,168 @@
+package hinode.index;
+
+import gstar.data.VID;
+import gstar.data.Vertex;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A VertexCache keeps the Vertices materialized from FatNodes within a budget of (estimated) heap bytes, so that a
+ * vertex visited repeatedly within the same interval of its FatNode (e.g., in every superstep of a BSP query) is not
+ * rebuilt each time. The Vertices of each vertex are kept by the starts of their intervals and the vertices are evicted
+ * in the order of their least recent use.
+ *
+ * The cached Vertices are snapshots shared by all readers and must never be modified or handed out as they are (see
+ * {@link Vertex#Vertex(Vertex, gstar.data.GID)}). Like a {@link FatNodeCache}, a VertexCache is invalidated whenever a
+ * FatNode is updated and a snapshot is cached only if no FatNode has been invalidated since its stamp was obtained.
+ */
+public class VertexCache
+{
+	/**
+	 * The maximum number of bytes to cache.
+	 */
+	protected final long capacity;
+
+	/**
+	 * The estimated number of bytes currently cached.
+	 */
+	protected long bytesCached = 0;
+
+	/**
+	 * The number of invalidations so far.
+	 */
+	protected long invalidations = 0;
+
+	/**
+	 * The snapshots of each vertex in the order of their most recent use.
+	 */
+	protected LinkedHashMap<VID, Entry> vertices = new LinkedHashMap<VID, Entry>(16, 0.75f, true);
+
+	/**
+	 * The snapshots of a vertex (keyed by the starts of their intervals) and their estimated size.
+	 */
+	protected static class Entry
+	{
+		protected final HashMap<Long, Vertex> snapshots = new HashMap<Long, Vertex>(4);
+
+		protected long size = 0;
+	}
+
+	/**
+	 * Constructs a VertexCache.
+	 * 
+	 * @param capacity
+	 *            the maximum number of bytes to cache (0 to disable caching).
+	 */
+	public VertexCache(long capacity)
+	{
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the cached snapshot of the specified vertex within the interval starting at the specified timestamp.
+	 * 
+	 * @param id
+	 *            the ID of a vertex.
+	 * @param start
+	 *            the start of an interval of the FatNode of the vertex.
+	 * @return the cached snapshot; null if it is not cached.
+	 */
+	public synchronized Vertex get(VID id, long start)
+	{
+		Entry e = vertices.get(id);
+		return e == null ? null : e.snapshots.get(start);
+	}
+
+	/**
+	 * Returns a stamp to be passed to {@link #put(Vertex, long, long)} for a snapshot built from a FatNode read after
+	 * this method returns.
+	 * 
+	 * @return a stamp; -1 if caching is disabled.
+	 */
+	public synchronized long stamp()
+	{
+		return capacity == 0 ? -1 : invalidations;
+	}
+
+	/**
+	 * Caches the specified snapshot unless a FatNode has been invalidated since the specified stamp was obtained.
+	 * 
+	 * @param snapshot
+	 *            the Vertex that a FatNode represents within one of its intervals.
+	 * @param start
+	 *            the start of the interval.
+	 * @param stamp
+	 *            the stamp obtained before the FatNode was read.
+	 */
+	public synchronized void put(Vertex snapshot, long start, long stamp)
+	{
+		if (stamp != invalidations) // the snapshot may be out of date
+			return;
+		long size = estimatedSize(snapshot);
+		if (size > capacity)
+			return;
+		Entry e = vertices.get(snapshot.vertexID());
+		if (e == null)
+		{
+			e = new Entry();
+			vertices.put(snapshot.vertexID(), e);
+		}
+		Vertex old = e.snapshots.put(start, snapshot);
+		long change = old == null ? size : size - estimatedSize(old);
+		e.size += change;
+		bytesCached += change;
+		Iterator<Map.Entry<VID, Entry>> i = vertices.entrySet().iterator();
+		while (bytesCached > capacity && i.hasNext()) // evict the least recently used vertices
+		{
+			bytesCached -= i.next().getValue().size;
+			i.remove();
+		}
+	}
+
+	/**
+	 * Removes the snapshots of the specified vertex because its FatNode has been updated.
+	 * 
+	 * @param id
+	 *            the ID of a vertex.
+	 */
+	public synchronized void invalidate(VID id)
+	{
+		invalidations++;
+		Entry e = vertices.remove(id);
+		if (e != null)
+			bytesCached -= e.size;
+	}
+
+	/**
+	 * Removes all of the snapshots.
+	 */
+	public synchronized void clear()
+	{
+		invalidations++;
+		vertices.clear();
+		bytesCached = 0;
+	}
+
+	/**
+	 * Returns the estimated number of bytes currently cached.
+	 * 
+	 * @return the estimated number of bytes currently cached.
+	 */
+	public synchronized long bytesCached()
+	{
+		return bytesCached;
+	}
+
+	/**
+	 * Returns a rough estimate of the number of heap bytes occupied by the specified snapshot (the edges themselves are
+	 * shared with the FatNode).
+	 */
+	static long estimatedSize(Vertex snapshot)
+	{
+		return 192 + 48L * snapshot.values().size()
+				+ 40L * (snapshot.incomingEdges.size() + snapshot.outgoingEdges.size());
+	}
+}
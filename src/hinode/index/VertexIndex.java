@@ -0,0 +1,82 @@
+package hinode.index;
+
+import gstar.data.GID;
+import gstar.data.VID;
+import hwanglab.data.storage.ObjectLocation;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.Vector;
+
+import hinode.util.Interval;
+
+/**
+ * A VertexIndex maps the IDs of vertices to the locations of their fat nodes, together with the lifespans of the fat
+ * nodes and the versions (graphs) updated so far. The state of a VertexIndex is saved at each checkpoint of the
+ * GraphManager and the updates made after that are recovered by replaying the WriteAheadLog.
+ */
+public interface VertexIndex
+{
+	/**
+	 * Returns the location of the fat node of the specified vertex (null if there is no such vertex).
+	 */
+	public ObjectLocation getFatNode(VID id) throws IOException;
+
+	/**
+	 * Stores the location and the lifespan of the fat node of the specified vertex, which has been updated at the
+	 * specified version.
+	 */
+	public void put(VID id, ObjectLocation location, GID t, Interval lifespan) throws IOException;
+
+	/**
+	 * Updates the location of the specified fat node after it has been moved on disk.
+	 */
+	public void relocate(VID id, ObjectLocation location) throws IOException;
+
+	/**
+	 * Returns the locations of all of the fat nodes.
+	 */
+	public Vector<ObjectLocation> getAllFatNodes() throws IOException;
+
+	/**
+	 * Returns the locations of the fat nodes alive at any of the specified graphs, so that the other fat nodes need not
+	 * be read. The fat nodes without lifespans are included.
+	 */
+	public Vector<ObjectLocation> getFatNodes(Vector<GID> sorted) throws IOException;
+
+	/**
+	 * Returns the locations of the fat nodes of the vertices whose IDs are at or after from and before to, in the
+	 * order of the IDs (null for an unbounded end).
+	 */
+	public Vector<ObjectLocation> getFatNodes(VID from, VID to) throws IOException;
+
+	/**
+	 * Returns the IDs of all of the vertices.
+	 */
+	public Vector<VID> vertexIDs() throws IOException;
+
+	/**
+	 * Returns the versions updated so far.
+	 */
+	public Set<GID> versionNumbers();
+
+	/**
+	 * Removes all of the entries.
+	 */
+	public void clear() throws IOException;
+
+	/**
+	 * Saves the changes made since the previous checkpoint and returns the size of the saved index in bytes.
+	 */
+	public long checkpoint() throws IOException;
+
+	/**
+	 * Returns the size of the index in bytes.
+	 */
+	public long size() throws IOException;
+
+	/**
+	 * Releases the resources of this VertexIndex (without saving the changes made since the previous checkpoint).
+	 */
+	public void close();
+}
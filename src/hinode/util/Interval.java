@@ -1,58 +1,132 @@
 package hinode.util;
 
+import gstar.data.GID;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+
+/**
+ * An Interval is a half-open range of timestamps (see {@link GID#timestamp()}).
+ */
 public class Interval implements java.io.Serializable 
 {
 	private static final long serialVersionUID = 7172351916261480713L;
-	protected int start;
-	protected int end;
+	protected long start;
+	protected long end;
+
+	/**
+	 * The fields saved by Java serialization. Intervals used to keep the integer parts of GID values as ints, which are
+	 * still saved in "start" and "end" so that Intervals serialized before can be read and vice versa.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("start", int.class), new ObjectStreamField("end", int.class),
+			new ObjectStreamField("startTime", long.class), new ObjectStreamField("endTime", long.class) };
 	
 	public Interval()
 	{
-		start = Integer.MIN_VALUE;
-		end = Integer.MAX_VALUE;
+		start = Long.MIN_VALUE;
+		end = Long.MAX_VALUE;
 	}
 	
-	public Interval(int start)
+	public Interval(long start)
 	{
 		this.start = start;
-		this.end = Integer.MAX_VALUE;
+		this.end = Long.MAX_VALUE;
 	}
 	
-	public Interval(int start, int end)
+	public Interval(long start, long end)
 	{
 		this.start = start;
 		this.end = end;
 	}
 
-	public int getStart() 
+	public long getStart() 
 	{
 		return start;
 	}
 
-	public void setStart(int start) 
+	public void setStart(long start) 
 	{
 		this.start = start;
 	}
 
-	public int getEnd() 
+	public long getEnd() 
 	{
 		return end;
 	}
 
-	public void setEnd(int end) 
+	public void setEnd(long end) 
 	{
 		this.end = end;
 	}
 	
 	// Checks if n is inside the interval
-	public boolean stab (int n)
+	public boolean stab (long n)
 	{
 		return (start <= n) && (n < end) ? true : false;
 	}
+
+	/**
+	 * Returns the timestamp of the specified time instance kept as an int (by Intervals serialized before timestamps).
+	 */
+	public static long timestamp(int instance)
+	{
+		if (instance == Integer.MIN_VALUE)
+			return Long.MIN_VALUE;
+		if (instance == Integer.MAX_VALUE)
+			return Long.MAX_VALUE;
+		return GID.timestamp(instance);
+	}
+
+	/**
+	 * Returns the specified timestamp as an int time instance (the integer part of its GID value).
+	 */
+	public static int instance(long timestamp)
+	{
+		if (timestamp == Long.MIN_VALUE)
+			return Integer.MIN_VALUE;
+		if (timestamp == Long.MAX_VALUE)
+			return Integer.MAX_VALUE;
+		return (int) GID.value(timestamp);
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("start", instance(start));
+		fields.put("end", instance(end));
+		fields.put("startTime", start);
+		fields.put("endTime", end);
+		out.writeFields();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields();
+		if (fields.defaulted("startTime")) // serialized before timestamps
+		{
+			start = timestamp(fields.get("start", Integer.MIN_VALUE));
+			end = timestamp(fields.get("end", Integer.MAX_VALUE));
+		}
+		else
+		{
+			start = fields.get("startTime", Long.MIN_VALUE);
+			end = fields.get("endTime", Long.MAX_VALUE);
+		}
+	}
 	
 	public String toString()
 	{
-		return "[" + start + "," + end + ")";
+		return "[" + toString(start) + "," + toString(end) + ")";
+	}
+
+	private static String toString(long timestamp)
+	{
+		if (timestamp == Long.MIN_VALUE || timestamp == Long.MAX_VALUE)
+			return timestamp < 0 ? "-inf" : "inf";
+		return "" + GID.value(timestamp);
 	}
 
 	/* (non-Javadoc)
@@ -62,8 +136,8 @@ public class Interval implements java.io.Serializable
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + end;
-		result = prime * result + start;
+		result = prime * result + (int) (end ^ (end >>> 32));
+		result = prime * result + (int) (start ^ (start >>> 32));
 		return result;
 	}
 
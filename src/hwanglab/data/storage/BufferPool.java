@@ -0,0 +1,394 @@
+package hwanglab.data.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A BufferPool keeps SlottedPages in memory within a budget of bytes. Looking up a buffered page neither locks nor
+ * reorders anything: it only pins the page, sets its reference bit and records the access in a FrequencySketch.
+ *
+ * Pages are replaced according to the W-TinyLFU policy. A newly buffered page enters a small admission window (1% of
+ * the budget). When the window is full, the CLOCK victim of the window competes with the CLOCK victim of the main
+ * region, and the page that has been accessed less frequently is evicted. A long sequential scan therefore only churns
+ * the window instead of flushing frequently used pages from the main region.
+ *
+ * Pinned pages and dirty pages are never evicted; dirty pages are written to disk by the PurgeThreads of the
+ * DiskStorageManager, which this BufferPool wakes up whenever it finds dirty pages that it would like to evict.
+ */
+public class BufferPool {
+
+	/**
+	 * A Frame holds a buffered SlottedPage together with its reference bit and pin count.
+	 */
+	protected static class Frame {
+
+		/**
+		 * The buffered SlottedPage.
+		 */
+		protected final SlottedPage page;
+
+		/**
+		 * The reference bit of the CLOCK policy.
+		 */
+		protected volatile boolean referenced = true;
+
+		/**
+		 * A flag indicating whether the page is in the admission window or in the main region.
+		 */
+		protected volatile boolean inWindow = true;
+
+		/**
+		 * The number of users of the page; -1 while the page is being evicted.
+		 */
+		protected final AtomicInteger pins = new AtomicInteger();
+
+		/**
+		 * Constructs a Frame.
+		 * 
+		 * @param page
+		 *            the SlottedPage to buffer.
+		 */
+		protected Frame(SlottedPage page) {
+			this.page = page;
+		}
+
+		/**
+		 * Pins this Frame unless it is being evicted.
+		 * 
+		 * @return true if pinned; false if this Frame is being evicted.
+		 */
+		protected boolean pin() {
+			while (true) {
+				int p = pins.get();
+				if (p < 0)
+					return false;
+				if (pins.compareAndSet(p, p + 1)) {
+					referenced = true;
+					return true;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * A Clock is a queue of Frames together with its length, which is kept in a counter since the length of a
+	 * ConcurrentLinkedQueue can only be found by traversing it.
+	 */
+	protected static class Clock {
+
+		/**
+		 * The Frames: the Frame at the head is the next candidate for eviction.
+		 */
+		protected final ConcurrentLinkedQueue<Frame> frames = new ConcurrentLinkedQueue<Frame>();
+
+		/**
+		 * The number of Frames on this Clock (including the Frames no longer buffered, which are dropped when they
+		 * reach the head).
+		 */
+		protected final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * Adds the specified Frame at the tail of this Clock.
+		 * 
+		 * @param f
+		 *            a Frame.
+		 */
+		protected void offer(Frame f) {
+			size.incrementAndGet();
+			frames.offer(f);
+		}
+
+		/**
+		 * Takes the Frame at the head off this Clock.
+		 * 
+		 * @return the Frame at the head of this Clock; null if this Clock is empty.
+		 */
+		protected Frame poll() {
+			Frame f = frames.poll();
+			if (f != null)
+				size.decrementAndGet();
+			return f;
+		}
+
+		/**
+		 * Returns the number of Frames on this Clock.
+		 * 
+		 * @return the number of Frames on this Clock.
+		 */
+		protected int size() {
+			return size.get();
+		}
+
+	}
+
+	/**
+	 * The DiskStorageManager that owns this BufferPool.
+	 */
+	protected final DiskStorageManager storageManager;
+
+	/**
+	 * The maximum number of bytes to buffer.
+	 */
+	protected final long capacity;
+
+	/**
+	 * The maximum number of bytes to buffer in the admission window.
+	 */
+	protected final long windowCapacity;
+
+	/**
+	 * The buffered pages (page ID to Frame).
+	 */
+	protected ConcurrentHashMap<Integer, Frame> frames = new ConcurrentHashMap<Integer, Frame>();
+
+	/**
+	 * The clock of the admission window.
+	 */
+	protected Clock windowClock = new Clock();
+
+	/**
+	 * The clock of the main region.
+	 */
+	protected Clock mainClock = new Clock();
+
+	/**
+	 * The number of bytes buffered in the admission window.
+	 */
+	protected AtomicLong windowBytes = new AtomicLong();
+
+	/**
+	 * The number of bytes buffered in the main region.
+	 */
+	protected AtomicLong mainBytes = new AtomicLong();
+
+	/**
+	 * The estimated access frequencies of the pages.
+	 */
+	protected FrequencySketch sketch;
+
+	/**
+	 * The lock held by the thread that currently evicts pages.
+	 */
+	protected ReentrantLock evictionLock = new ReentrantLock();
+
+	/**
+	 * Constructs a BufferPool.
+	 * 
+	 * @param storageManager
+	 *            the DiskStorageManager that owns the BufferPool.
+	 * @param capacity
+	 *            the maximum number of bytes to buffer.
+	 * @param pageSize
+	 *            the typical size of a page.
+	 */
+	public BufferPool(DiskStorageManager storageManager, long capacity, int pageSize) {
+		this.storageManager = storageManager;
+		this.capacity = capacity;
+		this.windowCapacity = Math.max(capacity / 100, pageSize);
+		this.sketch = new FrequencySketch(capacity / pageSize);
+	}
+
+	/**
+	 * Pins and returns the specified page if it is buffered.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return the pinned SlottedPage; null if the page is not buffered.
+	 */
+	public SlottedPage pin(int pageID) {
+		while (true) {
+			Frame f = frames.get(pageID);
+			if (f == null)
+				return null;
+			if (f.pin()) {
+				sketch.increment(pageID);
+				return f.page;
+			}
+			Thread.yield(); // being evicted; wait until the eviction completes or is undone
+		}
+	}
+
+	/**
+	 * Pins the specified page unless it is being evicted. Unlike {@link #pin(int)}, this method never waits and thus
+	 * can be called while holding a lock that an evicting thread may need.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return false if the page is being evicted; true if the page has been pinned or is not buffered.
+	 */
+	public boolean tryPin(int pageID) {
+		Frame f = frames.get(pageID);
+		return f == null || f.pin();
+	}
+
+	/**
+	 * Buffers and pins the specified SlottedPage. If another thread has buffered the same page in the meantime, that
+	 * page is pinned and returned instead.
+	 * 
+	 * @param page
+	 *            a SlottedPage.
+	 * @return the pinned SlottedPage that is buffered.
+	 */
+	public SlottedPage pin(SlottedPage page) {
+		sketch.increment(page.pageID());
+		Frame f = new Frame(page);
+		f.pins.set(1);
+		while (true) {
+			Frame existing = frames.putIfAbsent(page.pageID(), f);
+			if (existing == null) {
+				windowBytes.addAndGet(page.size());
+				windowClock.offer(f);
+				evict();
+				return page;
+			}
+			if (existing.pin()) {
+				storageManager.release(page); // not buffered
+				return existing.page;
+			}
+			Thread.yield(); // being evicted; wait until the eviction completes or is undone
+		}
+	}
+
+	/**
+	 * Unpins the specified SlottedPage.
+	 * 
+	 * @param page
+	 *            a SlottedPage pinned before (null is ignored).
+	 */
+	public void unpin(SlottedPage page) {
+		if (page == null)
+			return;
+		Frame f = frames.get(page.pageID());
+		if (f != null && f.page == page)
+			f.pins.decrementAndGet();
+	}
+
+	/**
+	 * Determines whether or not the specified page is buffered.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return true if the specified page is buffered; false otherwise.
+	 */
+	public boolean contains(int pageID) {
+		return frames.containsKey(pageID);
+	}
+
+	/**
+	 * Returns the number of buffered bytes.
+	 * 
+	 * @return the number of buffered bytes.
+	 */
+	public long bytesBuffered() {
+		return windowBytes.get() + mainBytes.get();
+	}
+
+	/**
+	 * Evicts pages until the number of buffered bytes no longer exceeds the capacity or no page can be evicted. Only
+	 * one thread evicts pages at a time; the others return immediately.
+	 */
+	protected void evict() {
+		if (bytesBuffered() <= capacity || !evictionLock.tryLock())
+			return;
+		boolean dirtyPagesFound = false;
+		try {
+			int attempts = 2 * frames.size() + 2;
+			while (bytesBuffered() > capacity && attempts-- > 0) {
+				Frame candidate = windowBytes.get() > windowCapacity ? victim(windowClock, true) : null;
+				Frame victim = victim(mainClock, false);
+				if (candidate != null && victim != null) { // the less frequently used page is evicted
+					if (sketch.frequency(candidate.page.pageID()) > sketch.frequency(victim.page.pageID())) {
+						promote(candidate);
+						candidate = null;
+					} else {
+						mainClock.offer(victim);
+						victim = null;
+					}
+				} else if (candidate != null && mainBytes.get() + candidate.page.size() <= capacity - windowCapacity) {
+					promote(candidate); // the main region still has room
+					continue;
+				}
+				Frame f = candidate != null ? candidate : victim;
+				if (f == null)
+					f = victim(windowClock, true); // nothing to evict in the main region
+				if (f == null)
+					break;
+				if (!remove(f)) {
+					(f.inWindow ? windowClock : mainClock).offer(f);
+					dirtyPagesFound |= f.pins.get() == 0;
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+		if (dirtyPagesFound)
+			storageManager.requestPurge();
+	}
+
+	/**
+	 * Finds the next victim on the specified clock. The victim is taken off the clock; the caller must either remove it
+	 * from this BufferPool or put it back on a clock.
+	 * 
+	 * @param clock
+	 *            a clock.
+	 * @param window
+	 *            true if the clock belongs to the admission window; false otherwise.
+	 * @return the next victim on the specified clock; null if every Frame on the clock has been recently referenced or
+	 *         is pinned.
+	 */
+	protected Frame victim(Clock clock, boolean window) {
+		for (int i = 2 * clock.size(); i >= 0; i--) {
+			Frame f = clock.poll();
+			if (f == null)
+				return null;
+			if (frames.get(f.page.pageID()) != f || f.inWindow != window)
+				continue; // no longer buffered (or on the other clock)
+			if (f.referenced) { // second chance
+				f.referenced = false;
+				clock.offer(f);
+			} else if (f.pins.get() != 0) {
+				clock.offer(f);
+			} else
+				return f;
+		}
+		return null;
+	}
+
+	/**
+	 * Moves the specified Frame from the admission window to the main region.
+	 * 
+	 * @param f
+	 *            a Frame taken off the clock of the admission window.
+	 */
+	protected void promote(Frame f) {
+		f.inWindow = false;
+		windowBytes.addAndGet(-f.page.size());
+		mainBytes.addAndGet(f.page.size());
+		mainClock.offer(f);
+	}
+
+	/**
+	 * Removes the specified Frame from this BufferPool unless it is pinned or dirty.
+	 * 
+	 * @param f
+	 *            a Frame taken off its clock.
+	 * @return true if the Frame has been removed; false otherwise.
+	 */
+	protected boolean remove(Frame f) {
+		if (!f.pins.compareAndSet(0, -1))
+			return false;
+		if (storageManager.isDirty(f.page.pageID())) { // must be saved first
+			f.pins.set(0);
+			return false;
+		}
+		frames.remove(f.page.pageID(), f);
+		(f.inWindow ? windowBytes : mainBytes).addAndGet(-f.page.size());
+		storageManager.evicted(f.page);
+		return true;
+	}
+
+}
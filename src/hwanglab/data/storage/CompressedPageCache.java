@@ -0,0 +1,113 @@
+package hwanglab.data.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A CompressedPageCache is the second tier of the buffer of a DiskStorageManager. It keeps the compressed forms of clean
+ * SlottedPages evicted from the BufferPool within a budget of bytes, evicting the least recently used ones first. Since
+ * compressed pages are several times smaller than decompressed ones, the same amount of memory can hold a much larger
+ * part of the data file and pages found here are decompressed instead of being read from disk.
+ *
+ * A page is cached in at most one of the two tiers: it is removed from this CompressedPageCache when it is brought
+ * back into the BufferPool, where it may be updated.
+ */
+public class CompressedPageCache {
+
+	/**
+	 * The maximum number of bytes to cache.
+	 */
+	protected final long capacity;
+
+	/**
+	 * The number of bytes currently cached.
+	 */
+	protected long bytesCached = 0;
+
+	/**
+	 * The compressed pages (page ID to compressed bytes) in the order of their most recent use.
+	 */
+	protected LinkedHashMap<Integer, byte[]> pages = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+
+	/**
+	 * The number of pages found in this CompressedPageCache.
+	 */
+	protected long hits = 0;
+
+	/**
+	 * Constructs a CompressedPageCache.
+	 * 
+	 * @param capacity
+	 *            the maximum number of bytes to cache.
+	 */
+	public CompressedPageCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Caches the compressed form of the specified page, replacing any previous form of the page.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @param compressed
+	 *            the compressed form of the page (null if the page is not compressible).
+	 */
+	public synchronized void put(int pageID, byte[] compressed) {
+		byte[] old = pages.remove(pageID); // a previous form may be out of date
+		if (old != null)
+			bytesCached -= old.length;
+		if (compressed == null || compressed.length > capacity)
+			return;
+		pages.put(pageID, compressed);
+		bytesCached += compressed.length;
+		Iterator<Map.Entry<Integer, byte[]>> i = pages.entrySet().iterator();
+		while (bytesCached > capacity && i.hasNext()) { // evict the least recently used pages
+			bytesCached -= i.next().getValue().length;
+			i.remove();
+		}
+	}
+
+	/**
+	 * Removes the specified page from this CompressedPageCache.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return the compressed form of the page; null if the page is not cached.
+	 */
+	public synchronized byte[] remove(int pageID) {
+		byte[] compressed = pages.remove(pageID);
+		if (compressed != null) {
+			bytesCached -= compressed.length;
+			hits++;
+		}
+		return compressed;
+	}
+
+	/**
+	 * Removes all of the pages from this CompressedPageCache.
+	 */
+	public synchronized void clear() {
+		pages.clear();
+		bytesCached = 0;
+	}
+
+	/**
+	 * Returns the number of bytes currently cached.
+	 * 
+	 * @return the number of bytes currently cached.
+	 */
+	public synchronized long bytesCached() {
+		return bytesCached;
+	}
+
+	/**
+	 * Returns the number of pages found in this CompressedPageCache so far.
+	 * 
+	 * @return the number of pages found in this CompressedPageCache so far.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+}
@@ -0,0 +1,1640 @@
+package hwanglab.data.storage;
+
+import hwanglab.data.storage.SlottedPage.IndexOutofBoundsException;
+import hwanglab.data.storage.SlottedPage.OverFlowException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A DiskStorageManager stores objects in SlottedPages on disk.
+ * 
+ * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
+ * 
+ */
+public class DiskStorageManager implements StorageManager {
+
+	/**
+	 * The number of threads that read pages in the background.
+	 */
+	protected static final int READ_AHEAD_THREADS = 4;
+
+	/**
+	 * The number of pages read ahead of the page being accessed by {@link #getAll(Collection)}.
+	 */
+	protected static final int READ_AHEAD_PAGES = 2 * READ_AHEAD_THREADS;
+
+	/**
+	 * The maximum number of bytes that a run of adjacent dirty pages may occupy to be saved by a single write.
+	 */
+	protected static final int MAX_RUN_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * The format byte of the record that stands for a large object stored in extents (the record lists the locations
+	 * of the extents).
+	 */
+	protected static final byte OVERFLOW = (byte) 0xFE;
+
+	/**
+	 * The format byte of an extent, a record that holds a part of a large object.
+	 */
+	protected static final byte EXTENT = (byte) 0xFD;
+
+	/**
+	 * The random values of the bytes used to find the boundaries of extents (see {@link #extentEnd(byte[], int)}).
+	 */
+	protected static final int[] GEAR = new int[256];
+
+	static {
+		java.util.Random random = new java.util.Random(0x5eed);
+		for (int i = 0; i < GEAR.length; i++)
+			GEAR[i] = random.nextInt();
+	}
+
+	/**
+	 * The RandomAccessFile of the first segment (the only segment unless pages are sharded across multiple files).
+	 */
+	protected RandomAccessFile file;
+
+	/**
+	 * The segments across which the pages are sharded.
+	 */
+	protected Segment[] segments;
+
+	/**
+	 * The default size for SlottedPages.
+	 */
+	protected int defaultPageSize = 64 * 1024;
+
+	/**
+	 * The ID of the next SlottedPage to create.
+	 */
+	protected volatile int nextPageID;
+
+	/**
+	 * The BufferPool that keeps SlottedPages in the memory.
+	 */
+	protected BufferPool bufferPool;
+
+	/**
+	 * The free space of the SlottedPages.
+	 */
+	protected FreeSpaceMap freeSpaceMap;
+
+	/**
+	 * The file in which the FreeSpaceMap is saved at each checkpoint.
+	 */
+	protected File freeSpaceMapFile;
+
+	/**
+	 * The pages being read into the BufferPool (page ID to the object that the threads needing the page wait on).
+	 */
+	protected ConcurrentHashMap<Integer, Object> pagesBeingLoaded = new ConcurrentHashMap<Integer, Object>();
+
+	/**
+	 * The IDs of the pages to read in the background (a negative ID requests shutdown of a ReadAheadThread).
+	 */
+	protected LinkedBlockingQueue<Integer> readAheadRequests = new LinkedBlockingQueue<Integer>();
+
+	/**
+	 * The threads that read pages ahead of scans and batched lookups.
+	 */
+	ReadAheadThread[] readAheadThreads;
+
+	/**
+	 * The number of disk seeks so far.
+	 */
+	protected AtomicLong diskSeeks = new AtomicLong();
+
+	/**
+	 * The ID of the last SlottedPage.
+	 */
+	protected volatile int lastPageID;
+
+	/**
+	 * The lock held while a new SlottedPage is given its ID.
+	 */
+	protected final Object pageCreation = new Object();
+
+	/**
+	 * The size (in bytes) of the buffer for caching the graph data.
+	 */
+	protected long bufferSize;
+
+	/**
+	 * The RecordCodecs used instead of Java serialization for the objects they accept.
+	 */
+	protected ArrayList<RecordCodec> codecs = new ArrayList<RecordCodec>();
+
+	/**
+	 * A flag indicating whether or not pages are saved on disk in the compressed format.
+	 */
+	protected boolean pageCompression = false;
+
+	/**
+	 * The PageArena that provides the buffers of the SlottedPages.
+	 */
+	protected volatile PageArena arena;
+
+	/**
+	 * The second tier of the buffer that keeps evicted pages in the compressed format (null if not used).
+	 */
+	protected volatile CompressedPageCache compressedPages;
+
+	/**
+	 * The WriteAheadLog that records the updates (null if updates are not logged).
+	 */
+	protected volatile WriteAheadLog log;
+
+	/**
+	 * The locations of the relocated objects whose old copies are removed at the next checkpoint. When updates are
+	 * logged, an old copy stored before the most recent checkpoint is kept until the next checkpoint since the
+	 * checkpointed index may still refer to it during recovery.
+	 */
+	protected ArrayList<ObjectLocation> deferredRemovals = new ArrayList<ObjectLocation>();
+
+	/**
+	 * The locations of the objects stored in new slots since the most recent checkpoint.
+	 */
+	protected HashSet<ObjectLocation> createdLocations = new HashSet<ObjectLocation>();
+
+	/**
+	 * A Segment is one of the files across which the pages are sharded: page i is kept in segment i % n at position
+	 * (i / n) * defaultPageSize where n is the number of segments. Each Segment has its own dirty pages, locks and
+	 * PurgeThread, so pages in different segments are read and saved in parallel.
+	 */
+	protected class Segment {
+
+		/**
+		 * The RandomAccessFile of this Segment (also the lock held while its file pointer is used).
+		 */
+		protected final RandomAccessFile file;
+
+		/**
+		 * The SlottedPages of this Segment that are recently updated and thus need to be saved on disk.
+		 */
+		protected LinkedHashMap<Integer, SlottedPage> dirtyPages = new LinkedHashMap<Integer, SlottedPage>();
+
+		/**
+		 * The lock held while a dirty page of this Segment is saved. Pages are saved one at a time (by the PurgeThread
+		 * or at a checkpoint) so that an image of a page taken before an update never overwrites an image taken after
+		 * the update.
+		 */
+		protected final Object purgeLock = new Object();
+
+		/**
+		 * The thread that saves the dirty pages of this Segment on disk.
+		 */
+		protected final PurgeThread purgeThread;
+
+		/**
+		 * Constructs a Segment.
+		 * 
+		 * @param fileName
+		 *            the name of the file of the Segment.
+		 * @throws IOException
+		 *             if an I/O error occurs.
+		 */
+		protected Segment(String fileName) throws IOException {
+			file = new RandomAccessFile(fileName, "rw");
+			purgeThread = new PurgeThread(this);
+			purgeThread.setPriority(Thread.MIN_PRIORITY);
+		}
+
+		/**
+		 * Returns the number of dirty pages in this Segment.
+		 * 
+		 * @return the number of dirty pages in this Segment.
+		 */
+		protected int dirtyPageCount() {
+			synchronized (dirtyPages) {
+				return dirtyPages.size();
+			}
+		}
+
+	}
+
+	/**
+	 * A PurgeThread writes the dirty pages of a segment on the disk.
+	 * 
+	 * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
+	 */
+	protected class PurgeThread extends Thread {
+
+		/**
+		 * The Segment whose dirty pages this PurgeThread saves.
+		 */
+		final Segment segment;
+
+		volatile boolean shutdownRequested = false;
+
+		/**
+		 * A flag indicating whether or not the BufferPool needs dirty pages to be saved.
+		 */
+		volatile boolean purgeRequested = false;
+
+		/**
+		 * Constructs a PurgeThread.
+		 * 
+		 * @param segment
+		 *            the Segment whose dirty pages the PurgeThread saves.
+		 */
+		PurgeThread(Segment segment) {
+			this.segment = segment;
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					// if updates are logged, dirty pages are saved only when needed (lazily and in page order)
+					int dirtyPageCount = segment.dirtyPageCount();
+					if (dirtyPageCount == 0 || log != null && !purgeRequested && !shutdownRequested) {
+						if (dirtyPageCount == 0 && shutdownRequested)
+							return;
+						synchronized (this) {
+							if (!purgeRequested)
+								wait(100); // woken up early if the BufferPool needs dirty pages to be saved
+						}
+						if (log != null)
+							continue;
+					}
+					purgeRequested = false;
+					purgeDirtyPages(segment);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * Shuts down this PurgeThread.
+		 */
+		public void shutdown() {
+			shutdownRequested = true;
+		}
+
+	}
+
+	/**
+	 * A ReadAheadThread loads requested pages into the BufferPool in the background so that reading a page overlaps
+	 * with the processing of the pages before it. Multiple ReadAheadThreads share the requests, so independent pages
+	 * are loaded in parallel as far as {@link #load(int)} allows.
+	 */
+	protected class ReadAheadThread extends Thread {
+
+		public void run() {
+			while (true) {
+				try {
+					int pageID = readAheadRequests.take();
+					if (pageID < 0)
+						return;
+					if (!bufferPool.contains(pageID))
+						bufferPool.unpin(findPage(pageID));
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Constructs a DiskStorageManager.
+	 * 
+	 * @param fileName
+	 *            the name of the RandomAccessFile.
+	 * @param bufferSize
+	 *            the size (in bytes) of the buffer for caching the graph data.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public DiskStorageManager(String fileName, long bufferSize) throws IOException {
+		this(fileName, bufferSize, 1);
+	}
+
+	/**
+	 * Constructs a DiskStorageManager that shards the pages across the specified number of segment files. The first
+	 * segment is the file of the specified name and the others are named by appending their indices to it (e.g.,
+	 * "g.db.1"). If the file already contains data, the existing segments are used regardless of the specified number.
+	 * 
+	 * @param fileName
+	 *            the name of the RandomAccessFile of the first segment.
+	 * @param bufferSize
+	 *            the size (in bytes) of the buffer for caching the graph data.
+	 * @param segmentCount
+	 *            the number of segments for a new file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public DiskStorageManager(String fileName, long bufferSize, int segmentCount) throws IOException {
+		if (new File(fileName).length() > 0) { // use the existing segments
+			segmentCount = 1;
+			while (new File(fileName + "." + segmentCount).exists())
+				segmentCount++;
+		}
+		segments = new Segment[Math.max(segmentCount, 1)];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = new Segment(i == 0 ? fileName : fileName + "." + i);
+		file = segments[0].file;
+		nextPageID = 0;
+		for (int i = 0; i < segments.length; i++) { // the page after the last page of any segment
+			int pages = (int) (segments[i].file.length() / defaultPageSize);
+			if (pages > 0)
+				nextPageID = Math.max(nextPageID, (pages - 1) * segments.length + i + 1);
+		}
+		if (nextPageID > 0) {
+			RandomAccessFile last = segment(nextPageID - 1).file;
+			last.seek(last.length() - 4);
+			lastPageID = last.readInt();
+		} else
+			lastPageID = -1;
+		for (Segment segment : segments)
+			segment.purgeThread.start();
+		readAheadThreads = new ReadAheadThread[READ_AHEAD_THREADS];
+		for (int i = 0; i < readAheadThreads.length; i++) {
+			readAheadThreads[i] = new ReadAheadThread();
+			readAheadThreads[i].setDaemon(true);
+			readAheadThreads[i].start();
+		}
+		this.bufferSize = bufferSize;
+		this.bufferPool = new BufferPool(this, bufferSize, defaultPageSize);
+		this.arena = new PageArena(defaultPageSize, bufferSize, false);
+		freeSpaceMap = new FreeSpaceMap(defaultPageSize);
+		freeSpaceMapFile = new File(fileName + ".fsm");
+		freeSpaceMap.load(freeSpaceMapFile, nextPageID);
+	}
+
+	/**
+	 * Registers the specified RecordCodec so that the objects it accepts are stored in its binary format.
+	 * 
+	 * @param codec
+	 *            a RecordCodec.
+	 */
+	public void register(RecordCodec codec) {
+		if (codec.format() == RecordCodec.JAVA_SERIALIZATION)
+			throw new IllegalArgumentException("format byte reserved for Java serialization");
+		if (codec.format() == OVERFLOW || codec.format() == EXTENT)
+			throw new IllegalArgumentException("format byte reserved for large objects");
+		codecs.add(codec);
+	}
+
+	/**
+	 * Makes this StorageManager follow the write-ahead logging rule for the specified WriteAheadLog: a dirty page is
+	 * saved only after all of the records appended to the WriteAheadLog are on disk. Since lost page updates can then
+	 * be recovered from the WriteAheadLog, dirty pages are saved only when the BufferPool needs room, at checkpoints
+	 * and at shutdown.
+	 * 
+	 * @param log
+	 *            a WriteAheadLog (null to stop following the write-ahead logging rule).
+	 */
+	public void setWriteAheadLog(WriteAheadLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Determines whether or not pages are saved on disk in the compressed format. Pages saved in either format can be
+	 * read regardless of this setting.
+	 * 
+	 * @param pageCompression
+	 *            true to save pages in the compressed format; false otherwise.
+	 */
+	public void setPageCompression(boolean pageCompression) {
+		this.pageCompression = pageCompression;
+	}
+
+	/**
+	 * Determines whether the buffered pages are kept in direct (off-heap) memory or on the heap. Off the heap, the
+	 * buffer neither enlarges the heap nor lengthens garbage collection pauses, however large it is.
+	 * 
+	 * @param offHeap
+	 *            true to keep the buffered pages in direct memory; false to keep them on the heap.
+	 */
+	public void setOffHeap(boolean offHeap) {
+		arena = new PageArena(defaultPageSize, bufferSize, offHeap);
+	}
+
+	/**
+	 * Sets the size of the second tier of the buffer that keeps the pages evicted from the BufferPool in the
+	 * compressed format.
+	 * 
+	 * @param compressedBufferSize
+	 *            the size (in bytes) of the second tier (0 not to use the second tier).
+	 */
+	public void setCompressedBufferSize(long compressedBufferSize) {
+		compressedPages = compressedBufferSize > 0 ? new CompressedPageCache(compressedBufferSize) : null;
+	}
+
+	/**
+	 * Removes all the data.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void clearData() throws IOException {
+		nextPageID = 0;
+		lastPageID = -1;
+		for (Segment segment : segments)
+			segment.file.setLength(0);
+		freeSpaceMap.clear();
+		freeSpaceMapFile.delete();
+		bufferPool = new BufferPool(this, bufferSize, defaultPageSize);
+		arena = new PageArena(defaultPageSize, bufferSize, arena.isDirect()); // the old pages are discarded
+		if (compressedPages != null)
+			compressedPages.clear();
+		for (Segment segment : segments)
+			segment.dirtyPages = new LinkedHashMap<Integer, SlottedPage>();
+		synchronized (deferredRemovals) {
+			deferredRemovals.clear();
+			createdLocations.clear();
+		}
+	}
+
+	/**
+	 * Stores an object in this StorageManager.
+	 * 
+	 * @param location
+	 *            the target location of the object.
+	 * @param object
+	 *            the object to add.
+	 * @return the ObjectLocation at which the object is saved.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ObjectLocation put(ObjectLocation location, Object object) throws IOException {
+		byte[] b = toByteArray(object);
+		if (b.length > extentSize())
+			return putLarge(location, b);
+		int pageID = location.pageID;
+		SlottedPage page = null;
+		ArrayList<ObjectLocation> extents = null; // the extents of the large object replaced (if any)
+		try {
+			page = findPage(pageID);
+			boolean created = location.index >= page.getEntryCount();
+			if (!created)
+				extents = extents(page, location.index);
+			page.put(location.index, b);
+			registerDirtyPage(page);
+			if (created)
+				created(location);
+			return new ObjectLocation(pageID, location.index);
+		} catch (Exception e) {
+			if (page != null && location.index < page.getEntryCount())
+				if (!deferRemoval(location))
+					try {
+						page.remove(location.index);
+						registerDirtyPage(page);
+					} catch (IndexOutofBoundsException e1) {
+					}
+		} finally {
+			bufferPool.unpin(page);
+			if (extents != null)
+				for (ObjectLocation extent : extents)
+					remove(extent);
+		}
+		return store(b, pageID);
+	}
+
+	/**
+	 * Stores a large object as a chain of extents and a small record at a new location that lists the extents. The
+	 * boundaries of the extents depend on the content of the object rather than on offsets, so inserting bytes into the
+	 * object changes only the extents around the insertion. If the object replaces a large object, the extents whose
+	 * content has not changed are shared with the old object and thus are not written again. The old record and the old
+	 * extents that are no longer used are removed like relocated objects, so the old object remains readable at its
+	 * old location until the next checkpoint.
+	 * 
+	 * @param location
+	 *            the location of the object (null for a new object).
+	 * @param b
+	 *            the byte array representing the object.
+	 * @return the ObjectLocation at which the object is saved.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected ObjectLocation putLarge(ObjectLocation location, byte[] b) throws IOException {
+		ArrayList<ObjectLocation> old = null;
+		boolean replaced = false;
+		SlottedPage page = location != null && location.pageID < nextPageID ? findPage(location.pageID) : null;
+		if (page != null)
+			try {
+				replaced = location.index < page.getEntryCount() && page.getObjectSize(location.index) > 0;
+				if (replaced)
+					old = extents(page, location.index);
+			} finally {
+				bufferPool.unpin(page);
+			}
+		HashMap<ByteBuffer, ObjectLocation> unchanged = new HashMap<ByteBuffer, ObjectLocation>();
+		ArrayList<ObjectLocation> unused = new ArrayList<ObjectLocation>();
+		if (old != null)
+			for (ObjectLocation extent : old) {
+				byte[] e = read(extent);
+				ObjectLocation duplicate = e == null ? null : unchanged.put(ByteBuffer.wrap(e), extent);
+				if (duplicate != null)
+					unused.add(duplicate);
+			}
+		ArrayList<ObjectLocation> extents = new ArrayList<ObjectLocation>();
+		ArrayList<byte[]> changed = new ArrayList<byte[]>(); // the extents to write (null for the shared ones)
+		int length = 0; // the number of bytes to write
+		for (int start = 0; start < b.length;) {
+			int end = extentEnd(b, start);
+			byte[] extent = new byte[1 + end - start];
+			extent[0] = EXTENT;
+			System.arraycopy(b, start, extent, 1, end - start);
+			ObjectLocation l = unchanged.remove(ByteBuffer.wrap(extent));
+			extents.add(l);
+			changed.add(l == null ? extent : null);
+			if (l == null)
+				length += extent.length + SlottedPage.INT_SIZE;
+			start = end;
+		}
+		// an update usually changes only the first extent and appends to the last ones, so the extents written and the
+		// new record are appended to a single page (if any has room for them) rather than dirtying a page for each
+		int maxRecordSize = 11 + 10 * extents.size() + SlottedPage.INT_SIZE; // varints of at most 5 bytes
+		int pageID = freeSpaceMap.find(length + maxRecordSize);
+		for (int i = 0; i < extents.size(); i++)
+			if (changed.get(i) != null)
+				extents.set(i, storeExtent(changed.get(i), pageID));
+		byte[] record = overflowRecord(b.length, extents);
+		ObjectLocation head = pageID >= 0 ? add(pageID, record) : null;
+		if (head == null)
+			head = store(record, -1);
+		if (replaced)
+			remove(location);
+		unused.addAll(unchanged.values());
+		for (ObjectLocation extent : unused)
+			remove(extent);
+		return head;
+	}
+
+	/**
+	 * Returns the end of the extent of the specified large object that starts at the specified offset. An extent ends
+	 * where a rolling hash of the preceding bytes matches a pattern (but is at least a sixteenth and at most the whole
+	 * of {@link #extentSize()}).
+	 * 
+	 * @param b
+	 *            the byte array representing a large object.
+	 * @param start
+	 *            the start of an extent.
+	 * @return the end of the extent (exclusive).
+	 */
+	protected int extentEnd(byte[] b, int start) {
+		int maxSize = extentSize();
+		int end = Math.min(b.length, start + maxSize);
+		int hash = 0;
+		for (int i = start + maxSize / 16; i < end; i++) {
+			hash = (hash << 1) + GEAR[b[i] & 0xFF];
+			if ((hash & 0x0FFF0000) == 0) // once every 4 KB on average
+				return i + 1;
+		}
+		return end;
+	}
+
+	/**
+	 * Stores the specified byte array in a page other than the specified one: a page that has room according to the
+	 * FreeSpaceMap, the last page or a new page.
+	 * 
+	 * @param b
+	 *            a byte array.
+	 * @param excludedPageID
+	 *            the ID of the page not to use.
+	 * @return the ObjectLocation at which the byte array is stored.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected ObjectLocation store(byte[] b, int excludedPageID) throws IOException {
+		// leave room in the chosen page so that the fat nodes in it can grow without moving
+		int pageID = freeSpaceMap.find(b.length + SlottedPage.INT_SIZE + defaultPageSize / 4);
+		if (pageID >= 0 && pageID != excludedPageID && pageID != lastPageID) {
+			ObjectLocation location = add(pageID, b);
+			if (location != null)
+				return location;
+		}
+		if (lastPageID >= 0 && lastPageID != excludedPageID) { // try the last page
+			ObjectLocation location = add(lastPageID, b);
+			if (location != null)
+				return location;
+		}
+		return createPage(b);
+	}
+
+	/**
+	 * Adds the specified byte array to the specified page.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @param b
+	 *            a byte array.
+	 * @return the ObjectLocation at which the byte array is stored; null if the page cannot accommodate it.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected ObjectLocation add(int pageID, byte[] b) throws IOException {
+		SlottedPage page = null;
+		try {
+			page = findPage(pageID);
+			int index = page.add(b);
+			registerDirtyPage(page);
+			return created(new ObjectLocation(page.pageID(), index));
+		} catch (OverFlowException e) {
+			updateFreeSpace(page); // the FreeSpaceMap was out of date
+			return null;
+		} finally {
+			bufferPool.unpin(page);
+		}
+	}
+
+	/**
+	 * Moves the object at the specified location to another page. The old copy is removed at the next checkpoint so
+	 * that readers holding the old location can still read the object until then.
+	 * 
+	 * @param location
+	 *            the location of an object.
+	 * @return the new location of the object; null if there is no object at the specified location.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ObjectLocation relocate(ObjectLocation location) throws IOException {
+		byte[] b = read(location);
+		if (b == null || b.length == 0)
+			return null;
+		ObjectLocation newLocation = store(b, location.pageID);
+		synchronized (deferredRemovals) {
+			deferredRemovals.add(location);
+		}
+		return newLocation;
+	}
+
+	/**
+	 * Returns the locations of the objects stored in the specified page.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return the locations of the objects stored in the specified page.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ArrayList<ObjectLocation> locations(int pageID) throws IOException {
+		ArrayList<ObjectLocation> locations = new ArrayList<ObjectLocation>();
+		SlottedPage page = findPage(pageID);
+		if (page != null)
+			try {
+				for (int i = 0; i < page.getEntryCount(); i++)
+					if (page.getObjectSize(i) > 0)
+						locations.add(new ObjectLocation(pageID, i));
+			} finally {
+				bufferPool.unpin(page);
+			}
+		return locations;
+	}
+
+	/**
+	 * Returns the pages that are sparsely used (neither the last page nor pages that are almost empty).
+	 * 
+	 * @param utilization
+	 *            the maximum fraction of a page in use.
+	 * @return the IDs of the pages that are sparsely used.
+	 */
+	public ArrayList<Integer> sparsePages(double utilization) {
+		ArrayList<Integer> pages = new ArrayList<Integer>();
+		int almostEmpty = freeSpaceMap.unit * 255;
+		for (int pageID : freeSpaceMap.pages((int) ((1 - utilization) * defaultPageSize)))
+			if (pageID != lastPageID && freeSpaceMap.freeSpace(pageID) < almostEmpty)
+				pages.add(pageID);
+		return pages;
+	}
+
+	/**
+	 * Records that an object has been stored in a new slot at the specified location (only when updates are logged).
+	 * 
+	 * @param location
+	 *            an ObjectLocation.
+	 * @return the specified ObjectLocation.
+	 */
+	protected ObjectLocation created(ObjectLocation location) {
+		if (log != null)
+			synchronized (deferredRemovals) {
+				createdLocations.add(location);
+			}
+		return location;
+	}
+
+	/**
+	 * Defers the removal of the old copy of a relocated object until the next checkpoint if the checkpointed index may
+	 * refer to that copy.
+	 * 
+	 * @param location
+	 *            the location of the old copy.
+	 * @return true if the removal is deferred; false if the old copy can be removed right away.
+	 */
+	protected boolean deferRemoval(ObjectLocation location) {
+		if (log == null)
+			return false;
+		synchronized (deferredRemovals) {
+			if (createdLocations.contains(location))
+				return false;
+			deferredRemovals.add(location);
+			return true;
+		}
+	}
+
+	/**
+	 * Constructs a new SlottedPage containing the specified the byte array.
+	 * 
+	 * @param b
+	 *            a byte array.
+	 * @return a new SlottedPage containing the specified the byte array.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected ObjectLocation createPage(byte[] b) throws IOException {
+		int size = SlottedPage.size(b, defaultPageSize);
+		if (size > defaultPageSize && segments.length > 1) // a segment has room for a single page at each position
+			throw new IOException("the object does not fit a page of a segmented file");
+		SlottedPage page;
+		synchronized (pageCreation) { // the page is buffered before other threads can see its ID
+			page = new SlottedPage(nextPageID, (int) size, arena);
+			bufferPool.pin(page);
+			lastPageID = nextPageID;
+			nextPageID += size / defaultPageSize;
+		}
+		int index;
+		try {
+			index = page.add(b);
+			registerDirtyPage(page);
+			return created(new ObjectLocation(page.pageID(), index));
+		} catch (OverFlowException e) {
+			e.printStackTrace();
+			System.err.println("cannot happen!");
+			throw new UnsupportedOperationException();
+		} finally {
+			bufferPool.unpin(page);
+		}
+	}
+
+	/**
+	 * Stores an object in this StorageManager. The object is appended to the last page under the latch of the page, so
+	 * threads adding objects at the same time obtain different locations.
+	 * 
+	 * @param object
+	 *            an object.
+	 * @return the ObjectLocation at which the object is stored.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ObjectLocation add(Object object) throws IOException {
+		byte[] b = toByteArray(object);
+		if (b.length > extentSize())
+			return putLarge(null, b);
+		int pageID = lastPageID;
+		ObjectLocation location = pageID >= 0 ? add(pageID, b) : null;
+		return location != null ? location : store(b, pageID);
+	}
+
+	/**
+	 * Returns the object stored at the specified LogicalLocation.
+	 * 
+	 * @param location
+	 *            a ObjectLocation.
+	 * @return the object stored at the specified LogicalLocation.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a relevant class cannot be found.
+	 */
+	public Object get(ObjectLocation location) throws IOException, ClassNotFoundException {
+		if (location == null)
+			return null;
+		if (location.pageID < nextPageID) {
+			SlottedPage page = findPage(location.pageID);
+			if (page != null) {
+				try {
+					return get(page, location.index);
+				} finally {
+					bufferPool.unpin(page);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the objects stored at the specified ObjectLocations. The locations are visited in the order of their
+	 * pages so that each page is accessed only once, and the pages that follow the page being accessed are read in the
+	 * background.
+	 * 
+	 * @param locations
+	 *            ObjectLocations (may contain null).
+	 * @return the objects stored at the specified ObjectLocations in the order of the locations (null for each location
+	 *         that is null or contains no object).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a relevant class cannot be found.
+	 */
+	public ArrayList<Object> getAll(Collection<ObjectLocation> locations) throws IOException, ClassNotFoundException {
+		ArrayList<Object> objects = new ArrayList<Object>(Collections.nCopies(locations.size(), null));
+		TreeMap<ObjectLocation, ArrayList<Integer>> positions = new TreeMap<ObjectLocation, ArrayList<Integer>>();
+		int position = 0;
+		for (ObjectLocation location : locations) {
+			if (location != null && location.pageID < nextPageID) {
+				ArrayList<Integer> p = positions.get(location);
+				if (p == null)
+					positions.put(location, p = new ArrayList<Integer>());
+				p.add(position);
+			}
+			position++;
+		}
+		ArrayList<Integer> pageIDs = new ArrayList<Integer>();
+		for (ObjectLocation l : positions.keySet())
+			if (pageIDs.isEmpty() || pageIDs.get(pageIDs.size() - 1) != l.pageID)
+				pageIDs.add(l.pageID);
+		for (int i = 1; i <= READ_AHEAD_PAGES && i < pageIDs.size(); i++)
+			prefetch(pageIDs.get(i));
+		Iterator<Map.Entry<ObjectLocation, ArrayList<Integer>>> i = positions.entrySet().iterator();
+		Map.Entry<ObjectLocation, ArrayList<Integer>> e = i.hasNext() ? i.next() : null;
+		for (int p = 0; p < pageIDs.size(); p++) {
+			if (p + READ_AHEAD_PAGES < pageIDs.size())
+				prefetch(pageIDs.get(p + READ_AHEAD_PAGES));
+			SlottedPage page = findPage(pageIDs.get(p));
+			if (page == null) { // no longer exists (e.g., the data has been cleared); its objects are left null
+				while (e != null && e.getKey().pageID == pageIDs.get(p))
+					e = i.hasNext() ? i.next() : null;
+				continue;
+			}
+			try {
+				for (; e != null && e.getKey().pageID == page.pageID(); e = i.hasNext() ? i.next() : null) {
+					Object o = get(page, e.getKey().index);
+					for (int j : e.getValue())
+						objects.set(j, o);
+				}
+			} finally {
+				bufferPool.unpin(page);
+			}
+		}
+		return objects;
+	}
+
+	/**
+	 * Returns true since each object returned is decoded from its record.
+	 * 
+	 * @return true.
+	 */
+	public boolean copiesObjects() {
+		return true;
+	}
+
+	/**
+	 * Returns the object stored in the specified slot of the specified SlottedPage.
+	 * 
+	 * @param page
+	 *            a pinned SlottedPage.
+	 * @param index
+	 *            the index within the SlottedPage.
+	 * @return the object stored in the specified slot; null if the slot contains no object or an extent.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a relevant class cannot be found.
+	 */
+	protected Object get(SlottedPage page, int index) throws IOException, ClassNotFoundException {
+		ByteArrayInputStream in = page.get(index);
+		if (in == null || in.available() == 0) // removed objects leave empty slots
+			return null;
+		in.mark(1);
+		byte format = (byte) in.read();
+		if (format == EXTENT) // a part of a large object (read and moved only through the record listing it)
+			return null;
+		if (format != OVERFLOW) {
+			in.reset();
+			return toObject(in);
+		}
+		DataInputStream header = new DataInputStream(in);
+		byte[] b = new byte[RecordCodec.readVarInt(header)];
+		int offset = 0;
+		for (int i = RecordCodec.readVarInt(header); i > 0; i--) {
+			byte[] extent = read(new ObjectLocation(RecordCodec.readVarInt(header), RecordCodec.readVarInt(header)));
+			if (extent == null || extent.length == 0 || extent[0] != EXTENT)
+				throw new IOException("missing extent of a large object");
+			System.arraycopy(extent, 1, b, offset, extent.length - 1);
+			offset += extent.length - 1;
+		}
+		return toObject(new ByteArrayInputStream(b));
+	}
+
+	/**
+	 * Returns the record stored at the specified location.
+	 * 
+	 * @param location
+	 *            an ObjectLocation.
+	 * @return the record stored at the specified location (empty if the slot is empty); null if there is no such slot.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected byte[] read(ObjectLocation location) throws IOException {
+		SlottedPage page = findPage(location.pageID);
+		if (page == null)
+			return null;
+		try {
+			ByteArrayInputStream in = page.get(location.index);
+			if (in == null)
+				return null;
+			byte[] b = new byte[in.available()];
+			in.read(b);
+			return b;
+		} finally {
+			bufferPool.unpin(page);
+		}
+	}
+
+	/**
+	 * Returns the locations of the extents of the large object stored in the specified slot of the specified
+	 * SlottedPage.
+	 * 
+	 * @param page
+	 *            a pinned SlottedPage.
+	 * @param index
+	 *            the index within the SlottedPage.
+	 * @return the locations of the extents of the large object; null if the slot does not contain a large object.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected ArrayList<ObjectLocation> extents(SlottedPage page, int index) throws IOException {
+		ByteArrayInputStream in = page.get(index);
+		if (in == null || in.available() == 0 || (byte) in.read() != OVERFLOW)
+			return null;
+		DataInputStream header = new DataInputStream(in);
+		RecordCodec.readVarInt(header); // the length of the object
+		ArrayList<ObjectLocation> extents = new ArrayList<ObjectLocation>();
+		for (int i = RecordCodec.readVarInt(header); i > 0; i--)
+			extents.add(new ObjectLocation(RecordCodec.readVarInt(header), RecordCodec.readVarInt(header)));
+		return extents;
+	}
+
+	/**
+	 * Stores the specified extent in the specified page or, if that page cannot accommodate it, in a page that has room
+	 * for it according to the FreeSpaceMap (without leaving room for growth since extents never grow) or, if there is
+	 * no such page, as other records are stored.
+	 * 
+	 * @param extent
+	 *            an extent.
+	 * @param pageID
+	 *            the ID of the page to try first (-1 if none).
+	 * @return the ObjectLocation at which the extent is stored.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected ObjectLocation storeExtent(byte[] extent, int pageID) throws IOException {
+		if (pageID >= 0) {
+			ObjectLocation location = add(pageID, extent);
+			if (location != null)
+				return location;
+		}
+		pageID = freeSpaceMap.find(extent.length + SlottedPage.INT_SIZE);
+		if (pageID >= 0) {
+			ObjectLocation location = add(pageID, extent);
+			if (location != null)
+				return location;
+		}
+		return store(extent, -1);
+	}
+
+	/**
+	 * Returns the record that stands for a large object stored in the specified extents.
+	 * 
+	 * @param length
+	 *            the length of the byte array representing the object.
+	 * @param extents
+	 *            the locations of the extents.
+	 * @return the record that stands for a large object stored in the specified extents.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected byte[] overflowRecord(int length, ArrayList<ObjectLocation> extents) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(b);
+		out.writeByte(OVERFLOW);
+		RecordCodec.writeVarInt(out, length);
+		RecordCodec.writeVarInt(out, extents.size());
+		for (ObjectLocation extent : extents) {
+			RecordCodec.writeVarInt(out, extent.pageID);
+			RecordCodec.writeVarInt(out, extent.index);
+		}
+		out.flush();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Returns the number of bytes of a large object that each extent holds. An extent almost fills a page of the
+	 * default size, but still fits in any page that the FreeSpaceMap reports as empty. Objects larger than this are
+	 * stored in extents.
+	 * 
+	 * @return the number of bytes of a large object that each extent holds.
+	 */
+	protected int extentSize() {
+		return defaultPageSize - freeSpaceMap.unit - 8 * SlottedPage.INT_SIZE;
+	}
+
+	/**
+	 * Removes the record at the specified location, deferring the removal until the next checkpoint if the
+	 * checkpointed index may refer to the record.
+	 * 
+	 * @param location
+	 *            an ObjectLocation.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void remove(ObjectLocation location) throws IOException {
+		if (deferRemoval(location))
+			return;
+		SlottedPage page = findPage(location.pageID);
+		if (page == null)
+			return;
+		try {
+			page.remove(location.index);
+			registerDirtyPage(page);
+		} catch (IndexOutofBoundsException e) {
+		} finally {
+			bufferPool.unpin(page);
+		}
+	}
+
+	/**
+	 * Reads an object from the specified stream containing a record.
+	 * 
+	 * @param in
+	 *            a stream containing a record.
+	 * @return the object read from the stream.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a relevant class cannot be found.
+	 */
+	protected Object toObject(ByteArrayInputStream in) throws IOException, ClassNotFoundException {
+		in.mark(1);
+		int format = in.read();
+		if (format < 0 || (byte) format == RecordCodec.JAVA_SERIALIZATION) {
+			in.reset();
+			return new ObjectInputStream(in).readObject();
+		}
+		for (RecordCodec codec : codecs)
+			if (codec.format() == (byte) format)
+				return codec.read(new DataInputStream(in));
+		throw new IOException("unknown record format: " + format);
+	}
+
+	/**
+	 * Returns the size of the disk-resident data.
+	 * 
+	 * @return the size of the disk-resident data.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public long dataSize() throws IOException {
+		long size = 0;
+		for (Segment segment : segments)
+			size += segment.file.length();
+		return size;
+	}
+
+	/**
+	 * Returns the number of disk seeks that this StorageManager has performed.
+	 * 
+	 * @return the number of disk seeks that this StorageManager has performed.
+	 */
+	public long diskSeeks() {
+		return diskSeeks.get();
+	}
+
+	/**
+	 * Returns the actual ratio of the memory-resident data to the disk-resident data.
+	 * 
+	 * @return the actual ratio of the memory-resident data to the disk-resident data.
+	 */
+	public double actualCachingRatio() {
+		return nextPageID > 0 ? 1.0 * bufferPool.bytesBuffered() / defaultPageSize / nextPageID : 0;
+	}
+
+	/**
+	 * Requests that the specified page be read into the BufferPool in the background. This method returns immediately.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 */
+	public void prefetch(int pageID) {
+		if (pageID < nextPageID && !bufferPool.contains(pageID))
+			readAheadRequests.offer(pageID);
+	}
+
+	/**
+	 * Shuts down this StorageManager.
+	 */
+	public synchronized void shutdown() {
+		for (int i = 0; i < readAheadThreads.length; i++)
+			readAheadRequests.offer(-1);
+		for (Segment segment : segments)
+			segment.purgeThread.shutdown(); // shut down the purge threads.
+		for (Segment segment : segments)
+			while (segment.purgeThread.isAlive()) { // wait until all the dirty pages are written to disk.
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+			}
+	}
+
+	/**
+	 * Saves all of the dirty pages and forces them to the disk. The objects whose removal has been deferred are kept,
+	 * so the pages holding their old copies are not changed.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void flush() throws IOException {
+		// the segments are flushed in parallel
+		final IOException[] errors = new IOException[segments.length];
+		Thread[] flushers = new Thread[segments.length];
+		for (int i = 1; i < segments.length; i++) {
+			final Segment segment = segments[i];
+			final int index = i;
+			flushers[i] = new Thread() {
+				public void run() {
+					try {
+						flush(segment);
+					} catch (IOException e) {
+						errors[index] = e;
+					}
+				}
+			};
+			flushers[i].start();
+		}
+		try {
+			flush(segments[0]);
+		} catch (IOException e) {
+			errors[0] = e;
+		}
+		for (int i = 1; i < flushers.length; i++)
+			while (flushers[i].isAlive())
+				try {
+					flushers[i].join();
+				} catch (InterruptedException e) {
+				}
+		for (IOException e : errors)
+			if (e != null)
+				throw e;
+	}
+
+	/**
+	 * Checkpoints this StorageManager by removing the old copies of the objects moved since the previous checkpoint.
+	 * This method must follow {@link #flush()} and the saving of the index that refers to the new copies, since a
+	 * crash before the index is on disk leaves an index that still refers to the old copies.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		ArrayList<ObjectLocation> removals;
+		synchronized (deferredRemovals) {
+			removals = new ArrayList<ObjectLocation>(deferredRemovals);
+			deferredRemovals.clear();
+			createdLocations.clear();
+		}
+		for (ObjectLocation location : removals) {
+			SlottedPage page = findPage(location.pageID);
+			if (page == null) // no longer exists (e.g., the data has been cleared)
+				continue;
+			try {
+				page.remove(location.index);
+				registerDirtyPage(page);
+			} catch (IndexOutofBoundsException e) {
+			} finally {
+				bufferPool.unpin(page);
+			}
+		}
+		flush(); // the pages must be on disk before the WriteAheadLog is truncated
+		freeSpaceMap.save(freeSpaceMapFile);
+	}
+
+	/**
+	 * Saves all the dirty pages of the specified Segment and forces them to the disk.
+	 * 
+	 * @param segment
+	 *            a Segment.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void flush(Segment segment) throws IOException {
+		while (segment.dirtyPageCount() > 0)
+			purgeDirtyPages(segment);
+		segment.file.getChannel().force(false);
+	}
+
+	/**
+	 * Registers the specified SlottedPage as a dirty page.
+	 * 
+	 * @param page
+	 *            a SlottedPage to register as a dirty page.
+	 */
+	protected void registerDirtyPage(SlottedPage page) {
+		Segment segment = segment(page.pageID());
+		synchronized (segment.dirtyPages) {
+			segment.dirtyPages.put(page.pageID(), page);
+		}
+		updateFreeSpace(page);
+	}
+
+	/**
+	 * Records the free space of the specified SlottedPage in the FreeSpaceMap.
+	 * 
+	 * @param page
+	 *            a SlottedPage.
+	 */
+	protected void updateFreeSpace(SlottedPage page) {
+		if (page.size() == defaultPageSize) // larger pages hold a single large object each
+			freeSpaceMap.update(page.pageID(), page.freeSpace());
+	}
+
+	/**
+	 * Determines whether or not the specified SlottedPage needs to be saved on disk.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return true if the specified SlottedPage is dirty; false otherwise.
+	 */
+	protected boolean isDirty(int pageID) {
+		Segment segment = segment(pageID);
+		synchronized (segment.dirtyPages) {
+			return segment.dirtyPages.containsKey(pageID);
+		}
+	}
+
+	/**
+	 * Returns the Segment that keeps the specified SlottedPage.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return the Segment that keeps the specified SlottedPage.
+	 */
+	protected Segment segment(int pageID) {
+		return segments[pageID % segments.length];
+	}
+
+	/**
+	 * Returns the position of the specified SlottedPage within the file of its Segment.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return the position of the specified SlottedPage within the file of its Segment.
+	 */
+	protected long position(int pageID) {
+		return ((long) (pageID / segments.length)) * defaultPageSize;
+	}
+
+	/**
+	 * Wakes up the PurgeThreads so that they save dirty pages without delay.
+	 */
+	protected void requestPurge() {
+		for (Segment segment : segments) {
+			PurgeThread purgeThread = segment.purgeThread;
+			purgeThread.purgeRequested = true;
+			synchronized (purgeThread) {
+				purgeThread.notify();
+			}
+		}
+	}
+
+	/**
+	 * Returns the SlottedPage associated with the specified page ID. The returned page is pinned in the BufferPool
+	 * and thus must be unpinned once it is no longer used.
+	 * 
+	 * @param pageID
+	 *            the ID of the SlottedPage.
+	 * @return the SlottedPage associated with the specified page ID.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected SlottedPage findPage(int pageID) throws IOException {
+		if (pageID < nextPageID) {
+			SlottedPage page = bufferPool.pin(pageID);
+			while (page == null) { // if the page is not in the buffer
+				// only one thread reads a page at a time; otherwise, a copy read before the page is updated, saved
+				// and evicted by other threads could be put in the buffer afterwards
+				Object loading = new Object();
+				Object existing = pagesBeingLoaded.putIfAbsent(pageID, loading);
+				if (existing != null) { // wait until the other thread puts the page in the buffer
+					synchronized (existing) {
+						while (pagesBeingLoaded.get(pageID) == existing)
+							try {
+								existing.wait();
+							} catch (InterruptedException e) {
+								throw new java.io.InterruptedIOException();
+							}
+					}
+					page = bufferPool.pin(pageID);
+					continue;
+				}
+				try {
+					page = bufferPool.pin(pageID); // the page may have been put in the buffer in the meantime
+					if (page == null)
+						page = bufferPool.pin(read(pageID)); // put it in the buffer
+				} finally {
+					synchronized (loading) {
+						pagesBeingLoaded.remove(pageID);
+						loading.notifyAll();
+					}
+				}
+			}
+			return page;
+		}
+		return null; // if there has been no such page
+	}
+
+	/**
+	 * Reads the SlottedPage associated with the specified page ID from the second tier of the buffer or, if not
+	 * found there, from disk.
+	 * 
+	 * @param pageID
+	 *            the ID of the SlottedPage.
+	 * @return the SlottedPage read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected SlottedPage read(int pageID) throws IOException {
+		CompressedPageCache compressedPages = this.compressedPages;
+		byte[] compressed = compressedPages == null ? null : compressedPages.remove(pageID);
+		if (compressed != null) // decompress the page instead of reading it from disk
+			return new SlottedPage(ByteBuffer.wrap(compressed), arena);
+		return load(pageID);
+	}
+
+	/**
+	 * Reads the SlottedPage associated with the specified page ID from disk.
+	 * 
+	 * @param pageID
+	 *            the ID of the SlottedPage.
+	 * @return the SlottedPage read from disk.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected SlottedPage load(int pageID) throws IOException {
+		RandomAccessFile file = segment(pageID).file;
+		synchronized (file) {
+			file.seek(position(pageID)); // seek to the right location in the file
+			diskSeeks.incrementAndGet(); // increment the disk seek counter
+			return new SlottedPage(file, arena);
+		}
+	}
+
+	/**
+	 * Purges the SlottedPages of the specified Segment that are currently dirty in the order of their page IDs. Unless
+	 * pages are compressed, each run of dirty pages that are adjacent on disk is saved by a single gathering write.
+	 * 
+	 * @param segment
+	 *            a Segment.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void purgeDirtyPages(Segment segment) throws IOException {
+		ArrayList<Integer> pageIDs;
+		synchronized (segment.dirtyPages) {
+			pageIDs = new ArrayList<Integer>(segment.dirtyPages.keySet());
+		}
+		Collections.sort(pageIDs);
+		if (pageCompression) { // compressed pages do not fill the space they occupy and are saved one by one
+			for (Integer pageID : pageIDs)
+				purgeDirtyPage(pageID);
+			return;
+		}
+		synchronized (segment.purgeLock) {
+			ArrayList<SlottedPage> run = new ArrayList<SlottedPage>(); // pinned pages not saved yet
+			long runSize = 0;
+			try {
+				for (Integer pageID : pageIDs) {
+					SlottedPage page = takeDirtyPage(pageID);
+					if (page == null)
+						continue;
+					run.add(page);
+					if (run.size() > 1) {
+						SlottedPage last = run.get(run.size() - 2);
+						if (position(last.pageID()) + last.size() != position(pageID)
+								|| runSize + page.size() > MAX_RUN_SIZE) { // not adjacent or the run is long enough
+							List<SlottedPage> saved = run.subList(0, run.size() - 1);
+							save(saved);
+							for (SlottedPage p : saved)
+								bufferPool.unpin(p);
+							saved.clear();
+							runSize = 0;
+						}
+					}
+					runSize += page.size();
+				}
+				save(run);
+			} catch (IOException e) {
+				for (SlottedPage page : run)
+					registerDirtyPage(page);
+				throw e;
+			} finally {
+				for (SlottedPage page : run)
+					bufferPool.unpin(page);
+			}
+		}
+	}
+
+	/**
+	 * Saves the specified run of adjacent dirty pages by a single gathering write. The images of the pages are taken
+	 * under their latches before the WriteAheadLog is forced, so the pages may be modified while being written.
+	 * 
+	 * @param run
+	 *            SlottedPages that are pinned and adjacent on disk (in the order of their page IDs).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void save(List<SlottedPage> run) throws IOException {
+		if (run.isEmpty())
+			return;
+		ByteBuffer[] buffers = new ByteBuffer[3 * run.size()];
+		for (int i = 0; i < run.size(); i++)
+			System.arraycopy(run.get(i).saveBuffers(), 0, buffers, 3 * i, 3);
+		syncLog();
+		int pageID = run.get(0).pageID();
+		write(segment(pageID).file, buffers, position(pageID));
+	}
+
+	/**
+	 * Writes the remaining bytes of the specified buffers to the specified file starting at the specified position.
+	 * 
+	 * @param file
+	 *            the file of a Segment.
+	 * @param buffers
+	 *            the buffers to write.
+	 * @param position
+	 *            the position within the file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void write(RandomAccessFile file, ByteBuffer[] buffers, long position) throws IOException {
+		synchronized (file) {
+			diskSeeks.incrementAndGet(); // increment the disk seek counter (one per run)
+			FileChannel channel = file.getChannel();
+			channel.position(position);
+			while (buffers[buffers.length - 1].hasRemaining())
+				channel.write(buffers);
+		}
+	}
+
+	/**
+	 * Removes the specified page from the dirty pages and pins it so that it is not evicted while being saved.
+	 * 
+	 * @param pageID
+	 *            the ID of a dirty SlottedPage.
+	 * @return the pinned SlottedPage; null if there is no such dirty page or the page is being evicted (in which case
+	 *         the evicting thread will find it dirty and give up, so it can be saved later).
+	 */
+	protected SlottedPage takeDirtyPage(Integer pageID) {
+		LinkedHashMap<Integer, SlottedPage> dirtyPages = segment(pageID).dirtyPages;
+		synchronized (dirtyPages) {
+			SlottedPage page = dirtyPages.get(pageID);
+			if (page == null || !bufferPool.tryPin(pageID))
+				return null;
+			dirtyPages.remove(pageID); // updates made from now on register the page again
+			return page;
+		}
+	}
+
+	/**
+	 * Purges a SlottedPage.
+	 * 
+	 * @param pageID
+	 *            the ID of the SlottedPage to save on the disk.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void purgeDirtyPage(Integer pageID) throws IOException {
+		Segment segment = segment(pageID);
+		synchronized (segment.purgeLock) {
+			if (segment.dirtyPageCount() > 0) {
+				SlottedPage page = takeDirtyPage(pageID);
+				if (page == null)
+					return;
+				try {
+					save(page);
+				} catch (IOException e) {
+					registerDirtyPage(page);
+					throw e;
+				} finally {
+					bufferPool.unpin(page);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the specified SlottedPage on disk.
+	 * 
+	 * @param page
+	 *            a SlottedPage.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void save(SlottedPage page) throws IOException {
+		byte[] compressed = pageCompression ? page.compress() : null;
+		ByteBuffer[] buffers = compressed == null ? page.saveBuffers() : null; // the image is taken under the latch
+		syncLog();
+		RandomAccessFile file = segment(page.pageID()).file;
+		if (buffers != null) {
+			write(file, buffers, position(page.pageID()));
+			return;
+		}
+		synchronized (file) {
+			file.seek(position(page.pageID())); // seek to the right location
+			diskSeeks.incrementAndGet(); // increment the disk seek counter
+			page.save(file, compressed);
+		}
+	}
+
+	/**
+	 * Forces the records appended to the WriteAheadLog so far to the disk. This method is called after the image of a
+	 * page is taken and before it is written, so the records describing all of the updates in the image are on disk
+	 * first.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void syncLog() throws IOException {
+		WriteAheadLog log = this.log;
+		if (log != null)
+			log.sync(log.appendedLSN());
+	}
+
+	/**
+	 * Moves the specified clean SlottedPage, which has just been evicted from the BufferPool, to the second tier of
+	 * the buffer and releases its buffer.
+	 * 
+	 * @param page
+	 *            a SlottedPage evicted from the BufferPool.
+	 */
+	protected void evicted(SlottedPage page) {
+		CompressedPageCache compressedPages = this.compressedPages;
+		if (compressedPages != null)
+			compressedPages.put(page.pageID(), page.compress());
+		release(page);
+	}
+
+	/**
+	 * Makes the buffer of the specified SlottedPage available for other pages.
+	 * 
+	 * @param page
+	 *            a SlottedPage that no thread can access any longer.
+	 */
+	protected void release(SlottedPage page) {
+		arena.release(page.page);
+	}
+
+	/**
+	 * Returns a byte array representing the specified object.
+	 * 
+	 * @param o
+	 *            an object.
+	 * @return a byte array representing the specified object.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected byte[] toByteArray(Object o) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		for (RecordCodec codec : codecs)
+			if (codec.accepts(o)) {
+				DataOutputStream out = new DataOutputStream(b);
+				out.writeByte(codec.format());
+				codec.write(o, out);
+				out.flush();
+				return b.toByteArray();
+			}
+		ObjectOutputStream out = new ObjectOutputStream(b);
+		out.writeObject(o);
+		out.flush();
+		b.flush();
+		return b.toByteArray();
+	}
+
+}
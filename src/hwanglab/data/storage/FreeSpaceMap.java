@@ -0,0 +1,196 @@
+package hwanglab.data.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A FreeSpaceMap keeps track of the free space of each SlottedPage using one byte per page. The byte (category) of a
+ * page represents its free space in units of 1/256 of the default page size. The categories are the leaves of a
+ * complete binary tree whose inner nodes hold the maximum category of their subtrees, so a page with enough room for
+ * a record can be found in time logarithmic in the number of pages.
+ *
+ * The map is only a hint: a page may have less room than its category indicates (e.g., after a crash). Callers must
+ * therefore be prepared for an insertion to fail and report the actual free space of the page afterwards.
+ */
+public class FreeSpaceMap {
+
+	/**
+	 * The number of bytes represented by one category.
+	 */
+	protected final int unit;
+
+	/**
+	 * The number of leaves in the tree (a power of two).
+	 */
+	protected int capacity = 1;
+
+	/**
+	 * The tree (node i has children 2i and 2i+1; the leaf of page p is node capacity+p).
+	 */
+	protected byte[] tree = new byte[2];
+
+	/**
+	 * The number of pages tracked by this FreeSpaceMap.
+	 */
+	protected int pageCount = 0;
+
+	/**
+	 * Constructs a FreeSpaceMap.
+	 * 
+	 * @param pageSize
+	 *            the default size of a SlottedPage.
+	 */
+	public FreeSpaceMap(int pageSize) {
+		this.unit = Math.max(1, pageSize / 256);
+	}
+
+	/**
+	 * Records the free space of the specified page.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @param freeSpace
+	 *            the number of bytes available for an additional object in the page.
+	 */
+	public synchronized void update(int pageID, int freeSpace) {
+		int category = Math.min(255, freeSpace / unit);
+		if (pageID >= capacity) {
+			if (category == 0)
+				return;
+			grow(pageID + 1);
+		}
+		pageCount = Math.max(pageCount, pageID + 1);
+		int node = capacity + pageID;
+		tree[node] = (byte) category;
+		for (node >>>= 1; node > 0; node >>>= 1) {
+			byte max = (byte) Math.max(tree[2 * node] & 0xFF, tree[2 * node + 1] & 0xFF);
+			if (tree[node] == max)
+				break;
+			tree[node] = max;
+		}
+	}
+
+	/**
+	 * Returns the free space recorded for the specified page.
+	 * 
+	 * @param pageID
+	 *            the ID of a SlottedPage.
+	 * @return the free space (a lower bound in bytes) recorded for the specified page.
+	 */
+	public synchronized int freeSpace(int pageID) {
+		return pageID < capacity ? (tree[capacity + pageID] & 0xFF) * unit : 0;
+	}
+
+	/**
+	 * Finds a page that seems to have room for an object of the specified size.
+	 * 
+	 * @param size
+	 *            the number of bytes needed.
+	 * @return the ID of the first page that seems to have room for the object; -1 if there is no such page.
+	 */
+	public synchronized int find(int size) {
+		int category = (size + unit - 1) / unit;
+		if (category > 255 || (tree[1] & 0xFF) < category)
+			return -1;
+		int node = 1;
+		while (node < capacity)
+			node = (tree[2 * node] & 0xFF) >= category ? 2 * node : 2 * node + 1;
+		return node - capacity;
+	}
+
+	/**
+	 * Returns the pages whose free space is at least the specified number of bytes.
+	 * 
+	 * @param freeSpace
+	 *            a number of bytes.
+	 * @return the IDs of the pages whose free space is at least the specified number of bytes.
+	 */
+	public synchronized ArrayList<Integer> pages(int freeSpace) {
+		ArrayList<Integer> pages = new ArrayList<Integer>();
+		int category = Math.min(255, (freeSpace + unit - 1) / unit);
+		for (int p = 0; p < pageCount; p++)
+			if ((tree[capacity + p] & 0xFF) >= category)
+				pages.add(p);
+		return pages;
+	}
+
+	/**
+	 * Removes all of the entries.
+	 */
+	public synchronized void clear() {
+		capacity = 1;
+		tree = new byte[2];
+		pageCount = 0;
+	}
+
+	/**
+	 * Saves this FreeSpaceMap in the specified file (one byte per page).
+	 * 
+	 * @param file
+	 *            a file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void save(File file) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(tree, capacity, pageCount);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads this FreeSpaceMap from the specified file if it exists.
+	 * 
+	 * @param file
+	 *            a file written by {@link #save(File)}.
+	 * @param pageCount
+	 *            the number of pages in the data file (entries beyond this number are ignored).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void load(File file, int pageCount) throws IOException {
+		clear();
+		if (!file.exists())
+			return;
+		byte[] categories = new byte[(int) Math.min(file.length(), pageCount)];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int n = 0;
+			while (n < categories.length) {
+				int r = in.read(categories, n, categories.length - n);
+				if (r < 0)
+					break;
+				n += r;
+			}
+		} finally {
+			in.close();
+		}
+		for (int p = categories.length - 1; p >= 0; p--)
+			update(p, (categories[p] & 0xFF) * unit);
+	}
+
+	/**
+	 * Enlarges the tree so that it can track the specified number of pages.
+	 * 
+	 * @param pages
+	 *            a number of pages.
+	 */
+	protected void grow(int pages) {
+		int newCapacity = capacity;
+		while (newCapacity < pages)
+			newCapacity <<= 1;
+		byte[] newTree = new byte[2 * newCapacity];
+		System.arraycopy(tree, capacity, newTree, newCapacity, capacity);
+		for (int node = newCapacity - 1; node > 0; node--)
+			newTree[node] = (byte) Math.max(newTree[2 * node] & 0xFF, newTree[2 * node + 1] & 0xFF);
+		tree = newTree;
+		capacity = newCapacity;
+	}
+
+}
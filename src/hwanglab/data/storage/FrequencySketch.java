@@ -0,0 +1,137 @@
+package hwanglab.data.storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A FrequencySketch estimates how often each page has been accessed recently. It is a count-min sketch of 4-bit
+ * counters (16 counters per long) with four hash functions. Once the number of recorded accesses reaches ten times the
+ * number of counters per row, all counters are halved so that the estimates favor recent accesses.
+ */
+public class FrequencySketch {
+
+	/**
+	 * The seeds of the hash functions.
+	 */
+	protected static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+			0xcbf29ce484222325L };
+
+	/**
+	 * The counters.
+	 */
+	protected AtomicLongArray table;
+
+	/**
+	 * The mask for selecting a long from the table.
+	 */
+	protected int tableMask;
+
+	/**
+	 * The number of accesses recorded since the counters were halved the last time.
+	 */
+	protected AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * The number of accesses after which the counters are halved.
+	 */
+	protected int sampleSize;
+
+	/**
+	 * Constructs a FrequencySketch.
+	 * 
+	 * @param expectedEntries
+	 *            the expected number of distinct pages that may be buffered at the same time.
+	 */
+	public FrequencySketch(long expectedEntries) {
+		int length = Integer.highestOneBit((int) Math.max(16, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+		table = new AtomicLongArray(length);
+		tableMask = length - 1;
+		sampleSize = 10 * length;
+	}
+
+	/**
+	 * Records an access to the specified page.
+	 * 
+	 * @param pageID
+	 *            the ID of a page.
+	 */
+	public void increment(int pageID) {
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int index = index(pageID, i);
+			int shift = offset(pageID, i) << 2;
+			long mask = 0xfL << shift;
+			while (true) {
+				long current = table.get(index);
+				if ((current & mask) == mask) // saturated
+					break;
+				if (table.compareAndSet(index, current, current + (1L << shift))) {
+					added = true;
+					break;
+				}
+			}
+		}
+		if (added && size.incrementAndGet() >= sampleSize)
+			reset();
+	}
+
+	/**
+	 * Returns the estimated number of recent accesses to the specified page.
+	 * 
+	 * @param pageID
+	 *            the ID of a page.
+	 * @return the estimated number of recent accesses to the specified page (at most 15).
+	 */
+	public int frequency(int pageID) {
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int count = (int) ((table.get(index(pageID, i)) >>> (offset(pageID, i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Halves all of the counters.
+	 */
+	protected void reset() {
+		size.set(0);
+		for (int i = 0; i < table.length(); i++) {
+			while (true) {
+				long current = table.get(i);
+				if (table.compareAndSet(i, current, (current >>> 1) & 0x7777777777777777L))
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the long that contains the counter of the specified page for the specified hash function.
+	 * 
+	 * @param pageID
+	 *            the ID of a page.
+	 * @param i
+	 *            the number of a hash function.
+	 * @return the index of the long that contains the counter.
+	 */
+	protected int index(int pageID, int i) {
+		long h = (pageID + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return ((int) h) & tableMask;
+	}
+
+	/**
+	 * Returns the position of the counter of the specified page within its long for the specified hash function.
+	 * 
+	 * @param pageID
+	 *            the ID of a page.
+	 * @param i
+	 *            the number of a hash function.
+	 * @return the position (0 to 15) of the counter within its long.
+	 */
+	protected int offset(int pageID, int i) {
+		long h = (pageID ^ SEEDS[i]) * 0x9e3779b97f4a7c15L;
+		return (int) (h >>> 60);
+	}
+
+}
@@ -0,0 +1,167 @@
+package hwanglab.data.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A MappedStorageManager is a DiskStorageManager that accesses its file through memory-mapped regions and positional
+ * FileChannel operations instead of seeking a shared RandomAccessFile. Pages can therefore be read concurrently by
+ * multiple threads. The file layout is identical to that of a DiskStorageManager with a single segment.
+ */
+public class MappedStorageManager extends DiskStorageManager {
+
+	/**
+	 * The size of each memory-mapped region of the file.
+	 */
+	protected static final int REGION_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The FileChannel of the file.
+	 */
+	protected FileChannel channel;
+
+	/**
+	 * The memory-mapped regions of the file (region number to mapped buffer).
+	 */
+	protected ConcurrentHashMap<Integer, MappedByteBuffer> regions = new ConcurrentHashMap<Integer, MappedByteBuffer>();
+
+	/**
+	 * Constructs a MappedStorageManager.
+	 * 
+	 * @param fileName
+	 *            the name of the file.
+	 * @param bufferSize
+	 *            the size (in bytes) of the buffer for caching the graph data.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public MappedStorageManager(String fileName, long bufferSize) throws IOException {
+		super(fileName, bufferSize);
+		if (segments.length > 1) {
+			shutdown();
+			throw new IOException("memory-mapped storage does not support segmented files");
+		}
+		channel = file.getChannel();
+	}
+
+	@Override
+	public synchronized void clearData() throws IOException {
+		regions.clear(); // the mapped regions must not be used once the file is truncated
+		super.clearData();
+	}
+
+	@Override
+	protected SlottedPage load(int pageID) throws IOException {
+		long position = ((long) pageID) * defaultPageSize;
+		diskSeeks.incrementAndGet(); // increment the disk seek counter (a page fault at most)
+		ByteBuffer region = region(position, SlottedPage.COMPRESSED_HEADER_SIZE);
+		if (region != null) {
+			int offset = (int) (position % REGION_SIZE);
+			region = region(position, SlottedPage.savedSize(region, offset));
+			if (region != null) {
+				region.position(offset);
+				return new SlottedPage(region, arena);
+			}
+		}
+		// the page spans multiple regions or is beyond the mapped part of the file
+		ByteBuffer header = ByteBuffer.allocate(SlottedPage.COMPRESSED_HEADER_SIZE);
+		read(header, position);
+		ByteBuffer b = ByteBuffer.allocate(SlottedPage.savedSize(header, 0));
+		read(b, position);
+		return new SlottedPage(b, arena);
+	}
+
+	@Override
+	public void save(SlottedPage page) throws IOException {
+		byte[] compressed = pageCompression ? page.compress() : null;
+		ByteBuffer b;
+		if (compressed != null)
+			b = ByteBuffer.wrap(compressed);
+		else {
+			b = ByteBuffer.allocate((int) page.size());
+			page.save(b);
+			b.flip();
+		}
+		syncLog(); // the image has been taken, so the records describing its updates go to disk first
+		long position = ((long) page.pageID()) * defaultPageSize;
+		diskSeeks.incrementAndGet(); // increment the disk seek counter
+		write(b, position);
+		if (compressed != null) { // the page ID also goes at the end of the space that the page occupies
+			ByteBuffer pageID = ByteBuffer.allocate(SlottedPage.INT_SIZE);
+			pageID.putInt(0, page.pageID());
+			write(pageID, position + page.size() - SlottedPage.INT_SIZE);
+		}
+	}
+
+	/**
+	 * Returns a view of the memory-mapped region that contains the specified range of the file.
+	 * 
+	 * @param position
+	 *            the start of the range within the file.
+	 * @param length
+	 *            the length of the range.
+	 * @return a view of the region containing the specified range; null if the range spans multiple regions or lies
+	 *         beyond the end of the file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected ByteBuffer region(long position, int length) throws IOException {
+		int r = (int) (position / REGION_SIZE);
+		long regionStart = ((long) r) * REGION_SIZE;
+		long end = position - regionStart + length;
+		if (end > REGION_SIZE)
+			return null;
+		MappedByteBuffer region = regions.get(r);
+		if (region == null || region.capacity() < end) { // if not mapped yet or the file has grown since mapping
+			synchronized (regions) {
+				region = regions.get(r);
+				if (region == null || region.capacity() < end) {
+					long size = Math.min(REGION_SIZE, channel.size() - regionStart);
+					if (size < end)
+						return null;
+					region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size);
+					regions.put(r, region);
+				}
+			}
+		}
+		return region.duplicate(); // each reader gets its own position
+	}
+
+	/**
+	 * Writes the remaining bytes of the specified buffer to the file starting at the specified position.
+	 * 
+	 * @param b
+	 *            the buffer to write.
+	 * @param position
+	 *            the position within the file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void write(ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining())
+			position += channel.write(b, position);
+	}
+
+	/**
+	 * Fills the specified buffer with the data in the file starting at the specified position.
+	 * 
+	 * @param b
+	 *            the buffer to fill.
+	 * @param position
+	 *            the position within the file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void read(ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			int n = channel.read(b, position + b.position());
+			if (n < 0)
+				throw new java.io.EOFException();
+		}
+		b.flip();
+	}
+
+}
@@ -0,0 +1,310 @@
+package hwanglab.data.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A MemoryStorageManager keeps the objects themselves in a concurrent hash map, so objects are neither encoded in pages
+ * nor serialized when they are stored or retrieved. Since {@link #get(ObjectLocation)} returns the stored instance, an
+ * object must not be modified once it is stored. The objects are saved in a snapshot file only at checkpoints and read
+ * back when a MemoryStorageManager is constructed, so the data survives restarts together with the index and the
+ * WriteAheadLog.
+ */
+public class MemoryStorageManager implements StorageManager {
+
+	/**
+	 * The number of consecutive locations grouped into a page (so that callers visiting locations page by page still
+	 * see pages of a reasonable size).
+	 */
+	protected static final int OBJECTS_PER_PAGE = 256;
+
+	/**
+	 * The objects (location to object).
+	 */
+	protected ConcurrentHashMap<ObjectLocation, Object> objects = new ConcurrentHashMap<ObjectLocation, Object>();
+
+	/**
+	 * The number of the next location to assign (pageID * OBJECTS_PER_PAGE + index).
+	 */
+	protected AtomicInteger nextLocation = new AtomicInteger();
+
+	/**
+	 * The snapshot file.
+	 */
+	protected File file;
+
+	/**
+	 * Constructs a MemoryStorageManager.
+	 * 
+	 * @param fileName
+	 *            the name of the snapshot file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public MemoryStorageManager(String fileName) throws IOException {
+		file = new File(fileName);
+		if (file.length() > 0)
+			load();
+	}
+
+	/**
+	 * Does nothing since the objects are saved only at checkpoints, when the WriteAheadLog is truncated anyway.
+	 * 
+	 * @param log
+	 *            a WriteAheadLog.
+	 */
+	public void setWriteAheadLog(WriteAheadLog log) {
+	}
+
+	/**
+	 * Removes all the data.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void clearData() throws IOException {
+		objects.clear();
+		nextLocation.set(0);
+		file.delete();
+	}
+
+	/**
+	 * Stores an object in this MemoryStorageManager.
+	 * 
+	 * @param location
+	 *            the target location of the object.
+	 * @param object
+	 *            the object to add.
+	 * @return the ObjectLocation at which the object is saved (always the target location).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ObjectLocation put(ObjectLocation location, Object object) throws IOException {
+		int n = location.pageID * OBJECTS_PER_PAGE + location.index;
+		for (int next = nextLocation.get(); n >= next; next = nextLocation.get()) // the location may not be assigned yet
+			if (nextLocation.compareAndSet(next, n + 1))
+				break;
+		objects.put(location, object);
+		return location;
+	}
+
+	/**
+	 * Returns the specified location since objects are not kept in pages.
+	 * 
+	 * @param location
+	 *            the location of an object.
+	 * @return the specified location; null if there is no object at the specified location.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ObjectLocation relocate(ObjectLocation location) throws IOException {
+		return objects.containsKey(location) ? location : null;
+	}
+
+	/**
+	 * Returns the locations of the objects stored in the specified page.
+	 * 
+	 * @param pageID
+	 *            the ID of a page.
+	 * @return the locations of the objects stored in the specified page.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ArrayList<ObjectLocation> locations(int pageID) throws IOException {
+		ArrayList<ObjectLocation> locations = new ArrayList<ObjectLocation>();
+		for (int i = 0; i < OBJECTS_PER_PAGE; i++) {
+			ObjectLocation location = new ObjectLocation(pageID, i);
+			if (objects.containsKey(location))
+				locations.add(location);
+		}
+		return locations;
+	}
+
+	/**
+	 * Returns no pages since there is no space to reclaim.
+	 * 
+	 * @param utilization
+	 *            the maximum fraction of a page in use.
+	 * @return an empty list.
+	 */
+	public ArrayList<Integer> sparsePages(double utilization) {
+		return new ArrayList<Integer>();
+	}
+
+	/**
+	 * Stores an object in this MemoryStorageManager.
+	 * 
+	 * @param object
+	 *            an object.
+	 * @return the ObjectLocation at which the object is stored.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ObjectLocation add(Object object) throws IOException {
+		int n = nextLocation.getAndIncrement();
+		ObjectLocation location = new ObjectLocation(n / OBJECTS_PER_PAGE, n % OBJECTS_PER_PAGE);
+		objects.put(location, object);
+		return location;
+	}
+
+	/**
+	 * Returns the object stored at the specified ObjectLocation. The returned object is the stored instance and thus
+	 * must not be modified.
+	 * 
+	 * @param location
+	 *            an ObjectLocation.
+	 * @return the object stored at the specified ObjectLocation.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a relevant class cannot be found.
+	 */
+	public Object get(ObjectLocation location) throws IOException, ClassNotFoundException {
+		return location == null ? null : objects.get(location);
+	}
+
+	/**
+	 * Returns the objects stored at the specified ObjectLocations.
+	 * 
+	 * @param locations
+	 *            ObjectLocations (may contain null).
+	 * @return the objects stored at the specified ObjectLocations in the order of the locations (null for each location
+	 *         that is null or contains no object).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a relevant class cannot be found.
+	 */
+	public ArrayList<Object> getAll(Collection<ObjectLocation> locations) throws IOException, ClassNotFoundException {
+		ArrayList<Object> result = new ArrayList<Object>(locations.size());
+		for (ObjectLocation location : locations)
+			result.add(get(location));
+		return result;
+	}
+
+	/**
+	 * Returns false since the stored instances are returned.
+	 * 
+	 * @return false.
+	 */
+	public boolean copiesObjects() {
+		return false;
+	}
+
+	/**
+	 * Returns the size of the snapshot file.
+	 * 
+	 * @return the size of the snapshot file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public long dataSize() throws IOException {
+		return file.length();
+	}
+
+	/**
+	 * Returns 0 since objects are never read from disk.
+	 * 
+	 * @return 0.
+	 */
+	public long diskSeeks() {
+		return 0;
+	}
+
+	/**
+	 * Returns 1 since all of the data is memory-resident.
+	 * 
+	 * @return 1.
+	 */
+	public double actualCachingRatio() {
+		return 1;
+	}
+
+	/**
+	 * Does nothing since all of the pages are in memory.
+	 * 
+	 * @param pageID
+	 *            the ID of a page.
+	 */
+	public void prefetch(int pageID) {
+	}
+
+	/**
+	 * Shuts down this MemoryStorageManager. The objects stored since the most recent checkpoint are discarded (they
+	 * are recovered from the WriteAheadLog).
+	 */
+	public void shutdown() {
+	}
+
+	/**
+	 * Saves all of the objects in the snapshot file. The snapshot is written to a temporary file first and then
+	 * replaces the previous snapshot, so a crash during a checkpoint leaves the previous snapshot intact.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void flush() throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream fout = new FileOutputStream(temp);
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fout));
+		try {
+			out.writeInt(nextLocation.get());
+			out.writeInt(objects.size());
+			for (Map.Entry<ObjectLocation, Object> e : objects.entrySet()) {
+				out.writeInt(e.getKey().pageID);
+				out.writeInt(e.getKey().index);
+				out.writeObject(e.getValue());
+				out.reset(); // the objects share nothing, so the stream need not remember them
+			}
+			out.flush();
+			fout.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file))
+			throw new IOException("cannot replace " + file);
+	}
+
+	/**
+	 * Checkpoints this MemoryStorageManager. No removal is deferred since objects are never moved, so the snapshot
+	 * saved by {@link #flush()} already completes the checkpoint.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void checkpoint() throws IOException {
+	}
+
+	/**
+	 * Reads the objects from the snapshot file.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void load() throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			nextLocation.set(in.readInt());
+			for (int i = in.readInt(); i > 0; i--) {
+				ObjectLocation location = new ObjectLocation(in.readInt(), in.readInt());
+				objects.put(location, in.readObject());
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException("cannot read " + file + ": " + e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -9,7 +9,12 @@ import java.io.ObjectOutput;
  * 
  * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
  */
-public class ObjectLocation implements java.io.Externalizable {
+public class ObjectLocation implements java.io.Externalizable, Comparable<ObjectLocation> {
+
+	/**
+	 * The serial version UID.
+	 */
+	private static final long serialVersionUID = 1815088752940677907L;
 
 	/**
 	 * The ID of the SlottedPage containing the object.
@@ -29,7 +34,7 @@ public class ObjectLocation implements java.io.Externalizable {
 	 * @param index
 	 *            the index within the SlottedPage.
 	 */
-	protected ObjectLocation(int pageID, int index) {
+	public ObjectLocation(int pageID, int index) {
 		this.pageID = pageID;
 		this.index = index;
 	}
@@ -55,11 +60,54 @@ public class ObjectLocation implements java.io.Externalizable {
 		readExternal(in);
 	}
 
+	/**
+	 * Returns the ID of the SlottedPage containing the object.
+	 * 
+	 * @return the ID of the SlottedPage containing the object.
+	 */
+	public int pageID() {
+		return pageID;
+	}
+
+	/**
+	 * Returns the index within the SlottedPage.
+	 * 
+	 * @return the index within the SlottedPage.
+	 */
+	public int index() {
+		return index;
+	}
+
+	/**
+	 * Compares this ObjectLocation with the specified ObjectLocation by page ID and then by index (i.e., in the order of
+	 * the objects on disk).
+	 */
+	@Override
+	public int compareTo(ObjectLocation other) {
+		if (pageID != other.pageID)
+			return pageID < other.pageID ? -1 : 1;
+		return index < other.index ? -1 : (index == other.index ? 0 : 1);
+	}
+
 	@Override
 	public String toString() {
 		return pageID + ":" + index;
 	}
 
+	@Override
+	public int hashCode() {
+		return 31 * pageID + index;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other instanceof ObjectLocation) {
+			ObjectLocation l = (ObjectLocation) other;
+			return pageID == l.pageID && index == l.index;
+		}
+		return false;
+	}
+
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		pageID = in.readInt();
@@ -0,0 +1,113 @@
+package hwanglab.data.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A PageArena provides the buffers of SlottedPages. A direct PageArena carves the buffers of SlottedPages of the
+ * default size out of large chunks of direct (off-heap) memory and recycles the buffers of evicted pages, so the
+ * buffered pages neither occupy the heap nor need to be traced or reclaimed by the garbage collector. A heap PageArena
+ * simply allocates a heap buffer for each SlottedPage.
+ *
+ * A buffer must be released only once and only when no thread can access the SlottedPage that used it.
+ */
+public class PageArena {
+
+	/**
+	 * The maximum size of a chunk of direct memory.
+	 */
+	protected static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The length of the buffer of a SlottedPage of the default size.
+	 */
+	protected final int pageLength;
+
+	/**
+	 * A flag indicating whether or not the buffers are allocated in direct memory.
+	 */
+	protected final boolean direct;
+
+	/**
+	 * The size of each chunk of direct memory (a multiple of the length of a buffer).
+	 */
+	protected final int chunkSize;
+
+	/**
+	 * The chunk from which new buffers are carved.
+	 */
+	protected ByteBuffer chunk;
+
+	/**
+	 * The released buffers that can be reused.
+	 */
+	protected ConcurrentLinkedQueue<ByteBuffer> released = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * Constructs a PageArena.
+	 * 
+	 * @param pageSize
+	 *            the default size of a SlottedPage.
+	 * @param capacity
+	 *            the number of bytes that the BufferPool using this PageArena may buffer.
+	 * @param direct
+	 *            true to allocate the buffers in direct memory; false to allocate them on the heap.
+	 */
+	public PageArena(int pageSize, long capacity, boolean direct) {
+		this.pageLength = pageSize - 2 * SlottedPage.INT_SIZE;
+		this.direct = direct;
+		long pages = Math.max(1, Math.min(capacity / 16, MAX_CHUNK_SIZE) / pageLength);
+		this.chunkSize = (int) (pages * pageLength);
+	}
+
+	/**
+	 * Returns a buffer of the specified length.
+	 * 
+	 * @param length
+	 *            the length of the buffer.
+	 * @return a buffer of the specified length (its content is undefined).
+	 */
+	public ByteBuffer allocate(int length) {
+		if (!direct)
+			return ByteBuffer.allocate(length);
+		if (length != pageLength) // the buffers of large pages are not pooled
+			return ByteBuffer.allocateDirect(length);
+		ByteBuffer b = released.poll();
+		return b != null ? b : carve();
+	}
+
+	/**
+	 * Makes the specified buffer available for reuse.
+	 * 
+	 * @param b
+	 *            a buffer returned by {@link #allocate(int)}.
+	 */
+	public void release(ByteBuffer b) {
+		if (direct && b.isDirect() && b.capacity() == pageLength)
+			released.offer(b);
+	}
+
+	/**
+	 * Determines whether or not this PageArena allocates buffers in direct memory.
+	 * 
+	 * @return true if this PageArena allocates buffers in direct memory; false otherwise.
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Carves a new buffer out of the current chunk, allocating a new chunk if needed.
+	 * 
+	 * @return a new buffer of the default length.
+	 */
+	protected synchronized ByteBuffer carve() {
+		if (chunk == null || chunk.remaining() < pageLength)
+			chunk = ByteBuffer.allocateDirect(chunkSize);
+		ByteBuffer b = chunk.slice();
+		b.limit(pageLength);
+		chunk.position(chunk.position() + pageLength);
+		return b.slice();
+	}
+
+}
@@ -0,0 +1,166 @@
+package hwanglab.data.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+
+/**
+ * A RecordCodec converts objects of certain types into compact binary records and vice versa. Each record that a
+ * DiskStorageManager writes using a RecordCodec starts with the format byte of that RecordCodec. Records written using
+ * Java serialization start with the first byte of the serialization stream magic number, which no RecordCodec may
+ * use as its format byte.
+ */
+public abstract class RecordCodec {
+
+	/**
+	 * The first byte of every record written using Java serialization.
+	 */
+	public static final byte JAVA_SERIALIZATION = (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8);
+
+	/**
+	 * Returns the format byte that precedes the records written by this RecordCodec.
+	 *
+	 * @return the format byte that precedes the records written by this RecordCodec.
+	 */
+	public abstract byte format();
+
+	/**
+	 * Determines whether or not this RecordCodec can encode the specified object.
+	 *
+	 * @param o
+	 *            an object.
+	 * @return true if this RecordCodec can encode the specified object; false otherwise.
+	 */
+	public abstract boolean accepts(Object o);
+
+	/**
+	 * Writes the specified object (without the format byte).
+	 *
+	 * @param o
+	 *            the object to write.
+	 * @param out
+	 *            the output to write to.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public abstract void write(Object o, DataOutput out) throws IOException;
+
+	/**
+	 * Reads an object (the format byte has already been consumed).
+	 *
+	 * @param in
+	 *            the input to read from.
+	 * @return the object read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a relevant class cannot be found.
+	 */
+	public abstract Object read(DataInput in) throws IOException, ClassNotFoundException;
+
+	/**
+	 * Writes the specified int value using 1 to 5 bytes (7 bits per byte).
+	 *
+	 * @param out
+	 *            the output to write to.
+	 * @param value
+	 *            an int value (small non-negative values take fewer bytes).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Reads an int value written by {@link #writeVarInt(DataOutput, int)}.
+	 *
+	 * @param in
+	 *            the input to read from.
+	 * @return the int value read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("malformed variable-length int");
+	}
+
+	/**
+	 * Writes the specified long value using 1 to 10 bytes (7 bits per byte).
+	 *
+	 * @param out
+	 *            the output to write to.
+	 * @param value
+	 *            a long value (small non-negative values take fewer bytes).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Reads a long value written by {@link #writeVarLong(DataOutput, long)}.
+	 *
+	 * @param in
+	 *            the input to read from.
+	 * @return the long value read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= ((long) (b & 0x7F)) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("malformed variable-length long");
+	}
+
+	/**
+	 * Writes the specified signed long value so that values close to zero take fewer bytes.
+	 *
+	 * @param out
+	 *            the output to write to.
+	 * @param value
+	 *            a long value.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Reads a long value written by {@link #writeSignedVarLong(DataOutput, long)}.
+	 *
+	 * @param in
+	 *            the input to read from.
+	 * @return the long value read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static long readSignedVarLong(DataInput in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
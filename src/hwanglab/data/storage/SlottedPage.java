@@ -3,9 +3,17 @@ package hwanglab.data.storage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
- * A SlottedPage stores a number of objects in a byte array.
+ * A SlottedPage stores a number of objects in a buffer. The buffer is either a heap buffer or a slice of direct memory
+ * obtained from a PageArena. The methods that read or modify the objects are synchronized on the SlottedPage, which
+ * serves as the latch of the page when several threads store objects at the same time.
  * 
  * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
  */
@@ -17,15 +25,26 @@ public class SlottedPage {
 	private int pageID;
 
 	/**
-	 * A byte array for storing objects.
+	 * A buffer for storing objects (only absolute operations are used on it, so its position is irrelevant).
 	 */
-	protected byte[] page;
+	protected ByteBuffer page;
 
 	/**
 	 * The number of bytes for representing an int value.
 	 */
 	protected static int INT_SIZE = 4;
 
+	/**
+	 * The value stored in place of the size of a SlottedPage saved in the compressed format.
+	 */
+	protected static final int COMPRESSED = -1;
+
+	/**
+	 * The size of the header of a compressed SlottedPage (the COMPRESSED flag, the size of the byte array, the page ID
+	 * and the number of compressed bytes).
+	 */
+	protected static final int COMPRESSED_HEADER_SIZE = 16;
+
 	/**
 	 * Constructs a SlottedPage.
 	 * 
@@ -35,7 +54,21 @@ public class SlottedPage {
 	 *            the size of the SlottedPage.
 	 */
 	public SlottedPage(int pageID, int size) {
-		page = new byte[size - 2 * INT_SIZE];
+		this(pageID, size, null);
+	}
+
+	/**
+	 * Constructs a SlottedPage whose buffer is obtained from the specified PageArena.
+	 * 
+	 * @param pageID
+	 *            the ID of the SlottedPage.
+	 * @param size
+	 *            the size of the SlottedPage.
+	 * @param arena
+	 *            a PageArena (null to use a heap buffer).
+	 */
+	public SlottedPage(int pageID, int size, PageArena arena) {
+		page = allocate(size - 2 * INT_SIZE, arena);
 		setEntryCount(0);
 		this.pageID = pageID;
 	}
@@ -49,12 +82,91 @@ public class SlottedPage {
 	 *             if an I/O error occurs.
 	 */
 	public SlottedPage(RandomAccessFile file) throws IOException {
+		this(file, null);
+	}
+
+	/**
+	 * Constructs a SlottedPage whose buffer is obtained from the specified PageArena.
+	 * 
+	 * @param file
+	 *            a file from which the SlottedPage is constructed.
+	 * @param arena
+	 *            a PageArena (null to use a heap buffer).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public SlottedPage(RandomAccessFile file, PageArena arena) throws IOException {
 		int size = file.readInt();
-		page = new byte[size];
-		file.read(page);
+		if (size == COMPRESSED) {
+			page = allocate(file.readInt(), arena);
+			pageID = file.readInt();
+			byte[] b = new byte[file.readInt()];
+			file.readFully(b);
+			inflate(b, 0, b.length);
+			return;
+		}
+		page = allocate(size, arena);
+		ByteBuffer b = page.duplicate();
+		FileChannel channel = file.getChannel(); // shares the file pointer with the file
+		while (b.hasRemaining())
+			if (channel.read(b) < 0)
+				throw new java.io.EOFException();
 		pageID = file.readInt();
 	}
 
+	/**
+	 * Constructs a SlottedPage.
+	 * 
+	 * @param buffer
+	 *            a buffer from which the SlottedPage is constructed (read from its current position).
+	 * @throws IOException
+	 *             if the buffer contains a corrupted compressed SlottedPage.
+	 */
+	public SlottedPage(ByteBuffer buffer) throws IOException {
+		this(buffer, null);
+	}
+
+	/**
+	 * Constructs a SlottedPage whose buffer is obtained from the specified PageArena.
+	 * 
+	 * @param buffer
+	 *            a buffer from which the SlottedPage is constructed (read from its current position).
+	 * @param arena
+	 *            a PageArena (null to use a heap buffer).
+	 * @throws IOException
+	 *             if the buffer contains a corrupted compressed SlottedPage.
+	 */
+	public SlottedPage(ByteBuffer buffer, PageArena arena) throws IOException {
+		int size = buffer.getInt();
+		if (size == COMPRESSED) {
+			page = allocate(buffer.getInt(), arena);
+			pageID = buffer.getInt();
+			byte[] b = new byte[buffer.getInt()];
+			buffer.get(b);
+			inflate(b, 0, b.length);
+			return;
+		}
+		page = allocate(size, arena);
+		ByteBuffer b = buffer.duplicate();
+		b.limit(b.position() + size);
+		page.duplicate().put(b);
+		buffer.position(buffer.position() + size);
+		pageID = buffer.getInt();
+	}
+
+	/**
+	 * Allocates a buffer for a SlottedPage.
+	 * 
+	 * @param length
+	 *            the length of the buffer.
+	 * @param arena
+	 *            a PageArena (null to use a heap buffer).
+	 * @return a buffer of the specified length.
+	 */
+	protected static ByteBuffer allocate(int length, PageArena arena) {
+		return arena == null ? ByteBuffer.allocate(length) : arena.allocate(length);
+	}
+
 	/**
 	 * Saves this SlottedPage on the specified file.
 	 * 
@@ -63,19 +175,138 @@ public class SlottedPage {
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	public void save(RandomAccessFile file) throws IOException {
-		file.writeInt(page.length);
-		file.write(page);
+	public synchronized void save(RandomAccessFile file) throws IOException {
+		file.writeInt(page.capacity());
+		ByteBuffer b = page.duplicate();
+		b.clear();
+		FileChannel channel = file.getChannel(); // shares the file pointer with the file
+		while (b.hasRemaining())
+			channel.write(b);
 		file.writeInt(pageID);
 	}
 
+	/**
+	 * Saves this SlottedPage on the specified file in the compressed format. The page ID is also written at the end of
+	 * the space that this SlottedPage occupies so that the file keeps the same layout as with uncompressed pages.
+	 * 
+	 * @param file
+	 *            a file on which this SlottedPage is saved.
+	 * @param compressed
+	 *            the compressed form of this SlottedPage returned by {@link #compress()}.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void save(RandomAccessFile file, byte[] compressed) throws IOException {
+		long start = file.getFilePointer();
+		file.write(compressed);
+		file.seek(start + size() - INT_SIZE);
+		file.writeInt(pageID);
+	}
+
+	/**
+	 * Saves this SlottedPage in the specified buffer (starting at its current position).
+	 * 
+	 * @param buffer
+	 *            a buffer in which this SlottedPage is saved.
+	 */
+	public synchronized void save(ByteBuffer buffer) {
+		buffer.putInt(page.capacity());
+		ByteBuffer b = page.duplicate();
+		b.clear();
+		buffer.put(b);
+		buffer.putInt(pageID);
+	}
+
+	/**
+	 * Returns buffers that together contain this SlottedPage in the format written by {@link #save(RandomAccessFile)}.
+	 * The content of this SlottedPage is copied under its latch, so the buffers hold a consistent image even if this
+	 * SlottedPage is modified before they are written by a gathering write.
+	 * 
+	 * @return buffers that together contain this SlottedPage in the format written by {@link #save(RandomAccessFile)}.
+	 */
+	public synchronized ByteBuffer[] saveBuffers() {
+		ByteBuffer size = ByteBuffer.allocate(INT_SIZE);
+		size.putInt(0, page.capacity());
+		ByteBuffer content = page.duplicate();
+		content.clear();
+		ByteBuffer b = ByteBuffer.allocate(page.capacity());
+		b.put(content);
+		b.flip();
+		ByteBuffer pageID = ByteBuffer.allocate(INT_SIZE);
+		pageID.putInt(0, this.pageID);
+		return new ByteBuffer[] { size, b, pageID };
+	}
+
+	/**
+	 * Returns the compressed form of this SlottedPage. Only the slot directory and the objects are compressed, not the
+	 * free space between them.
+	 * 
+	 * @return the compressed form of this SlottedPage; null if compression would not make this SlottedPage smaller.
+	 */
+	public synchronized byte[] compress() {
+		int entryCount = getEntryCount();
+		int dataStart = entryCount > 0 ? getOffset(entryCount - 1) : page.capacity();
+		byte[] b = new byte[(int) size() - INT_SIZE]; // the page ID is also saved at the end
+		int length = COMPRESSED_HEADER_SIZE;
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(read(0, (1 + entryCount) * INT_SIZE));
+			while (!deflater.needsInput()) {
+				if (length == b.length)
+					return null;
+				length += deflater.deflate(b, length, b.length - length);
+			}
+			deflater.setInput(read(dataStart, page.capacity() - dataStart));
+			deflater.finish();
+			while (!deflater.finished()) {
+				if (length == b.length)
+					return null;
+				length += deflater.deflate(b, length, b.length - length);
+			}
+		} finally {
+			deflater.end();
+		}
+		ByteBuffer header = ByteBuffer.wrap(b);
+		header.putInt(COMPRESSED);
+		header.putInt(page.capacity());
+		header.putInt(pageID);
+		header.putInt(length - COMPRESSED_HEADER_SIZE);
+		return Arrays.copyOf(b, length);
+	}
+
+	/**
+	 * Returns the number of bytes that a saved SlottedPage occupies in the specified buffer (excluding the page ID
+	 * written at the end of a compressed SlottedPage).
+	 * 
+	 * @param buffer
+	 *            a buffer containing at least the first {@link #COMPRESSED_HEADER_SIZE} bytes of a saved SlottedPage.
+	 * @param offset
+	 *            the position of the SlottedPage within the buffer.
+	 * @return the number of bytes that the saved SlottedPage occupies.
+	 */
+	public static int savedSize(ByteBuffer buffer, int offset) {
+		int size = buffer.getInt(offset);
+		if (size == COMPRESSED)
+			return COMPRESSED_HEADER_SIZE + buffer.getInt(offset + 3 * INT_SIZE);
+		return size + 2 * INT_SIZE;
+	}
+
 	/**
 	 * Returns the size of this SlottedPage.
 	 * 
 	 * @return the size of this SlottedPage.
 	 */
 	public long size() {
-		return this.page.length + 2 * INT_SIZE;
+		return this.page.capacity() + 2 * INT_SIZE;
+	}
+
+	/**
+	 * Returns the number of bytes available for an additional object in this SlottedPage.
+	 * 
+	 * @return the number of bytes available for an additional object in this SlottedPage.
+	 */
+	public synchronized int freeSpace() {
+		return Math.max(0, page.capacity() - (2 + getEntryCount()) * INT_SIZE - getDataSize());
 	}
 
 	/**
@@ -114,10 +345,10 @@ public class SlottedPage {
 	 *            an index within this SlottedPage.
 	 * @return a stream for reading the object at the specified index; null if no such object exists.
 	 */
-	public ByteArrayInputStream get(int index) {
+	public synchronized ByteArrayInputStream get(int index) {
 		try {
 			if (index < getEntryCount()) {
-				return new ByteArrayInputStream(page, getOffset(index), getObjectSize(index));
+				return new ByteArrayInputStream(read(getOffset(index), getObjectSize(index)));
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -136,7 +367,7 @@ public class SlottedPage {
 	 * @throws OverFlowException
 	 *             if this SlottedPage cannot accommodate the specified byte array.
 	 */
-	public int add(byte[] b) throws IOException, OverFlowException {
+	public synchronized int add(byte[] b) throws IOException, OverFlowException {
 		try {
 			int index = getEntryCount();
 			put(index, b);
@@ -162,28 +393,28 @@ public class SlottedPage {
 	 * @throws IndexOutofBoundsException
 	 *             an illegal index is used.
 	 */
-	public void put(int index, byte[] b) throws IOException, OverFlowException, IndexOutofBoundsException {
+	public synchronized void put(int index, byte[] b) throws IOException, OverFlowException, IndexOutofBoundsException {
 		int entryCount = getEntryCount();
 		if (index < 0 || index > entryCount)
 			throw new IndexOutofBoundsException();
 		if (index == entryCount) { // new insertion
 			int headerSize = (2 + entryCount) * INT_SIZE;
-			if (headerSize + getDataSize() + b.length > page.length) {
+			if (headerSize + getDataSize() + b.length > page.capacity()) {
 				throw new OverFlowException();
 			}
 			setEntryCount(entryCount + 1);
-			int offset = (entryCount == 0) ? page.length - b.length : getOffset(entryCount - 1) - b.length;
+			int offset = (entryCount == 0) ? page.capacity() - b.length : getOffset(entryCount - 1) - b.length;
 			setOffset(entryCount, offset);
-			System.arraycopy(b, 0, page, offset, b.length); // write the byte array
+			write(offset, b); // write the byte array
 		} else { // re-insertion
 			int headerSize = (1 + entryCount) * INT_SIZE;
 			int sizeDiff = b.length - getObjectSize(index);
-			if (headerSize + getDataSize() + sizeDiff > page.length)
+			if (headerSize + getDataSize() + sizeDiff > page.capacity())
 				throw new OverFlowException();
 			int offset = getOffset(index);
 			if (sizeDiff != 0)
 				moveData(index, sizeDiff);
-			System.arraycopy(b, 0, page, offset - sizeDiff, b.length); // write the byte array
+			write(offset - sizeDiff, b); // write the byte array
 		}
 	}
 
@@ -195,7 +426,7 @@ public class SlottedPage {
 	 * @throws IndexOutofBoundsException
 	 *             an illegal index is used.
 	 */
-	public void remove(int index) throws IndexOutofBoundsException {
+	public synchronized void remove(int index) throws IndexOutofBoundsException {
 		int entryCount = getEntryCount();
 		if (index < 0 || index >= entryCount)
 			throw new IndexOutofBoundsException();
@@ -235,7 +466,7 @@ public class SlottedPage {
 	 * 
 	 * @return the number of objects stored in this SlottedPage.
 	 */
-	protected int getEntryCount() {
+	protected synchronized int getEntryCount() {
 		return readInt(0);
 	}
 
@@ -279,9 +510,9 @@ public class SlottedPage {
 	 *            an index within this SlottedPage.
 	 * @return the size of the object at the specified index.
 	 */
-	protected int getObjectSize(int index) {
+	protected synchronized int getObjectSize(int index) {
 		if (index == 0)
-			return page.length - getOffset(index);
+			return page.capacity() - getOffset(index);
 		else
 			return getOffset(index - 1) - getOffset(index);
 	}
@@ -295,10 +526,7 @@ public class SlottedPage {
 	 *            the value to write.
 	 */
 	protected void writeInt(int offset, int value) {
-		page[offset] = (byte) (value >>> 24);
-		page[offset + 1] = (byte) (value >>> 16);
-		page[offset + 2] = (byte) (value >>> 8);
-		page[offset + 3] = (byte) value;
+		page.putInt(offset, value);
 	}
 
 	/**
@@ -309,8 +537,38 @@ public class SlottedPage {
 	 * @return an integer read from the page at the specified offset.
 	 */
 	protected int readInt(int offset) {
-		return ((page[offset]) << 24) + ((page[offset + 1] & 0xFF) << 16) + ((page[offset + 2] & 0xFF) << 8)
-				+ (page[offset + 3] & 0xFF);
+		return page.getInt(offset);
+	}
+
+	/**
+	 * Returns a copy of the specified range of the page.
+	 * 
+	 * @param offset
+	 *            the start of the range.
+	 * @param length
+	 *            the length of the range.
+	 * @return a byte array containing the bytes in the specified range.
+	 */
+	protected byte[] read(int offset, int length) {
+		byte[] b = new byte[length];
+		ByteBuffer buffer = page.duplicate();
+		buffer.position(offset);
+		buffer.get(b);
+		return b;
+	}
+
+	/**
+	 * Writes the specified byte array at the specified location in the page.
+	 * 
+	 * @param offset
+	 *            a location in the page.
+	 * @param b
+	 *            the byte array to write.
+	 */
+	protected void write(int offset, byte[] b) {
+		ByteBuffer buffer = page.duplicate();
+		buffer.position(offset);
+		buffer.put(b);
 	}
 
 	/**
@@ -321,7 +579,7 @@ public class SlottedPage {
 	protected int getDataSize() {
 		int entryCount = getEntryCount();
 		if (entryCount > 0) {
-			return page.length - getOffset(entryCount - 1);
+			return page.capacity() - getOffset(entryCount - 1);
 		} else
 			return 0;
 	}
@@ -338,13 +596,62 @@ public class SlottedPage {
 		int entryCount = getEntryCount();
 		int dataStart = getOffset(entryCount - 1);
 		int moveSize = getOffset(index) - dataStart;
-		if (moveSize > 0) {
-			byte[] temp = new byte[moveSize];
-			System.arraycopy(page, dataStart, temp, 0, moveSize);
-			System.arraycopy(temp, 0, page, dataStart - sizeDiff, moveSize);
-		}
+		if (moveSize > 0)
+			write(dataStart - sizeDiff, read(dataStart, moveSize));
 		for (int i = index; i < entryCount; i++)
 			setOffset(i, getOffset(i) - sizeDiff);
 	}
 
+	/**
+	 * Restores the slot directory and the objects of this SlottedPage from the specified compressed bytes.
+	 * 
+	 * @param b
+	 *            a byte array.
+	 * @param offset
+	 *            the start of the compressed bytes within the byte array.
+	 * @param length
+	 *            the number of compressed bytes.
+	 * @throws IOException
+	 *             if the compressed bytes are corrupted.
+	 */
+	protected void inflate(byte[] b, int offset, int length) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(b, offset, length);
+			inflate(inflater, 0, INT_SIZE);
+			int entryCount = getEntryCount();
+			inflate(inflater, INT_SIZE, entryCount * INT_SIZE);
+			int dataStart = entryCount > 0 ? getOffset(entryCount - 1) : page.capacity();
+			inflate(inflater, dataStart, page.capacity() - dataStart);
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Fills the specified range of this SlottedPage using the specified Inflater.
+	 * 
+	 * @param inflater
+	 *            an Inflater.
+	 * @param offset
+	 *            the start of the range.
+	 * @param length
+	 *            the length of the range.
+	 * @throws DataFormatException
+	 *             if the compressed bytes are corrupted or end before the range is filled.
+	 */
+	protected void inflate(Inflater inflater, int offset, int length) throws DataFormatException {
+		if (offset < 0 || length < 0 || offset + length > page.capacity())
+			throw new DataFormatException("invalid slot directory");
+		byte[] b = new byte[length];
+		for (int n = 0; n < length;) {
+			int r = inflater.inflate(b, n, length - n);
+			if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+				throw new DataFormatException("truncated page");
+			n += r;
+		}
+		write(offset, b);
+	}
 }
@@ -1,134 +1,23 @@
 package hwanglab.data.storage;
 
-import hwanglab.data.storage.SlottedPage.IndexOutofBoundsException;
-import hwanglab.data.storage.SlottedPage.OverFlowException;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
 
 /**
- * A StorageManager stores objects on disk.
- * 
- * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
- * 
+ * StorageManager is the interface for the storage engines that keep the objects of a graph (e.g., DiskStorageManager
+ * and MemoryStorageManager). Each object is identified by the ObjectLocation returned when it is stored.
  */
-public class StorageManager {
+public interface StorageManager {
 
 	/**
-	 * The RandomAccessFile used by this StorageManager.
-	 */
-	protected RandomAccessFile file;
-
-	/**
-	 * The default size for SlottedPages.
-	 */
-	protected int defaultPageSize = 64 * 1024;
-
-	/**
-	 * The ID of the next SlottedPage to create.
-	 */
-	protected int nextPageID;
-
-	/**
-	 * The SlottedPages that are buffered in the memory.
-	 */
-	protected LinkedHashMap<Integer, SlottedPage> bufferedPages = new LinkedHashMap<Integer, SlottedPage>();
-
-	/**
-	 * The SlottedPages that are recently updated and thus need to be saved on disk.
-	 */
-	protected LinkedHashMap<Integer, SlottedPage> dirtyPages = new LinkedHashMap<Integer, SlottedPage>();
-
-	/**
-	 * The thread that saves dirty pages on disk.
-	 */
-	PurgeThread purgeThread;
-
-	/**
-	 * The number of disk seeks so far.
-	 */
-	protected long diskSeeks;
-
-	/**
-	 * The ID of the last SlottedPage.
-	 */
-	protected int lastPageID;
-
-	/**
-	 * The size of the buffer for caching the graph data.
-	 */
-	protected long bufferSize;
-
-	/**
-	 * The number of bytes that are buffered.
-	 */
-	protected long bytesBuffered;
-
-	/**
-	 * A PurgeThread writes dirty pages on the disk.
-	 * 
-	 * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
-	 */
-	protected class PurgeThread extends Thread {
-
-		Boolean shutdownRequested = false;
-
-		public void run() {
-			while (true) {
-				try {
-					if (dirtyPages.size() == 0) { // if no dirty page, sleep
-						if (shutdownRequested)
-							return;
-						else {
-							Thread.sleep(100);
-						}
-					}
-					purgeDirtyPage(null); // purge the first dirty page
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		/**
-		 * Shuts down this PurgeThread.
-		 */
-		public void shutdown() {
-			shutdownRequested = true;
-		}
-
-	}
-
-	/**
-	 * Constructs a StorageManager.
+	 * Makes this StorageManager follow the write-ahead logging rule for the specified WriteAheadLog: an update is saved
+	 * on disk only after all of the records appended to the WriteAheadLog are on disk.
 	 * 
-	 * @param fileName
-	 *            the name of the RandomAccessFile.
-	 * @param bufferSize
-	 *            the size of the buffer for caching the graph data.
-	 * @throws IOException
-	 *             if an I/O error occurs.
+	 * @param log
+	 *            a WriteAheadLog (null to stop following the write-ahead logging rule).
 	 */
-	public StorageManager(String fileName, long bufferSize) throws IOException {
-		file = new RandomAccessFile(fileName, "rw");
-		nextPageID = (int) file.length() / defaultPageSize;
-		if (nextPageID > 0) {
-			file.seek(file.length() - 4);
-			lastPageID = file.readInt();
-		} else
-			lastPageID = -1;
-		diskSeeks = 0;
-		purgeThread = new PurgeThread();
-		purgeThread.setPriority(Thread.MIN_PRIORITY);
-		purgeThread.start();
-		this.bufferSize = bufferSize;
-		this.bytesBuffered = 0;
-	}
+	public void setWriteAheadLog(WriteAheadLog log);
 
 	/**
 	 * Removes all the data.
@@ -136,12 +25,7 @@ public class StorageManager {
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	public synchronized void clearData() throws IOException {
-		nextPageID = 0;
-		file.setLength(0);
-		bufferedPages = new LinkedHashMap<Integer, SlottedPage>();
-		dirtyPages = new LinkedHashMap<Integer, SlottedPage>();
-	}
+	public void clearData() throws IOException;
 
 	/**
 	 * Stores an object in this StorageManager.
@@ -154,59 +38,39 @@ public class StorageManager {
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	public ObjectLocation put(ObjectLocation location, Object object) throws IOException {
-		byte[] b = toByteArray(object);
-		int pageID = location.pageID;
-		SlottedPage page = null;
-		try {
-			page = findPage(pageID);
-			page.put(location.index, b);
-			registerDirtyPage(page);
-			return new ObjectLocation(pageID, location.index);
-		} catch (Exception e) {
-			if (page != null)
-				try {
-					page.remove(location.index);
-					registerDirtyPage(page);
-				} catch (IndexOutofBoundsException e1) {
-				}
-		}
-		try { // if the target page cannot accommodate the specified object, try the last one
-			page = findPage(lastPageID);
-			int index = page.add(b);
-			registerDirtyPage(page);
-			return new ObjectLocation(page.pageID(), index);
-		} catch (Exception e) {
-		}
-		return createPage(b);
-	}
+	public ObjectLocation put(ObjectLocation location, Object object) throws IOException;
+
+	/**
+	 * Moves the object at the specified location to another page. Readers holding the old location can still read the
+	 * object until the next checkpoint.
+	 * 
+	 * @param location
+	 *            the location of an object.
+	 * @return the new location of the object; null if there is no object at the specified location.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public ObjectLocation relocate(ObjectLocation location) throws IOException;
 
 	/**
-	 * Constructs a new SlottedPage containing the specified the byte array.
+	 * Returns the locations of the objects stored in the specified page.
 	 * 
-	 * @param b
-	 *            a byte array.
-	 * @return a new SlottedPage containing the specified the byte array.
+	 * @param pageID
+	 *            the ID of a page.
+	 * @return the locations of the objects stored in the specified page.
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	protected ObjectLocation createPage(byte[] b) throws IOException {
-		int size = SlottedPage.size(b, defaultPageSize);
-		SlottedPage page = new SlottedPage(nextPageID, (int) size);
-		lastPageID = nextPageID;
-		nextPageID += size / defaultPageSize;
-		cache(page);
-		int index;
-		try {
-			index = page.add(b);
-			registerDirtyPage(page);
-			return new ObjectLocation(page.pageID(), index);
-		} catch (OverFlowException e) {
-			e.printStackTrace();
-			System.err.println("cannot happen!");
-			throw new UnsupportedOperationException();
-		}
-	}
+	public ArrayList<ObjectLocation> locations(int pageID) throws IOException;
+
+	/**
+	 * Returns the pages that are sparsely used and thus worth compacting.
+	 * 
+	 * @param utilization
+	 *            the maximum fraction of a page in use.
+	 * @return the IDs of the pages that are sparsely used.
+	 */
+	public ArrayList<Integer> sparsePages(double utilization);
 
 	/**
 	 * Stores an object in this StorageManager.
@@ -217,218 +81,98 @@ public class StorageManager {
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	public ObjectLocation add(Object object) throws IOException {
-		if (this.nextPageID == 0)
-			return put(new ObjectLocation(0, 0), object);
-		else {
-			SlottedPage lastPage = findPage(lastPageID);
-			return put(new ObjectLocation(lastPage.pageID(), lastPage.getEntryCount()), object);
-		}
-	}
+	public ObjectLocation add(Object object) throws IOException;
 
 	/**
-	 * Returns the object stored at the specified LogicalLocation.
+	 * Returns the object stored at the specified ObjectLocation. Unless this StorageManager copies objects (see
+	 * {@link #copiesObjects()}), the returned object is the stored instance and thus must not be modified.
 	 * 
 	 * @param location
-	 *            a ObjectLocation.
-	 * @return the object stored at the specified LogicalLocation.
+	 *            an ObjectLocation.
+	 * @return the object stored at the specified ObjectLocation.
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 * @throws ClassNotFoundException
 	 *             if a relevant class cannot be found.
 	 */
-	public Object get(ObjectLocation location) throws IOException, ClassNotFoundException {
-		if (location == null)
-			return null;
-		if (location.pageID < nextPageID) {
-			SlottedPage page = findPage(location.pageID);
-			if (page != null) {
-				ByteArrayInputStream in = page.get(location.index);
-				if (in != null)
-					return new ObjectInputStream(in).readObject();
-			}
-		}
-		return null;
-	}
+	public Object get(ObjectLocation location) throws IOException, ClassNotFoundException;
 
 	/**
-	 * Returns the size of the disk-resident data.
+	 * Returns the objects stored at the specified ObjectLocations. An implementation may visit the locations in any
+	 * order (e.g., the order of their pages) to access each page only once.
 	 * 
-	 * @return the size of the disk-resident data.
+	 * @param locations
+	 *            ObjectLocations (may contain null).
+	 * @return the objects stored at the specified ObjectLocations in the order of the locations (null for each location
+	 *         that is null or contains no object).
 	 * @throws IOException
 	 *             if an I/O error occurs.
+	 * @throws ClassNotFoundException
+	 *             if a relevant class cannot be found.
 	 */
-	public long dataSize() throws IOException {
-		return file.length();
-	}
+	public ArrayList<Object> getAll(Collection<ObjectLocation> locations) throws IOException, ClassNotFoundException;
 
 	/**
-	 * Returns the number of disk seeks that this StorageManager has performed.
+	 * Determines whether or not the objects returned by this StorageManager are copies that the caller may modify.
 	 * 
-	 * @return the number of disk seeks that this StorageManager has performed.
+	 * @return true if each object returned is a copy; false if the stored instances are returned.
 	 */
-	public long diskSeeks() {
-		return diskSeeks;
-	}
+	public boolean copiesObjects();
 
 	/**
-	 * Returns the actual ratio of the memory-resident data to the disk-resident data.
-	 * 
-	 * @return the actual ratio of the memory-resident data to the disk-resident data.
-	 */
-	public double actualCachingRatio() {
-		return nextPageID > 0 ? 1.0 * bytesBuffered / defaultPageSize / nextPageID : 0;
-	}
-
-	/**
-	 * Shuts down this StorageManager.
-	 */
-	public synchronized void shutdown() {
-		purgeThread.shutdown(); // shut down the purge thread.
-		while (purgeThread.isAlive()) { // wait until all the dirty pages are written to disk.
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-			}
-		}
-	}
-
-	/**
-	 * Checkpoints this StorageManager.
+	 * Returns the size of the disk-resident data.
 	 * 
+	 * @return the size of the disk-resident data.
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	public synchronized void checkpoint() throws IOException {
-		synchronized (dirtyPages) {
-			for (Map.Entry<Integer, SlottedPage> entry : dirtyPages.entrySet()) {
-				save(entry.getValue());
-			}
-			dirtyPages.clear();
-		}
-	}
+	public long dataSize() throws IOException;
 
 	/**
-	 * Registers the specified SlottedPage as a dirty page.
+	 * Returns the number of disk seeks that this StorageManager has performed.
 	 * 
-	 * @param page
-	 *            a SlottedPage to register as a dirty page.
+	 * @return the number of disk seeks that this StorageManager has performed.
 	 */
-	protected void registerDirtyPage(SlottedPage page) {
-		synchronized (dirtyPages) {
-			dirtyPages.put(page.pageID(), page);
-		}
-	}
+	public long diskSeeks();
 
 	/**
-	 * Registers the specified SlottedPage into the memory buffer.
+	 * Returns the actual ratio of the memory-resident data to the disk-resident data.
 	 * 
-	 * @param page
-	 *            the SlottedPage to register.
+	 * @return the actual ratio of the memory-resident data to the disk-resident data.
 	 */
-	protected synchronized void cache(SlottedPage page) {
-		SlottedPage removed = bufferedPages.remove(page.pageID()); // remove the page from the list
-		if (removed != null)
-			bytesBuffered -= removed.size();
-		bufferedPages.put(page.pageID(), page); // put the new page at the end of the list
-		bytesBuffered += page.size();
-		while (bufferedPages.size() > bufferSize) { // if no more space in the buffer
-			try {
-				Map.Entry<Integer, SlottedPage> leastRecentlyUsed = bufferedPages.entrySet().iterator().next();
-				Integer id = leastRecentlyUsed.getKey();
-				if (dirtyPages.containsKey(id)) // if the page to evict is dirty, purge it
-					purgeDirtyPage(id);
-				bufferedPages.remove(id); // remove the first page in the buffer
-				bytesBuffered -= leastRecentlyUsed.getValue().size();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-	}
+	public double actualCachingRatio();
 
 	/**
-	 * Returns the SlottedPage associated with the specified page ID.
+	 * Requests that the specified page be read into memory in the background. This method returns immediately.
 	 * 
 	 * @param pageID
-	 *            the ID of the SlottedPage.
-	 * @return the SlottedPage associated with the specified page ID.
-	 * @throws IOException
-	 *             if an I/O error occurs.
+	 *            the ID of a page.
 	 */
-	protected SlottedPage findPage(int pageID) throws IOException {
-		if (pageID < nextPageID) {
-			SlottedPage page = bufferedPages.get(pageID);
-			if (page == null) { // if the page is not in the buffer
-				synchronized (file) {
-					file.seek(((long) pageID) * defaultPageSize); // seek to the right location in the file
-					diskSeeks++; // increment the disk seek counter
-					page = new SlottedPage(file);
-				}
-			}
-			cache(page); // put it in the buffer
-			return page;
-		}
-		return null; // if there has been no such page
-	}
+	public void prefetch(int pageID);
 
 	/**
-	 * Purges a SlottedPage.
-	 * 
-	 * @param pageID
-	 *            the ID of the SlottedPage to save on the disk.
-	 * @throws IOException
-	 *             if an I/O error occurs.
+	 * Shuts down this StorageManager.
 	 */
-	protected void purgeDirtyPage(Integer pageID) throws IOException {
-		if (dirtyPages.size() > 0) {
-			synchronized (dirtyPages) {
-				if (dirtyPages.size() > 0) { // needed since the situation might have been changed
-					if (pageID == null) { // if so, purge the first dirty page
-						Map.Entry<Integer, SlottedPage> entry = dirtyPages.entrySet().iterator().next();
-						pageID = entry.getKey();
-					}
-					SlottedPage page = dirtyPages.get(pageID);
-					if (page != null) {// if we get the wanted page, save it
-						save(page);
-						dirtyPages.remove(pageID); // deregister the save page
-					}
-				}
-			}
-		}
-	}
+	public void shutdown();
 
 	/**
-	 * Saves the specified SlottedPage on disk.
+	 * Makes all of the objects stored so far durable while keeping the objects whose removal has been deferred (the
+	 * first phase of a checkpoint). An index saved after this method returns refers only to objects on disk, and an
+	 * index saved before still finds the old copies of the objects moved since then.
 	 * 
-	 * @param page
-	 *            a SlottedPage.
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	public void save(SlottedPage page) throws IOException {
-		synchronized (file) {
-			file.seek(((long) page.pageID()) * defaultPageSize); // seek to the right location
-			diskSeeks++; // increment the disk seek counter
-			page.save(file);
-		}
-	}
+	public void flush() throws IOException;
 
 	/**
-	 * Returns a byte array representing the specified object.
+	 * Checkpoints this StorageManager by removing the objects whose removal has been deferred and making the result
+	 * durable (the second phase of a checkpoint). This method is called after {@link #flush()} once the index referring
+	 * to the new locations of the objects has been saved.
 	 * 
-	 * @param o
-	 *            an object.
-	 * @return a byte array representing the specified object.
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	protected byte[] toByteArray(Object o) throws IOException {
-		ByteArrayOutputStream b = new ByteArrayOutputStream();
-		ObjectOutputStream out = new ObjectOutputStream(b);
-		out.writeObject(o);
-		out.flush();
-		b.flush();
-		return b.toByteArray();
-	}
+	public void checkpoint() throws IOException;
 
 }
@@ -0,0 +1,239 @@
+package hwanglab.data.storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * A WriteAheadLog appends records to a file sequentially and makes them durable using group commit: a thread that
+ * needs its record on disk either forces the file itself (as the leader) or waits for the force that is in progress
+ * (as a follower). Records appended while a force is in progress are made durable together by the next leader, so
+ * concurrent writers share a single fsync.
+ *
+ * Each record is written as its length, its CRC32 checksum and its bytes. Records are identified by log sequence
+ * numbers (LSNs) that keep increasing even after the file is truncated. A torn record at the end of the file (due to
+ * a crash in the middle of an append) is discarded when the records are read back.
+ */
+public class WriteAheadLog {
+
+	/**
+	 * The size of the header (length and checksum) of each record.
+	 */
+	protected static final int HEADER_SIZE = 2 * SlottedPage.INT_SIZE;
+
+	/**
+	 * The RandomAccessFile of the log.
+	 */
+	protected RandomAccessFile file;
+
+	/**
+	 * The FileChannel of the log.
+	 */
+	protected FileChannel channel;
+
+	/**
+	 * The LSN corresponding to the beginning of the file.
+	 */
+	protected long baseLSN;
+
+	/**
+	 * The LSN right after the last appended record.
+	 */
+	protected long appendedLSN;
+
+	/**
+	 * The LSN up to which all of the records are on disk.
+	 */
+	protected long syncedLSN;
+
+	/**
+	 * A flag indicating whether or not a leader is currently forcing the file.
+	 */
+	protected boolean syncing = false;
+
+	/**
+	 * The number of times that the file has been forced.
+	 */
+	protected long syncs;
+
+	/**
+	 * Constructs a WriteAheadLog.
+	 * 
+	 * @param fileName
+	 *            the name of the log file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public WriteAheadLog(String fileName) throws IOException {
+		file = new RandomAccessFile(fileName, "rw");
+		channel = file.getChannel();
+		baseLSN = 0;
+		appendedLSN = syncedLSN = channel.size();
+	}
+
+	/**
+	 * Appends the specified record to this WriteAheadLog. The record is not necessarily on disk when this method
+	 * returns; {@link #sync(long)} must be called with the returned LSN to make it durable.
+	 * 
+	 * @param record
+	 *            the bytes of a record.
+	 * @return the LSN right after the record.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized long append(byte[] record) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + record.length);
+		b.putInt(record.length);
+		b.putInt((int) crc.getValue());
+		b.put(record);
+		b.flip();
+		long position = appendedLSN - baseLSN;
+		while (b.hasRemaining())
+			position += channel.write(b, position);
+		appendedLSN = baseLSN + position;
+		return appendedLSN;
+	}
+
+	/**
+	 * Blocks until all of the records up to the specified LSN are on disk.
+	 * 
+	 * @param lsn
+	 *            an LSN returned by {@link #append(byte[])}.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void sync(long lsn) throws IOException {
+		long target;
+		synchronized (this) {
+			while (true) {
+				if (syncedLSN >= lsn)
+					return;
+				if (!syncing)
+					break;
+				try { // a follower waits for the leader
+					wait();
+				} catch (InterruptedException e) {
+					throw new java.io.InterruptedIOException();
+				}
+			}
+			syncing = true; // become the leader and force all of the records appended so far
+			target = appendedLSN;
+		}
+		boolean forced = false;
+		try {
+			channel.force(false);
+			forced = true;
+		} finally {
+			synchronized (this) {
+				if (forced) {
+					syncedLSN = Math.max(syncedLSN, target);
+					syncs++;
+				}
+				syncing = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the LSN right after the last appended record.
+	 * 
+	 * @return the LSN right after the last appended record.
+	 */
+	public synchronized long appendedLSN() {
+		return appendedLSN;
+	}
+
+	/**
+	 * Returns the number of times that this WriteAheadLog has forced its file to disk.
+	 * 
+	 * @return the number of times that this WriteAheadLog has forced its file to disk.
+	 */
+	public synchronized long syncs() {
+		return syncs;
+	}
+
+	/**
+	 * Reads all of the intact records in this WriteAheadLog. A torn or corrupted record and everything after it are
+	 * removed from the file.
+	 * 
+	 * @return the records in the order they were appended.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized ArrayList<byte[]> records() throws IOException {
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+		long size = appendedLSN - baseLSN;
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			read(header, position);
+			int length = header.getInt(0);
+			if (length < 0 || position + HEADER_SIZE + length > size)
+				break; // torn record
+			ByteBuffer b = ByteBuffer.allocate(length);
+			read(b, position + HEADER_SIZE);
+			CRC32 crc = new CRC32();
+			crc.update(b.array());
+			if ((int) crc.getValue() != header.getInt(SlottedPage.INT_SIZE))
+				break; // corrupted record
+			records.add(b.array());
+			position += HEADER_SIZE + length;
+		}
+		if (position < size) { // discard the damaged tail so that new records follow the intact ones
+			channel.truncate(position);
+			appendedLSN = syncedLSN = baseLSN + position;
+		}
+		return records;
+	}
+
+	/**
+	 * Removes all of the records from this WriteAheadLog. This method must be called only after the effects of all of
+	 * the records have been saved elsewhere (e.g., by a checkpoint).
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void truncate() throws IOException {
+		channel.truncate(0);
+		channel.force(false);
+		baseLSN = appendedLSN;
+		syncedLSN = appendedLSN; // waiting threads no longer need their records
+		notifyAll();
+	}
+
+	/**
+	 * Makes all of the records durable and closes this WriteAheadLog.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void close() throws IOException {
+		sync(appendedLSN());
+		file.close();
+	}
+
+	/**
+	 * Fills the specified buffer with the data in the file starting at the specified position.
+	 * 
+	 * @param b
+	 *            the buffer to fill.
+	 * @param position
+	 *            the position within the file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	protected void read(ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			if (channel.read(b, position + b.position()) < 0)
+				throw new java.io.EOFException();
+		}
+	}
+
+}
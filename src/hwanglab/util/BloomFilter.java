@@ -0,0 +1,313 @@
+package hwanglab.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A BloomFilter answers whether a key may have been added (with false positives at about the configured rate) or has
+ * certainly not been added. The filter grows as keys are added: once a stage of bits holds as many keys as it was
+ * sized for, a new stage twice as large with half the false positive rate is started, so the overall false positive
+ * rate stays below twice the configured rate no matter how many keys are added. Bits are set atomically and stages are
+ * published through a copy-on-write list, so {@link #mightContain(String)} takes no lock while keys are being added.
+ */
+public class BloomFilter {
+
+	/**
+	 * A Stage is a fixed-size Bloom filter.
+	 */
+	protected static class Stage {
+
+		/**
+		 * The bits.
+		 */
+		protected final AtomicLongArray bits;
+
+		/**
+		 * The number of bits set for each key.
+		 */
+		protected final int hashes;
+
+		/**
+		 * The number of keys that this Stage is sized for.
+		 */
+		protected final long capacity;
+
+		/**
+		 * The number of keys added to this Stage.
+		 */
+		protected long count = 0;
+
+		/**
+		 * Constructs a Stage.
+		 *
+		 * @param capacity
+		 *            the number of keys that the Stage is sized for.
+		 * @param falsePositiveRate
+		 *            the false positive rate of the Stage once it holds the specified number of keys.
+		 */
+		protected Stage(long capacity, double falsePositiveRate) {
+			double bitCount = Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+			this.bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, ((long) bitCount + 63) / 64));
+			this.hashes = Math.max(1, (int) Math.round(bitCount / capacity * Math.log(2)));
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Constructs a Stage.
+		 *
+		 * @param bits
+		 *            the bits.
+		 * @param hashes
+		 *            the number of bits set for each key.
+		 * @param capacity
+		 *            the number of keys that the Stage is sized for.
+		 * @param count
+		 *            the number of keys added to the Stage.
+		 */
+		protected Stage(long[] bits, int hashes, long capacity, long count) {
+			this.bits = new AtomicLongArray(bits);
+			this.hashes = hashes;
+			this.capacity = capacity;
+			this.count = count;
+		}
+
+		/**
+		 * Determines whether or not all of the bits of the specified hash code are set.
+		 *
+		 * @param hash
+		 *            the hash code of a key.
+		 * @return true if all of the bits of the hash code are set; false otherwise.
+		 */
+		protected boolean contains(long hash) {
+			long bitCount = 64L * bits.length();
+			long h1 = (int) hash, h2 = hash >>> 32;
+			for (int i = 0; i < hashes; i++) {
+				long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+				if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Sets the bits of the specified hash code (called while holding the lock of the BloomFilter, which guards the
+		 * count; the bits are set atomically since they are read without the lock).
+		 *
+		 * @param hash
+		 *            the hash code of a key.
+		 */
+		protected void add(long hash) {
+			long bitCount = 64L * bits.length();
+			long h1 = (int) hash, h2 = hash >>> 32;
+			for (int i = 0; i < hashes; i++) {
+				long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+				int word = (int) (bit >>> 6);
+				while (true) {
+					long w = bits.get(word);
+					if ((w & (1L << bit)) != 0 || bits.compareAndSet(word, w, w | (1L << bit)))
+						break;
+				}
+			}
+			count++;
+		}
+	}
+
+	/**
+	 * The number of keys that the first stage is sized for.
+	 */
+	protected final long initialCapacity;
+
+	/**
+	 * The false positive rate of the first stage.
+	 */
+	protected final double falsePositiveRate;
+
+	/**
+	 * The stages (the last one receives new keys).
+	 */
+	protected CopyOnWriteArrayList<Stage> stages = new CopyOnWriteArrayList<Stage>();
+
+	/**
+	 * A flag indicating whether or not keys have been added since this BloomFilter was saved or loaded.
+	 */
+	protected boolean modified = false;
+
+	/**
+	 * Constructs a BloomFilter.
+	 *
+	 * @param initialCapacity
+	 *            the number of keys that the first stage is sized for.
+	 * @param falsePositiveRate
+	 *            the false positive rate of the first stage.
+	 */
+	public BloomFilter(long initialCapacity, double falsePositiveRate) {
+		this.initialCapacity = initialCapacity;
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	/**
+	 * Adds the specified key to this BloomFilter.
+	 *
+	 * @param key
+	 *            a key.
+	 */
+	public synchronized void add(String key) {
+		long hash = hash(key);
+		if (contains(hash))
+			return;
+		Stage stage = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+		if (stage == null || stage.count >= stage.capacity) {
+			int i = stages.size();
+			stage = new Stage(initialCapacity << i, falsePositiveRate / (1L << i));
+			stages.add(stage);
+		}
+		stage.add(hash);
+		modified = true;
+	}
+
+	/**
+	 * Determines whether or not the specified key may have been added to this BloomFilter.
+	 *
+	 * @param key
+	 *            a key.
+	 * @return false if the key has certainly not been added; true otherwise.
+	 */
+	public boolean mightContain(String key) {
+		return contains(hash(key));
+	}
+
+	/**
+	 * Removes all of the keys.
+	 */
+	public synchronized void clear() {
+		stages.clear();
+		modified = true;
+	}
+
+	/**
+	 * Returns the number of keys added to this BloomFilter.
+	 *
+	 * @return the number of keys added to this BloomFilter (excluding the keys that were taken as false positives).
+	 */
+	public synchronized long count() {
+		long count = 0;
+		for (Stage stage : stages)
+			count += stage.count;
+		return count;
+	}
+
+	/**
+	 * Saves this BloomFilter in the specified file unless it has not been modified since it was saved or loaded. The
+	 * filter is written to a temporary file first, so a crash while saving leaves the previous file intact.
+	 *
+	 * @param file
+	 *            a file.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized void save(File file) throws IOException {
+		if (!modified && file.exists())
+			return;
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream fout = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+		try {
+			out.writeLong(initialCapacity);
+			out.writeDouble(falsePositiveRate);
+			out.writeInt(stages.size());
+			for (Stage stage : stages) {
+				out.writeInt(stage.hashes);
+				out.writeLong(stage.capacity);
+				out.writeLong(stage.count);
+				out.writeInt(stage.bits.length());
+				for (int i = 0; i < stage.bits.length(); i++)
+					out.writeLong(stage.bits.get(i));
+			}
+			out.flush();
+			fout.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file))
+			throw new IOException("cannot replace " + file);
+		modified = false;
+	}
+
+	/**
+	 * Loads this BloomFilter from the specified file if it exists and has been written with the same parameters.
+	 *
+	 * @param file
+	 *            a file written by {@link #save(File)}.
+	 * @return true if this BloomFilter has been loaded; false otherwise (in which case it is empty).
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public synchronized boolean load(File file) throws IOException {
+		stages.clear();
+		modified = false;
+		if (!file.exists())
+			return false;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readLong() != initialCapacity || in.readDouble() != falsePositiveRate)
+				return false;
+			for (int i = in.readInt(); i > 0; i--) {
+				int hashes = in.readInt();
+				long capacity = in.readLong();
+				long count = in.readLong();
+				long[] bits = new long[in.readInt()];
+				for (int j = 0; j < bits.length; j++)
+					bits[j] = in.readLong();
+				stages.add(new Stage(bits, hashes, capacity, count));
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Determines whether or not any stage contains all of the bits of the specified hash code.
+	 *
+	 * @param hash
+	 *            the hash code of a key.
+	 * @return true if any stage contains all of the bits of the hash code; false otherwise.
+	 */
+	protected boolean contains(long hash) {
+		for (Stage stage : stages)
+			if (stage.contains(hash))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns a 64-bit hash code of the specified key (FNV-1a over its characters followed by the finalizer of
+	 * MurmurHash3, so that both halves are well mixed).
+	 *
+	 * @param key
+	 *            a key.
+	 * @return a 64-bit hash code of the key.
+	 */
+	protected static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb33fe6f96d7bL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
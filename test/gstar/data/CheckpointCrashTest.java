@@ -0,0 +1,182 @@
+package gstar.data;
+
+import gstar.Configuration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests the recovery of a GraphManager that stops in the middle of a checkpoint. A child process applies a sequence
+ * of updates, checkpoints once, applies more updates, and then halts right after one of the phases of another
+ * checkpoint. The graph recovered from the data, index, and log that it left behind must equal the graph built without
+ * a crash.
+ */
+public class CheckpointCrashTest {
+
+	/**
+	 * The phases of a checkpoint after which the child process halts.
+	 */
+	static final String[] PHASES = { "none", "flush", "index", "filter", "storage", "log" };
+
+	/**
+	 * The number of vertices.
+	 */
+	static final int VERTICES = 1000;
+
+	/**
+	 * The number of time instances.
+	 */
+	static final int INSTANCES = 8;
+
+	/**
+	 * Runs the tests, or, if the first argument is "crash", acts as the child process.
+	 *
+	 * @param args
+	 *            "crash" followed by a directory, a phase, and configuration arguments in the child process; the
+	 *            configuration arguments to test with otherwise (e.g., -pageCompression true -ingestionThreads 4).
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("crash")) {
+			crash(new File(args[1]), args[2], Arrays.copyOfRange(args, 3, args.length));
+			return;
+		}
+		File dir = ReplayTest.temporaryDirectory();
+		GraphManager manager = build(new File(dir, "expected"), args);
+		String expected = dump(manager);
+		manager.shutdown();
+		for (String storage : new String[] { "disk", "mapped", "memory" })
+			for (String diskIndex : new String[] { "false", "true" })
+				for (String phase : PHASES) {
+					File d = new File(dir, storage + "_" + diskIndex + "_" + phase);
+					ArrayList<String> arguments = new ArrayList<String>(Arrays.asList(args));
+					arguments.addAll(Arrays.asList("-storage", storage, "-diskIndex", diskIndex));
+					runChild(d, phase, arguments);
+					manager = open(d, arguments.toArray(new String[0]));
+					try {
+						ReplayTest.check(expected.equals(dump(manager)), "the graph recovered after " + phase + " on "
+								+ storage + " storage with diskIndex=" + diskIndex);
+					} finally {
+						manager.shutdown();
+					}
+				}
+		System.out.println("CheckpointCrashTest: OK");
+	}
+
+	/**
+	 * Applies the updates and halts the process after the specified phase of the second checkpoint.
+	 */
+	static void crash(File dir, String phase, String[] args) throws Exception {
+		GraphManager manager = open(dir, args);
+		update(manager, 1, INSTANCES / 2);
+		manager.checkpoint();
+		update(manager, INSTANCES / 2 + 1, INSTANCES);
+		manager.compact(); // moves fat nodes so that old copies must be removed at the checkpoint
+		List<String> phases = Arrays.asList(PHASES);
+		int last = phases.indexOf(phase);
+		if (last >= phases.indexOf("flush"))
+			manager.storageManager.flush();
+		if (last >= phases.indexOf("index"))
+			manager.index.checkpoint();
+		if (last >= phases.indexOf("filter") && manager.vertexFilter != null)
+			manager.vertexFilter.save(new File(manager.dataFileName() + ".blm"));
+		if (last >= phases.indexOf("storage"))
+			manager.storageManager.checkpoint();
+		if (last >= phases.indexOf("log"))
+			manager.log.truncate();
+		Runtime.getRuntime().halt(0); // nothing else is saved
+	}
+
+	/**
+	 * Runs the child process on the specified directory and waits until it halts.
+	 */
+	static void runChild(File dir, String phase, Collection<String> args) throws IOException, InterruptedException {
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(CheckpointCrashTest.class.getName());
+		command.add("crash");
+		command.add(dir.getPath());
+		command.add(phase);
+		command.addAll(args);
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		for (String line = in.readLine(); line != null; line = in.readLine())
+			System.out.println(line);
+		ReplayTest.check(process.waitFor() == 0, "the child process for " + phase);
+	}
+
+	/**
+	 * Builds the graph without a crash.
+	 */
+	static GraphManager build(File dir, String[] args) throws Exception {
+		GraphManager manager = open(dir, args);
+		update(manager, 1, INSTANCES);
+		return manager;
+	}
+
+	/**
+	 * Opens a GraphManager on the specified directory.
+	 */
+	static GraphManager open(File dir, String[] args) throws Exception {
+		Configuration configuration = new Configuration();
+		configuration.update("-system-dir", dir.getPath(), "-bufferSize", "" + (256 << 10), "-compaction", "false");
+		configuration.update(args);
+		return new GraphManager(0, configuration);
+	}
+
+	/**
+	 * Applies the updates made at the specified time instances. Each update adds edges between random vertices and
+	 * labels of random lengths, so fat nodes grow and move between pages.
+	 */
+	static void update(GraphManager manager, int from, int to) throws Exception {
+		for (int t = from; t <= to; t++) {
+			Random random = new Random(t);
+			ArrayList<VertexUpdateMessage> messages = new ArrayList<VertexUpdateMessage>();
+			for (int i = 0; i < VERTICES; i++) {
+				VertexUpdateMessage message = new VertexUpdateMessage(new VID("v" + i));
+				for (int e = random.nextInt(8); e > 0; e--)
+					message.updateMessageForOutgoingEdge(new VID("v" + random.nextInt(VERTICES)));
+				message.update("degree", message.numOutgoingEdgesToUpdate());
+				message.update("label", new String(new char[random.nextInt(200)]).replace('\0', (char) ('a' + t)));
+				messages.add(message);
+			}
+			manager.updateGraph(new GraphPath(""), new GID(t), messages);
+		}
+	}
+
+	/**
+	 * Returns a description of the edges and attributes of each vertex at each time instance.
+	 */
+	static String dump(GraphManager manager) {
+		StringBuilder s = new StringBuilder();
+		for (int t = 1; t <= INSTANCES; t++) {
+			Set<GID> graphs = new HashSet<GID>(Collections.singleton(new GID(t)));
+			for (int i = 0; i < VERTICES; i++) {
+				Iterator<Vertex> vertices = manager.vertices(new VID("v" + i), graphs);
+				if (!vertices.hasNext())
+					continue;
+				Vertex v = vertices.next();
+				s.append(t).append(' ').append(v.vertexID()).append(' ').append(v.value("degree")).append(' ')
+						.append(v.value("label")).append(':');
+				for (Edge e : v.outgoingEdges())
+					s.append(' ').append(e.otherEnd());
+				s.append('\n');
+			}
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,46 @@
+package gstar.data;
+
+import java.io.File;
+
+/**
+ * Tests that updates applied in parallel lanes build the same graph as updates applied in order.
+ */
+public class IngestionLaneTest {
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args
+	 *            ignored.
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = ReplayTest.temporaryDirectory();
+		for (String diskIndex : new String[] { "false", "true" }) {
+			GraphManager manager = CheckpointCrashTest.build(new File(dir, "inOrder_" + diskIndex), new String[] {
+					"-diskIndex", diskIndex });
+			String expected = CheckpointCrashTest.dump(manager);
+			manager.shutdown();
+			manager = CheckpointCrashTest.build(new File(dir, "lanes_" + diskIndex), new String[] { "-diskIndex",
+					diskIndex, "-ingestionThreads", "4" });
+			try {
+				ReplayTest.check(expected.equals(CheckpointCrashTest.dump(manager)), "the graph built in lanes");
+				ReplayTest.check(manager.index.vertexIDs().size() == CheckpointCrashTest.VERTICES, "the vertices indexed");
+				for (int i = 0; i < CheckpointCrashTest.VERTICES; i++)
+					ReplayTest.check(manager.mayContain(new VID("v" + i)), "the vertices in the filter");
+				manager.checkpoint();
+			} finally {
+				manager.shutdown();
+			}
+			manager = CheckpointCrashTest.open(new File(dir, "lanes_" + diskIndex), new String[] { "-diskIndex",
+					diskIndex });
+			try {
+				ReplayTest.check(expected.equals(CheckpointCrashTest.dump(manager)), "the graph reopened");
+			} finally {
+				manager.shutdown();
+			}
+		}
+		System.out.println("IngestionLaneTest: OK");
+	}
+}
@@ -0,0 +1,166 @@
+package gstar.data;
+
+import gstar.Configuration;
+import hinode.index.FatNode;
+import hwanglab.data.storage.ObjectLocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Tests the recovery of a GraphManager from its WriteAheadLog.
+ */
+public class ReplayTest {
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args
+	 *            the name of a directory for the data files (a temporary directory if none).
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = args.length > 0 ? new File(args[0]) : temporaryDirectory();
+		for (String storage : new String[] { "disk", "mapped", "memory" })
+			for (String diskIndex : new String[] { "false", "true" }) {
+				replayUpdates(new File(dir, storage + "_" + diskIndex + "_updates"), storage, diskIndex);
+				replayIntoReusedSlot(new File(dir, storage + "_" + diskIndex + "_reused"), storage, diskIndex);
+				replayOutOfOrderUpdate(new File(dir, storage + "_" + diskIndex + "_outOfOrder"), storage, diskIndex);
+			}
+		System.out.println("ReplayTest: OK");
+	}
+
+	/**
+	 * Checks that the updates made after the most recent checkpoint are recovered when a GraphManager is reopened
+	 * without having been checkpointed, and that the updates saved at the checkpoint are not applied twice.
+	 */
+	static void replayUpdates(File dir, String storage, String diskIndex) throws Exception {
+		GraphManager manager = open(dir, storage, diskIndex);
+		for (int t = 1; t <= 3; t++)
+			update(manager, t, "a", "b");
+		manager.checkpoint();
+		update(manager, 4, "a", "c");
+		update(manager, 4, "b", "c");
+		manager.shutdown(); // no checkpoint: the last updates are only in the log
+
+		manager = open(dir, storage, diskIndex);
+		check(manager.vertices(new VID("a"), graphs(4)).next().outgoingEdges().size() == 2, "edges of a at 4");
+		check(manager.vertices(new VID("b"), graphs(4)).next().outgoingEdges().size() == 1, "edges of b at 4");
+		FatNode a = (FatNode) manager.storageManager.get(manager.index.getFatNode(new VID("a")));
+		check(a.updateCount(new GID(4)) == 1, "the update of a at 4 applied once");
+		check(!manager.vertices(new VID("c"), graphs(3)).hasNext(), "c before it was added");
+		manager.shutdown();
+	}
+
+	/**
+	 * Checks that replaying an update of a vertex whose slot was reused by another vertex after the checkpoint (i.e.,
+	 * the data of the slot was saved but the index referring to it was not) stores the vertex elsewhere instead of
+	 * overwriting the other vertex.
+	 */
+	static void replayIntoReusedSlot(File dir, String storage, String diskIndex) throws Exception {
+		GraphManager manager = open(dir, storage, diskIndex);
+		update(manager, 1, "a", "b");
+		manager.checkpoint();
+		ObjectLocation location = manager.index.getFatNode(new VID("a"));
+		FatNode other = new FatNode(new VID("x"));
+		VertexUpdateMessage message = new VertexUpdateMessage(new VID("x"));
+		message.update("name", "x");
+		other.update(message, new GID(1));
+		check(location.equals(manager.storageManager.put(location, other)), "the slot of a reused");
+		manager.storageManager.flush();
+		manager.log.sync(manager.log.append(manager.toLogRecord(new GID(2), messages("a", "c"))));
+		manager.shutdown(); // no checkpoint: the saved index still refers a to the reused slot
+
+		manager = open(dir, storage, diskIndex);
+		FatNode stored = (FatNode) manager.storageManager.get(location);
+		check(stored != null && stored.vertexID().equals(new VID("x")), "the vertex in the reused slot kept");
+		ObjectLocation moved = manager.index.getFatNode(new VID("a"));
+		check(moved != null && !moved.equals(location), "a stored elsewhere");
+		Iterator<Vertex> vertices = manager.vertices(new VID("a"), graphs(2));
+		check(vertices.hasNext() && vertices.next().outgoingEdges().size() == 1, "the replayed update of a");
+		manager.shutdown();
+	}
+
+	/**
+	 * Checks that an update of a vertex preceding its most recent update is rejected, that the messages for the other
+	 * vertices are applied, and that replaying the log leads to the same graph.
+	 */
+	static void replayOutOfOrderUpdate(File dir, String storage, String diskIndex) throws Exception {
+		GraphManager manager = open(dir, storage, diskIndex);
+		update(manager, 2, "a", "b");
+		ArrayList<VertexUpdateMessage> messages = messages("a", "c");
+		messages.addAll(messages("b", "c"));
+		try {
+			manager.updateGraph(new GraphPath(""), new GID(1), messages);
+			throw new AssertionError("an update of a at 1 after an update at 2");
+		} catch (IllegalArgumentException e) {
+		}
+		for (int i = 0; i < 2; i++) {
+			check(!manager.vertices(new VID("a"), graphs(1)).hasNext(), "a at 1");
+			check(manager.vertices(new VID("a"), graphs(2)).next().outgoingEdges().size() == 1, "the edges of a at 2");
+			check(manager.vertices(new VID("b"), graphs(1)).next().outgoingEdges().size() == 1, "the edges of b at 1");
+			manager.shutdown(); // no checkpoint: the updates are replayed from the log
+			manager = open(dir, storage, diskIndex);
+		}
+		manager.shutdown();
+	}
+
+	/**
+	 * Opens a GraphManager on the specified directory.
+	 */
+	static GraphManager open(File dir, String storage, String diskIndex) throws Exception {
+		Configuration configuration = new Configuration();
+		configuration.update("-system-dir", dir.getPath(), "-bufferSize", "" + (1 << 20), "-storage", storage,
+				"-diskIndex", diskIndex, "-compaction", "false");
+		return new GraphManager(0, configuration);
+	}
+
+	/**
+	 * Adds an edge at the specified time instance.
+	 */
+	static void update(GraphManager manager, int t, String src, String des) throws Exception {
+		manager.updateGraph(new GraphPath(""), new GID(t), messages(src, des));
+	}
+
+	/**
+	 * Returns the messages that add an edge.
+	 */
+	static ArrayList<VertexUpdateMessage> messages(String src, String des) {
+		VertexUpdateMessage message = new VertexUpdateMessage(new VID(src));
+		message.updateMessageForOutgoingEdge(new VID(des));
+		return new ArrayList<VertexUpdateMessage>(Collections.singleton(message));
+	}
+
+	/**
+	 * Returns the set containing the specified graph.
+	 */
+	static Set<GID> graphs(int t) {
+		Set<GID> graphs = new HashSet<GID>();
+		graphs.add(new GID(t));
+		return graphs;
+	}
+
+	/**
+	 * Returns a new temporary directory.
+	 */
+	static File temporaryDirectory() throws IOException {
+		File dir = File.createTempFile("replay", "");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+
+	/**
+	 * Throws an AssertionError with the specified message if the specified condition does not hold.
+	 */
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
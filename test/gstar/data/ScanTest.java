@@ -0,0 +1,86 @@
+package gstar.data;
+
+import hinode.index.FatNode;
+import hwanglab.data.storage.ObjectLocation;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Tests scans over all of the vertices of a graph while the fat nodes are moved or removed.
+ */
+public class ScanTest {
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args
+	 *            ignored.
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = ReplayTest.temporaryDirectory();
+		scanAcrossCompaction(new File(dir, "compaction"));
+		scanAcrossReset(new File(dir, "reset"));
+		System.out.println("ScanTest: OK");
+	}
+
+	/**
+	 * Checks that a scan started before fat nodes are moved (as by compaction) and their old copies are removed at a
+	 * checkpoint skips the removed copies and returns each vertex at most once.
+	 */
+	static void scanAcrossCompaction(File dir) throws Exception {
+		GraphManager manager = CheckpointCrashTest.build(dir, new String[0]);
+		try {
+			manager.checkpoint();
+			Iterator<Vertex> vertices = manager.vertices(graphs(CheckpointCrashTest.INSTANCES));
+			Set<VID> visited = new HashSet<VID>();
+			ReplayTest.check(vertices.hasNext() && visited.add(vertices.next().vertexID()), "the first vertex");
+			int moved = 0;
+			for (ObjectLocation l : manager.index.getAllFatNodes()) { // moved one by one as compact() does
+				FatNode v = (FatNode) manager.storageManager.get(l);
+				manager.index.relocate(v.vertexID(), manager.storageManager.relocate(l));
+				moved++;
+			}
+			ReplayTest.check(moved == CheckpointCrashTest.VERTICES, "the fat nodes moved");
+			manager.checkpoint(); // removes the old copies
+			while (vertices.hasNext())
+				ReplayTest.check(visited.add(vertices.next().vertexID()), "each vertex returned once");
+			visited.clear();
+			for (vertices = manager.vertices(graphs(CheckpointCrashTest.INSTANCES)); vertices.hasNext();)
+				visited.add(vertices.next().vertexID());
+			ReplayTest.check(visited.size() == CheckpointCrashTest.VERTICES, "the vertices after the move");
+		} finally {
+			manager.shutdown();
+		}
+	}
+
+	/**
+	 * Checks that a scan started before the data is removed ends without returning the removed vertices.
+	 */
+	static void scanAcrossReset(File dir) throws Exception {
+		GraphManager manager = CheckpointCrashTest.build(dir, new String[0]);
+		try {
+			manager.checkpoint();
+			Iterator<Vertex> vertices = manager.vertices(graphs(CheckpointCrashTest.INSTANCES));
+			ReplayTest.check(vertices.hasNext(), "the first vertex");
+			vertices.next();
+			manager.reset(new GraphPath(""));
+			ReplayTest.check(!vertices.hasNext(), "no vertex after the data has been removed");
+			manager.checkpoint();
+		} finally {
+			manager.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the set containing the specified graph.
+	 */
+	static Set<GID> graphs(int t) {
+		return new HashSet<GID>(Collections.singleton(new GID(t)));
+	}
+}
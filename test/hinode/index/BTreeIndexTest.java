@@ -0,0 +1,160 @@
+package hinode.index;
+
+import gstar.data.GID;
+import gstar.data.VID;
+import hinode.util.Interval;
+import hwanglab.data.storage.ObjectLocation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.Vector;
+
+/**
+ * Tests the lookups, the range scans, and the checkpoints of BTreeIndexes against a TreeMap.
+ */
+public class BTreeIndexTest
+{
+	/**
+	 * The number of vertices (enough for a tree of three levels).
+	 */
+	static final int VERTICES = 20000;
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args
+	 *            ignored.
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		File dir = File.createTempFile("btree", "");
+		dir.delete();
+		dir.mkdir();
+		putAndScan(new File(dir, "scan.idx"));
+		checkpointAndReopen(new File(dir, "reopen.idx"));
+		System.out.println("BTreeIndexTest: OK");
+	}
+
+	/**
+	 * Checks the lookups, the range scans, and the scans by time instance after entries are added in random order,
+	 * updated, and relocated.
+	 */
+	static void putAndScan(File file) throws Exception
+	{
+		BTreeIndex index = new BTreeIndex(file.getPath(), 4L << 20);
+		try
+		{
+			TreeMap<VID, ObjectLocation> expected = build(index, 0);
+			check(index.count() == VERTICES, "the number of entries");
+			index.put(new VID("v0"), new ObjectLocation(1, 1), new GID(1), lifespan(0));
+			expected.put(new VID("v0"), new ObjectLocation(1, 1));
+			check(index.count() == VERTICES, "the number of entries after an update");
+			for (int i = 1; i < VERTICES; i += 100) // moved without changing their lifespans
+			{
+				index.relocate(new VID("v" + i), new ObjectLocation(2, i));
+				expected.put(new VID("v" + i), new ObjectLocation(2, i));
+			}
+			check(index, expected);
+			check(index.getFatNode(new VID("w")) == null, "no entry for a missing vertex");
+			Vector<GID> sorted = new Vector<GID>(Collections.singleton(new GID(3)));
+			Vector<ObjectLocation> alive = index.getFatNodes(sorted);
+			check(alive.size() == VERTICES / 2, alive.size() + " vertices alive at 3");
+			check(alive.contains(new ObjectLocation(2, 1)), "a relocated vertex alive at 3");
+		} finally
+		{
+			index.close();
+		}
+	}
+
+	/**
+	 * Checks that a reopened BTreeIndex contains the entries saved at the most recent checkpoint even if updated
+	 * nodes have been written after that checkpoint.
+	 */
+	static void checkpointAndReopen(File file) throws Exception
+	{
+		BTreeIndex index = new BTreeIndex(file.getPath(), 4L << 20);
+		TreeMap<VID, ObjectLocation> expected = build(index, 0);
+		index.checkpoint();
+		build(index, 1); // written to disk but not checkpointed
+		index.root = index.flush(index.root);
+		index.nodes.flush();
+		index.close();
+
+		check(BTreeIndex.exists(file.getPath()), "the saved index");
+		index = new BTreeIndex(file.getPath(), 4L << 20);
+		check(index.count() == VERTICES, "the number of entries reopened");
+		check(index.versionNumbers().contains(new GID(1)), "the versions reopened");
+		check(index, expected);
+		expected = build(index, 2);
+		index.checkpoint();
+		index.close();
+
+		index = new BTreeIndex(file.getPath(), 4L << 20);
+		try
+		{
+			check(index, expected);
+		} finally
+		{
+			index.close();
+		}
+	}
+
+	/**
+	 * Puts an entry for each vertex in random order and returns the entries put.
+	 */
+	static TreeMap<VID, ObjectLocation> build(BTreeIndex index, int seed) throws Exception
+	{
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < VERTICES; i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(seed));
+		TreeMap<VID, ObjectLocation> entries = new TreeMap<VID, ObjectLocation>();
+		for (int i : order)
+		{
+			ObjectLocation location = new ObjectLocation(10 + seed * VERTICES + i, i % 7);
+			index.put(new VID("v" + i), location, new GID(1), lifespan(i));
+			entries.put(new VID("v" + i), location);
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the lifespan of the specified vertex: from 1 to 2 for even vertices and from 1 on for odd ones.
+	 */
+	static Interval lifespan(int i)
+	{
+		return i % 2 == 0 ? new Interval(GID.timestamp(1), GID.timestamp(2)) : new Interval(GID.timestamp(1));
+	}
+
+	/**
+	 * Checks that the specified BTreeIndex contains the specified entries in the order of their vertex IDs.
+	 */
+	static void check(BTreeIndex index, TreeMap<VID, ObjectLocation> expected) throws Exception
+	{
+		for (Map.Entry<VID, ObjectLocation> e : expected.entrySet())
+			check(e.getValue().equals(index.getFatNode(e.getKey())), "the location of " + e.getKey());
+		check(new ArrayList<VID>(expected.keySet()).equals(index.vertexIDs()), "the vertex IDs in order");
+		check(new ArrayList<ObjectLocation>(expected.values()).equals(index.getAllFatNodes()), "all the locations");
+		for (String[] range : new String[][] { { "v1", "v2" }, { "v5", "v50" }, { "v999", "w" }, { "a", "v0" } })
+		{
+			VID from = new VID(range[0]), to = new VID(range[1]);
+			check(new ArrayList<ObjectLocation>(expected.subMap(from, to).values()).equals(index.getFatNodes(from, to)),
+					"the locations from " + from + " to " + to);
+		}
+	}
+
+	/**
+	 * Throws an AssertionError with the specified message if the specified condition does not hold.
+	 */
+	static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
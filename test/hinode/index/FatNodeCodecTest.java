@@ -0,0 +1,212 @@
+package hinode.index;
+
+import gstar.data.GID;
+import gstar.data.VID;
+import gstar.data.VertexUpdateMessage;
+import hinode.util.Interval;
+import hwanglab.util.Pair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests that FatNodes survive a round trip through a FatNodeCodec and that records written in the older formats are
+ * still read.
+ */
+public class FatNodeCodecTest
+{
+	/**
+	 * The FatNode built by {@link #node()}, as written by the FatNodeCodec of each older format.
+	 */
+	static final String LEGACY_RECORD = "0001610600046e616d65020100016102030100016204000005636f756e7403020202020204"
+			+ "0204020a0600000573636f726501033ff800000000000004000003626967010480808080804004000004666c6167010501"
+			+ "04000006667269656e6401060001640400040202020202030400020000016302000100000001650800020003000001620203"
+			+ "0303400000000000000000056c6162656c01000178030400030140080000000000000000016401000400",
+			RECORD_WITHOUT_DEGREES = "0001610600046e616d65020100016104060100016208000005636f756e7403020204040204"
+					+ "0408020a0c00000573636f726501033ff800000000000008000003626967010480808080804008000004666c6167"
+					+ "01050108000006667269656e640106000164080004040404040406080002000001630400010000000165100002000300"
+					+ "00016204060303400000000000000000056c6162656c01000178030800030140080000000000000000016403000400",
+			RECORD_WITH_SHORT_STRINGS = "0001610600046e616d65020100016104060100016208000005636f756e7403020204040204"
+					+ "0408020a0c00000573636f726501033ff800000000000008000003626967010480808080804008000004666c6167"
+					+ "01050108000006667269656e640106000164080004040404040406080002000001630400010000000165100002000300"
+					+ "00016204060303400000000000000000056c6162656c0100017803080003014008000000000000000001640300040002"
+					+ "040210020204020402";
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args
+	 *            ignored.
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		roundTrip();
+		oldFormats();
+		adjacentIntervals();
+		longStrings();
+		System.out.println("FatNodeCodecTest: OK");
+	}
+
+	/**
+	 * Checks that a FatNode is written again as it was read, with the same history and degree series.
+	 */
+	static void roundTrip() throws Exception
+	{
+		FatNode node = node();
+		VertexUpdateMessage m = new VertexUpdateMessage(new VID("a"));
+		m.update("count", 6);
+		m.updateMessageForOutgoingEdge(new VID("f"));
+		node.update(m, new GID(7.25)); // not a whole GID value
+		byte[] b = write(node);
+		FatNode copy = read(new FatNodeCodec(), b);
+		check(Arrays.equals(b, write(copy)), "the record written again");
+		check(copy.updateCount(new GID(7.25)) == 1, "the update at 7.25");
+		for (double t : new double[] { 1, 2, 3, 4, 5, 7.25 })
+		{
+			check(copy.inDegree(new GID(t)) == node.inDegree(new GID(t)), "the in-degree at " + t);
+			check(copy.outDegree(new GID(t)) == node.outDegree(new GID(t)), "the out-degree at " + t);
+			check(copy.convertToVertex(new GID(t)).toString().equals(node.convertToVertex(new GID(t)).toString()),
+					"the vertex at " + t);
+		}
+	}
+
+	/**
+	 * Checks that records written in the older formats are read as the FatNode they were written from.
+	 */
+	static void oldFormats() throws Exception
+	{
+		byte[] expected = write(node());
+		check(Arrays.equals(expected, write(read(new FatNodeCodec(FatNodeCodec.FORMAT_WITH_SHORT_STRINGS),
+				bytes(RECORD_WITH_SHORT_STRINGS)))), "a record with short strings");
+		check(Arrays.equals(expected, write(read(new FatNodeCodec(FatNodeCodec.FORMAT_WITHOUT_DEGREES),
+				bytes(RECORD_WITHOUT_DEGREES)))), "a record without degrees");
+		check(Arrays.equals(expected, write(read(new FatNodeCodec(FatNodeCodec.LEGACY_FORMAT), bytes(LEGACY_RECORD)))),
+				"a legacy record");
+	}
+
+	/**
+	 * Checks that an Interval ending right before its start is not read as an open Interval.
+	 */
+	static void adjacentIntervals() throws Exception
+	{
+		FatNode node = new FatNode(new VID("a"));
+		ArrayList<Pair<Object, Interval>> pairs = new ArrayList<Pair<Object, Interval>>();
+		pairs.add(new Pair<Object, Interval>("empty", new Interval(GID.timestamp(3), GID.timestamp(2))));
+		pairs.add(new Pair<Object, Interval>("single", new Interval(GID.timestamp(3), GID.timestamp(3))));
+		pairs.add(new Pair<Object, Interval>("open", new Interval(GID.timestamp(4))));
+		node.update("name", pairs);
+		@SuppressWarnings("unchecked")
+		ArrayList<Pair<Object, Interval>> copy = (ArrayList<Pair<Object, Interval>>) read(new FatNodeCodec(),
+				write(node)).value("name");
+		for (int i = 0; i < pairs.size(); i++)
+		{
+			check(copy.get(i).first().equals(pairs.get(i).first()), "the value " + pairs.get(i).first());
+			check(copy.get(i).second().getStart() == pairs.get(i).second().getStart()
+					&& copy.get(i).second().getEnd() == pairs.get(i).second().getEnd(), "the interval of "
+					+ pairs.get(i).first());
+		}
+	}
+
+	/**
+	 * Checks that strings longer than 64 KB are written.
+	 */
+	static void longStrings() throws Exception
+	{
+		StringBuilder s = new StringBuilder();
+		while (s.length() < 100000)
+			s.append("\u00e9\u4e2d-");
+		String id = s.toString();
+		FatNode node = new FatNode(new VID(id));
+		VertexUpdateMessage m = new VertexUpdateMessage(new VID(id));
+		m.update(id, id);
+		m.updateMessageForOutgoingEdge(new VID(id)).update(id, id);
+		node.update(m, new GID(1));
+		FatNode copy = read(new FatNodeCodec(), write(node));
+		check(copy.vertexID().toString().equals(id), "a long vertex ID");
+		check(id.equals(copy.convertToVertex(new GID(1)).value(id)), "a long attribute");
+		check(id.equals(copy.convertToVertex(new GID(1)).outgoingEdges().iterator().next().value(id)),
+				"a long edge attribute");
+	}
+
+	/**
+	 * Returns the FatNode whose records are kept in the older formats.
+	 */
+	static FatNode node()
+	{
+		FatNode node = new FatNode(new VID("a"));
+		VertexUpdateMessage m = new VertexUpdateMessage(new VID("a"));
+		m.update("name", "a");
+		m.update("count", 1);
+		m.updateMessageForOutgoingEdge(new VID("b")).update("weight", 2.0);
+		m.updateMessageForOutgoingEdge(new VID("b")).update("label", "x");
+		m.inEdgeUpdateMessage(new VID("c"), null);
+		node.update(m, new GID(1));
+		m = new VertexUpdateMessage(new VID("a"));
+		m.update("count", 2);
+		m.update("score", 1.5);
+		m.update("big", 1L << 40);
+		m.update("flag", true);
+		m.update("friend", new VID("d"));
+		m.updateMessageForOutgoingEdge(new VID("d"));
+		node.update(m, new GID(2));
+		m = new VertexUpdateMessage(new VID("a"));
+		m.update("name", "b");
+		m.updateMessageForOutgoingEdge(new VID("b")).update("weight", 3.0);
+		node.update(m, new GID(3));
+		m = new VertexUpdateMessage(new VID("a"));
+		m.update("count", 5);
+		m.inEdgeUpdateMessage(new VID("e"), null);
+		node.update(m, new GID(5));
+		return node;
+	}
+
+	/**
+	 * Returns the record of the specified FatNode in the current format.
+	 */
+	static byte[] write(FatNode node) throws IOException
+	{
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(b);
+		new FatNodeCodec().write(node, out);
+		out.flush();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Reads a FatNode from the specified record.
+	 */
+	static FatNode read(FatNodeCodec codec, byte[] record) throws Exception
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		FatNode node = (FatNode) codec.read(in);
+		check(in.read() < 0, "the whole record read");
+		return node;
+	}
+
+	/**
+	 * Returns the bytes written as the specified hexadecimal digits.
+	 */
+	static byte[] bytes(String hex)
+	{
+		byte[] b = new byte[hex.length() / 2];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		return b;
+	}
+
+	/**
+	 * Throws an AssertionError with the specified message if the specified condition does not hold.
+	 */
+	static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,101 @@
+package hinode.index;
+
+import gstar.data.GID;
+import gstar.data.VID;
+import gstar.data.VertexUpdateMessage;
+
+import java.util.Arrays;
+
+/**
+ * Tests the histories of FatNodes.
+ */
+public class FatNodeTest
+{
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args
+	 *            ignored.
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		lookups();
+		outOfOrderUpdate();
+		System.out.println("FatNodeTest: OK");
+	}
+
+	/**
+	 * Checks that the intervals, the attributes, and the edges are found at each time instance, both by the lookups
+	 * and by a Cursor.
+	 */
+	static void lookups() throws Exception
+	{
+		FatNode node = node();
+		FatNode.Cursor cursor = node.cursor();
+		check(node.getLastValidInterval(new GID(0)) == null && cursor.interval(new GID(0)) == null,
+				"no interval before the first update");
+		for (int t = 1; t <= 7; t++)
+		{
+			int start = t < 3 ? 1 : t < 5 ? 3 : 5;
+			check(node.getLastValidInterval(new GID(t)).getStart() == GID.timestamp(start), "the interval at " + t);
+			check(cursor.interval(new GID(t)).getStart() == GID.timestamp(start), "the interval of the cursor at " + t);
+			check(node.convertToVertex(new GID(t)).toString().equals(cursor.vertex(new GID(t)).toString()),
+					"the vertex of the cursor at " + t);
+			check(node.convertToVertex(new GID(t)).value("count").equals(start), "the count at " + t);
+			check(node.outDegree(new GID(t)) == (t < 3 ? 1 : 2), "the out-degree at " + t);
+		}
+	}
+
+	/**
+	 * Checks that an update preceding the most recent update is rejected without changing the FatNode, while another
+	 * update at the time instance of the most recent update is applied.
+	 */
+	static void outOfOrderUpdate() throws Exception
+	{
+		FatNode node = node();
+		byte[] before = FatNodeCodecTest.write(node);
+		VertexUpdateMessage m = new VertexUpdateMessage(new VID("a"));
+		m.update("count", 4);
+		m.updateMessageForOutgoingEdge(new VID("d"));
+		try
+		{
+			node.update(m, new GID(4));
+			throw new AssertionError("an update at 4 after an update at 5");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+		check(Arrays.equals(before, FatNodeCodecTest.write(node)), "the FatNode after a rejected update");
+		node.update(m, new GID(5));
+		check(node.updateCount(new GID(5)) == 2, "two updates at 5");
+		check(node.convertToVertex(new GID(5)).value("count").equals(4), "the count after the second update at 5");
+		check(node.outDegree(new GID(5)) == 3, "the out-degree after the second update at 5");
+	}
+
+	/**
+	 * Returns a FatNode updated at 1, 3, and 5.
+	 */
+	static FatNode node()
+	{
+		FatNode node = new FatNode(new VID("a"));
+		for (int t = 1; t <= 5; t += 2)
+		{
+			VertexUpdateMessage m = new VertexUpdateMessage(new VID("a"));
+			m.update("count", t);
+			m.updateMessageForOutgoingEdge(new VID(t < 3 ? "b" : "c"));
+			node.update(m, new GID(t));
+		}
+		return node;
+	}
+
+	/**
+	 * Throws an AssertionError with the specified message if the specified condition does not hold.
+	 */
+	static void check(boolean condition, String message)
+	{
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,134 @@
+package hwanglab.data.storage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests that large objects stored in extents are read, updated, moved, and removed like other objects.
+ */
+public class ExtentTest {
+
+	/**
+	 * The size (in bytes) of the large objects.
+	 */
+	static final int SIZE = 260 * 1024;
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args
+	 *            ignored.
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = File.createTempFile("extent", "");
+		dir.delete();
+		dir.mkdir();
+		updateAndReopen(new File(dir, "update.db"));
+		replaceBySmallObject(new File(dir, "small.db"));
+		System.out.println("ExtentTest: OK");
+	}
+
+	/**
+	 * Checks that an update of a large object shares the unchanged extents with the old object and writes the others
+	 * in the page of its new record, that the old object remains readable at its old location until the next
+	 * checkpoint, and that the object survives a move and a reopen.
+	 */
+	static void updateAndReopen(File file) throws Exception {
+		DiskStorageManager storageManager = new DiskStorageManager(file.getPath(), 16L << 20);
+		storageManager.setWriteAheadLog(new WriteAheadLog(file.getPath() + ".log")); // removals are deferred
+		byte[] b = bytes(SIZE, 0);
+		ObjectLocation l = storageManager.add(b);
+		ArrayList<ObjectLocation> extents = extents(storageManager, l);
+		check(extents != null && extents.size() > 1, "the extents of a large object");
+		check(Arrays.equals(b, (byte[]) storageManager.get(l)), "the large object");
+		ObjectLocation small = storageManager.add("small");
+		storageManager.checkpoint(); // the records created since the previous checkpoint are removed right away
+
+		byte[] updated = Arrays.copyOf(b, SIZE + 1000); // grows at the end
+		System.arraycopy(bytes(1000, 1), 0, updated, SIZE, 1000);
+		ObjectLocation u = storageManager.put(l, updated);
+		check(!u.equals(l), "a new location for the updated object");
+		ArrayList<ObjectLocation> shared = new ArrayList<ObjectLocation>(extents(storageManager, u));
+		shared.retainAll(extents);
+		check(shared.size() >= extents.size() - 3, shared.size() + " of " + extents.size() + " extents shared");
+		for (ObjectLocation extent : extents(storageManager, u))
+			check(shared.contains(extent) || extent.pageID == u.pageID, "the extents written with the record");
+		check(Arrays.equals(b, (byte[]) storageManager.get(l)), "the old object before the checkpoint");
+		check(Arrays.equals(updated, (byte[]) storageManager.get(u)), "the updated object");
+		storageManager.checkpoint();
+		check(storageManager.get(l) == null, "the old object after the checkpoint");
+		check(Arrays.equals(updated, (byte[]) storageManager.get(u)), "the updated object after the checkpoint");
+		for (ObjectLocation extent : extents(storageManager, u))
+			check(storageManager.get(extent) == null, "an extent read as an object");
+
+		ObjectLocation moved = storageManager.relocate(u);
+		check(Arrays.equals(updated, (byte[]) storageManager.get(moved)), "the moved object");
+		ArrayList<Object> objects = storageManager.getAll(Arrays.asList(small, moved));
+		check("small".equals(objects.get(0)) && Arrays.equals(updated, (byte[]) objects.get(1)),
+				"the objects read together");
+		storageManager.checkpoint();
+		storageManager.shutdown();
+
+		storageManager = new DiskStorageManager(file.getPath(), 16L << 20);
+		try {
+			check(Arrays.equals(updated, (byte[]) storageManager.get(moved)), "the object reopened");
+			check("small".equals(storageManager.get(small)), "the small object reopened");
+		} finally {
+			storageManager.shutdown();
+		}
+	}
+
+	/**
+	 * Checks that the extents of a large object are removed when a small object replaces it.
+	 */
+	static void replaceBySmallObject(File file) throws Exception {
+		DiskStorageManager storageManager = new DiskStorageManager(file.getPath(), 16L << 20);
+		try {
+			ObjectLocation l = storageManager.add(bytes(SIZE, 2));
+			ArrayList<ObjectLocation> extents = extents(storageManager, l);
+			ObjectLocation u = storageManager.put(l, "small");
+			check("small".equals(storageManager.get(u)), "the small object");
+			check(extents(storageManager, u) == null, "no extents of a small object");
+			for (ObjectLocation extent : extents) {
+				byte[] record = storageManager.read(extent);
+				check(record == null || record.length == 0, "a removed extent");
+			}
+		} finally {
+			storageManager.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the locations of the extents of the large object at the specified location (null if the object is not
+	 * stored in extents).
+	 */
+	static ArrayList<ObjectLocation> extents(DiskStorageManager storageManager, ObjectLocation l) throws Exception {
+		SlottedPage page = storageManager.findPage(l.pageID);
+		try {
+			return storageManager.extents(page, l.index);
+		} finally {
+			storageManager.bufferPool.unpin(page);
+		}
+	}
+
+	/**
+	 * Returns the specified number of pseudo-random bytes.
+	 */
+	static byte[] bytes(int size, long seed) {
+		byte[] b = new byte[size];
+		new Random(seed).nextBytes(b);
+		return b;
+	}
+
+	/**
+	 * Throws an AssertionError with the specified message if the specified condition does not hold.
+	 */
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
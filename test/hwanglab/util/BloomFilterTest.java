@@ -0,0 +1,89 @@
+package hwanglab.util;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests BloomFilters.
+ */
+public class BloomFilterTest {
+
+	/**
+	 * Runs the tests.
+	 *
+	 * @param args
+	 *            ignored.
+	 * @throws Exception
+	 *             if a test fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		readWhileAdding();
+		saveAndLoad();
+		System.out.println("BloomFilterTest: OK");
+	}
+
+	/**
+	 * Checks that readers running while keys are added (and new stages are started) never miss a key added before they
+	 * looked it up.
+	 */
+	static void readWhileAdding() throws Exception {
+		final BloomFilter filter = new BloomFilter(1000, 0.01);
+		final AtomicInteger added = new AtomicInteger();
+		final AtomicInteger missed = new AtomicInteger();
+		Thread[] readers = new Thread[3];
+		for (int r = 0; r < readers.length; r++) {
+			readers[r] = new Thread() {
+
+				public void run() {
+					while (added.get() < 50000) {
+						int n = added.get();
+						for (int i = Math.max(0, n - 100); i < n; i++)
+							if (!filter.mightContain("v" + i))
+								missed.incrementAndGet();
+					}
+				}
+
+			};
+			readers[r].start();
+		}
+		for (int i = 0; i < 50000; i++) {
+			filter.add("v" + i);
+			added.incrementAndGet();
+		}
+		for (Thread reader : readers)
+			reader.join();
+		check(missed.get() == 0, missed.get() + " keys missed");
+		check(filter.stages.size() > 1, "the stages started");
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++)
+			if (filter.mightContain("w" + i))
+				falsePositives++;
+		check(falsePositives < 200, falsePositives + " false positives");
+	}
+
+	/**
+	 * Checks that a loaded BloomFilter contains the keys of the saved one.
+	 */
+	static void saveAndLoad() throws Exception {
+		BloomFilter filter = new BloomFilter(100, 0.01);
+		for (int i = 0; i < 1000; i++)
+			filter.add("v" + i);
+		File file = File.createTempFile("filter", ".blm");
+		filter.save(file);
+		BloomFilter loaded = new BloomFilter(100, 0.01);
+		check(loaded.load(file), "the filter loaded");
+		check(loaded.count() == filter.count(), "the count");
+		for (int i = 0; i < 1000; i++)
+			check(loaded.mightContain("v" + i), "v" + i);
+		check(!new BloomFilter(200, 0.01).load(file), "a filter with other parameters");
+		file.delete();
+	}
+
+	/**
+	 * Throws an AssertionError with the specified message if the specified condition does not hold.
+	 */
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}